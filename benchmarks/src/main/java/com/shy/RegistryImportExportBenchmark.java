@@ -0,0 +1,74 @@
+package com.shy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * .reg 导入/导出吞吐量：内存中（只测解析与格式化）和经由文件（含编码与 I/O）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RegistryImportExportBenchmark {
+
+    @Param({RegistryShapes.REALISTIC, RegistryShapes.DEEP, RegistryShapes.WIDE})
+    public String shape;
+
+    @Param({"100000"})
+    public int values;
+
+    private Registry registry;
+    private List<String> lines;
+    private File regFile;
+    private File outputFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        registry = Registry.createDetached(RegistryShapes.generate(shape, values), 16);
+        StringWriter text = new StringWriter();
+        RegistryExporter.exportAll(registry, new BufferedWriter(text));
+        lines = Arrays.asList(text.toString().split("\r?\n"));
+        regFile = File.createTempFile("registry-import", ".reg");
+        outputFile = File.createTempFile("registry-export", ".reg");
+        RegistryExporter.exportToFile(registry, regFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        regFile.delete();
+        outputFile.delete();
+    }
+
+    @Benchmark
+    public int exportToMemory() throws IOException {
+        StringWriter text = new StringWriter(1 << 20);
+        RegistryExporter.exportAll(registry, new BufferedWriter(text));
+        return text.getBuffer().length();
+    }
+
+    @Benchmark
+    public void exportToFile() throws IOException {
+        RegistryExporter.exportToFile(registry, outputFile);
+    }
+
+    @Benchmark
+    public Registry importFromMemory() throws RegistryImporter.RegistryImportException {
+        Registry target = Registry.createDetached(null, 16);
+        RegistryImporter.importLines(target, lines);
+        return target;
+    }
+
+    @Benchmark
+    public Registry importFromFile() throws IOException, RegistryImporter.RegistryImportException {
+        Registry target = Registry.createDetached(null, 16);
+        RegistryImporter.importFile(target, regFile);
+        return target;
+    }
+}
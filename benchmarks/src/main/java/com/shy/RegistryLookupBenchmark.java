@@ -0,0 +1,88 @@
+package com.shy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查找延迟：命中路径索引、逐段查找（带结尾分隔符的路径不进入索引）、读取键值（直接读取和经由 RegistryCache）和通配符查询
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RegistryLookupBenchmark {
+
+    @Param({RegistryShapes.REALISTIC, RegistryShapes.DEEP, RegistryShapes.WIDE})
+    public String shape;
+
+    @Param({"100000"})
+    public int values;
+
+    private Registry registry;
+    private String[] paths;
+    private String[] unindexedPaths;
+    private RegistryCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = Registry.createDetached(RegistryShapes.generate(shape, values), 16);
+        List<String> keyPaths = RegistryShapes.keyPaths(registry.getTopLevelKeys());
+        paths = keyPaths.toArray(new String[0]);
+        unindexedPaths = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            unindexedPaths[i] = paths[i] + RegistryPath.SEPARATOR;
+            registry.getKeyByPath(paths[i]);
+        }
+        cache = new RegistryCache(registry, paths.length);
+    }
+
+    /**
+     * 每个线程独立的访问位置
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next(int length) {
+            int index = next;
+            next = index + 1 == length ? 0 : index + 1;
+            return index;
+        }
+    }
+
+    @Benchmark
+    public RegistryKey getKeyByPathIndexed(Cursor cursor) {
+        return registry.getKeyByPath(paths[cursor.next(paths.length)]);
+    }
+
+    @Benchmark
+    public RegistryKey getKeyByPathWalk(Cursor cursor) {
+        return registry.getKeyByPath(unindexedPaths[cursor.next(unindexedPaths.length)]);
+    }
+
+    @Benchmark
+    public RegistryValue getValue(Cursor cursor) {
+        return registry.getValue(paths[cursor.next(paths.length)], "setting_1");
+    }
+
+    @Benchmark
+    public RegistryValue getValueCached(Cursor cursor) {
+        return cache.getValue(paths[cursor.next(paths.length)], "setting_1");
+    }
+
+    // 前几段是普通名称，只按名称查找子项
+    @Benchmark
+    public long queryValuesPruned() {
+        return registry.queryValues("HKEY_SOFTWARE\\DATABASE\\*\\*_port").count();
+    }
+
+    // 只取第一个结果：惰性遍历在找到后立即停止
+    @Benchmark
+    public Object queryValuesFirst() {
+        return registry.queryValues("**\\setting_1").findFirst().orElse(null);
+    }
+}
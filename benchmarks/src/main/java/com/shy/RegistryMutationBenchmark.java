@@ -0,0 +1,80 @@
+package com.shy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多线程写入吞吐量：对比全局写锁（stripes=0）与分段写锁，以及事务批量提交
+ * 每个线程写入自己的子树，线程轮流落在不同的顶级项下
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RegistryMutationBenchmark {
+
+    private static final String[] HIVES = {"HKEY_MACHINE", "HKEY_SOFTWARE", "HKEY_USERS"};
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"0", "16"})
+    public int stripes;
+
+    private Registry registry;
+    private final AtomicInteger writerIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = Registry.createDetached(null, stripes);
+    }
+
+    /**
+     * 每个线程独立的子树
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        String subtree;
+        String[] keyPaths;
+        String[] valueNames;
+        int counter;
+
+        @Setup(Level.Trial)
+        public void setUp(RegistryMutationBenchmark benchmark) {
+            int id = benchmark.writerIds.getAndIncrement();
+            subtree = RegistryPath.child(HIVES[id % HIVES.length], "Writer" + id);
+            benchmark.registry.createKey(subtree);
+            keyPaths = new String[64];
+            valueNames = new String[64];
+            for (int i = 0; i < 64; i++) {
+                keyPaths[i] = RegistryPath.child(subtree, "Key" + i);
+                valueNames[i] = "value" + i;
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean setValue(Writer writer) {
+        int n = writer.counter++;
+        return registry.setValue(writer.subtree, writer.valueNames[n & 63], "String", "data");
+    }
+
+    @Benchmark
+    public boolean createAndDeleteKey(Writer writer) {
+        String keyPath = writer.keyPaths[writer.counter++ & 63];
+        return registry.createKey(keyPath) & registry.deleteKey(keyPath);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public boolean transaction(Writer writer) {
+        RegistryTransaction transaction = registry.beginTransaction();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            transaction.setValue(writer.subtree, writer.valueNames[i & 63], "String", "data");
+        }
+        return transaction.commit();
+    }
+}
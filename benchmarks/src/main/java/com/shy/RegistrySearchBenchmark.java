@@ -0,0 +1,53 @@
+package com.shy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全文检索：少量结果的精确查询、前缀查询，以及索引建立后单次写入的维护开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RegistrySearchBenchmark {
+
+    @Param({RegistryShapes.REALISTIC, RegistryShapes.DEEP, RegistryShapes.WIDE})
+    public String shape;
+
+    @Param({"100000"})
+    public int values;
+
+    private Registry registry;
+    private String[] paths;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = Registry.createDetached(RegistryShapes.generate(shape, values), 16);
+        paths = RegistryShapes.keyPaths(registry.getTopLevelKeys()).toArray(new String[0]);
+        // 第一次查询建立索引
+        registry.search("warmup");
+    }
+
+    @Benchmark
+    public List<RegistrySearchHit> searchExact() {
+        return registry.search("192.168.110.109", 100);
+    }
+
+    @Benchmark
+    public List<RegistrySearchHit> searchPrefix() {
+        return registry.search("mongo", 100);
+    }
+
+    @Benchmark
+    public boolean setValueIndexed() {
+        String path = paths[next];
+        next = next + 1 == paths.length ? 0 : next + 1;
+        return registry.setValue(path, "bench", "String", "mysql-service " + next);
+    }
+}
@@ -0,0 +1,141 @@
+package com.shy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基准测试用的模拟注册表
+ * realistic：仿照 registry.dat，HKEY_USERS 下每个用户一组相同名称的键值，另有 DATABASE、Memory 等配置项
+ * deep：若干条很深的链，每层都有键值
+ * wide：同一个父项下挂大量子项
+ */
+final class RegistryShapes {
+
+    static final String REALISTIC = "realistic";
+    static final String DEEP = "deep";
+    static final String WIDE = "wide";
+
+    private static final int VALUES_PER_KEY = 20;
+    private static final int DEEP_CHAIN_DEPTH = 50;
+
+    private RegistryShapes() {
+    }
+
+    /**
+     * 生成指定形状、约含 values 个键值的注册表
+     */
+    static Map<String, RegistryKey> generate(String shape, int values) {
+        switch (shape) {
+            case REALISTIC:
+                return realistic(Math.max(1, values / VALUES_PER_KEY), VALUES_PER_KEY);
+            case DEEP:
+                return deep(Math.max(1, values / (VALUES_PER_KEY * DEEP_CHAIN_DEPTH)), DEEP_CHAIN_DEPTH, VALUES_PER_KEY);
+            case WIDE:
+                return wide(Math.max(1, values / VALUES_PER_KEY), VALUES_PER_KEY);
+            default:
+                throw new IllegalArgumentException("未知的注册表形状: " + shape);
+        }
+    }
+
+    // 仿照 registry.dat 的结构生成注册表：HKEY_USERS 下每个用户一组相同名称的键值
+    static Map<String, RegistryKey> realistic(int users, int valuesPerUser) {
+        Map<String, RegistryKey> topLevelKeys = topLevelKeys();
+        RegistryKey machine = topLevelKeys.get("HKEY_MACHINE");
+        RegistryKey software = topLevelKeys.get("HKEY_SOFTWARE");
+        RegistryKey usersKey = topLevelKeys.get("HKEY_USERS");
+
+        RegistryKey database = new RegistryKey("DATABASE");
+        software.addSubKey(database);
+        for (String service : new String[]{"Datasource", "Redis", "MongoDB", "Mysql", "FTP", "Neo4j"}) {
+            RegistryKey serviceKey = new RegistryKey(service);
+            serviceKey.addValue(new RegistryValue(service.toLowerCase() + "_host", "String", "192.168.110.109"));
+            serviceKey.addValue(new RegistryValue(service.toLowerCase() + "_port", "String", "3306"));
+            serviceKey.addValue(new RegistryValue(service.toLowerCase() + "_user", "String", "dataos"));
+            database.addSubKey(serviceKey);
+        }
+
+        RegistryKey memory = new RegistryKey("Memory");
+        machine.addSubKey(memory);
+        memory.addValue(new RegistryValue("memory.limit", "String", "100G"));
+
+        for (int u = 0; u < users; u++) {
+            RegistryKey user = new RegistryKey("user" + u);
+            RegistryKey settings = new RegistryKey("Settings");
+            user.addSubKey(settings);
+            for (int v = 0; v < valuesPerUser; v++) {
+                String data = v % 3 == 0 ? "false" : v % 3 == 1 ? "true" : Integer.toString(u * 31 + v);
+                settings.addValue(new RegistryValue("setting_" + v, "String", data));
+            }
+            usersKey.addSubKey(user);
+        }
+        return topLevelKeys;
+    }
+
+    // HKEY_SOFTWARE\chainN\level0\level1...，每层 valuesPerKey 个键值
+    static Map<String, RegistryKey> deep(int chains, int depth, int valuesPerKey) {
+        Map<String, RegistryKey> topLevelKeys = topLevelKeys();
+        RegistryKey software = topLevelKeys.get("HKEY_SOFTWARE");
+        for (int c = 0; c < chains; c++) {
+            RegistryKey parent = new RegistryKey("chain" + c);
+            software.addSubKey(parent);
+            for (int d = 0; d < depth; d++) {
+                RegistryKey level = new RegistryKey("level" + d);
+                addValues(level, valuesPerKey, d);
+                parent.addSubKey(level);
+                parent = level;
+            }
+        }
+        return topLevelKeys;
+    }
+
+    // HKEY_SOFTWARE\Wide\childN，每个子项 valuesPerKey 个键值
+    static Map<String, RegistryKey> wide(int children, int valuesPerKey) {
+        Map<String, RegistryKey> topLevelKeys = topLevelKeys();
+        RegistryKey wide = new RegistryKey("Wide");
+        topLevelKeys.get("HKEY_SOFTWARE").addSubKey(wide);
+        for (int i = 0; i < children; i++) {
+            RegistryKey child = new RegistryKey("child" + i);
+            addValues(child, valuesPerKey, i);
+            wide.addSubKey(child);
+        }
+        return topLevelKeys;
+    }
+
+    /**
+     * 所有注册表项的路径（打乱顺序，避免按插入顺序访问带来的缓存偏差）
+     */
+    static List<String> keyPaths(Map<String, RegistryKey> topLevelKeys) {
+        List<String> paths = new ArrayList<>();
+        for (RegistryKey key : topLevelKeys.values()) {
+            collectPaths(key, key.getName(), paths);
+        }
+        Collections.shuffle(paths, new Random(42));
+        return paths;
+    }
+
+    private static void collectPaths(RegistryKey key, String path, List<String> paths) {
+        paths.add(path);
+        for (RegistryKey subKey : key.getSubKeys().values()) {
+            collectPaths(subKey, RegistryPath.child(path, subKey.getName()), paths);
+        }
+    }
+
+    private static Map<String, RegistryKey> topLevelKeys() {
+        Map<String, RegistryKey> topLevelKeys = new HashMap<>();
+        for (String name : new String[]{"HKEY_MACHINE", "HKEY_SOFTWARE", "HKEY_USERS"}) {
+            topLevelKeys.put(name, new RegistryKey(name));
+        }
+        return topLevelKeys;
+    }
+
+    private static void addValues(RegistryKey key, int count, int seed) {
+        for (int v = 0; v < count; v++) {
+            String data = v % 4 == 0 ? "false" : v % 4 == 1 ? "3306" : "value-" + (seed * 31 + v);
+            key.addValue(new RegistryValue("setting_" + v, "String", data));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.shy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 快照保存/加载耗时：二进制快照（一次性读入、内存映射）与旧版 Java 序列化对比，
+ * 以及只修改了一个项时以上一个快照为基础的增量保存。加载均包含校验和校验（一次性读入时边读边校验，映射时并行校验）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RegistrySnapshotBenchmark {
+
+    @Param({RegistryShapes.REALISTIC, RegistryShapes.DEEP, RegistryShapes.WIDE})
+    public String shape;
+
+    @Param({"100000"})
+    public int values;
+
+    private Map<String, RegistryKey> topLevelKeys;
+    private File snapshotFile;
+    private File legacyFile;
+    private File outputFile;
+
+    // 增量保存：从 snapshotFile 读入并记下记录位置的注册表，其中一条路径被标记为修改过
+    private RegistrySnapshotMapping baseSnapshot;
+    private Map<String, RegistryKey> loadedKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        topLevelKeys = RegistryShapes.generate(shape, values);
+        snapshotFile = File.createTempFile("registry-snapshot", ".dat");
+        legacyFile = File.createTempFile("registry-legacy", ".dat");
+        outputFile = File.createTempFile("registry-output", ".dat");
+        saveSnapshot(topLevelKeys, snapshotFile);
+        saveLegacy(topLevelKeys, legacyFile);
+
+        baseSnapshot = RegistrySnapshotMapping.open(snapshotFile, false);
+        try (InputStream in = new FileInputStream(snapshotFile)) {
+            loadedKeys = RegistrySnapshotReader.read(in, baseSnapshot);
+        }
+        RegistryKey changed = loadedKeys.values().iterator().next();
+        while (!changed.getSubKeys().isEmpty()) {
+            changed = changed.getSubKeys().values().iterator().next();
+        }
+        changed.addValue(new RegistryValue("changed", "DWord", "1"));
+        for (RegistryKey key = changed; key != null; key = key.getParent()) {
+            key.setModifiedEpoch(1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        snapshotFile.delete();
+        legacyFile.delete();
+        outputFile.delete();
+    }
+
+    @Benchmark
+    public void saveSnapshot() throws IOException {
+        saveSnapshot(topLevelKeys, outputFile);
+    }
+
+    // 只有一条路径上的项重新序列化，其余子树从上一个快照原样复制
+    @Benchmark
+    public long saveIncremental() throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile), 64 * 1024)) {
+            return RegistrySnapshotWriter.write(new RegistryCheckpoint(2, 0, loadedKeys), baseSnapshot, 1, out).bytes();
+        }
+    }
+
+    @Benchmark
+    public Map<String, RegistryKey> loadSnapshot() throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(snapshotFile), 64 * 1024)) {
+            return RegistrySnapshotReader.read(in);
+        }
+    }
+
+    // 内存映射只读出顶级项，子树在访问时才加载
+    @Benchmark
+    public Map<String, RegistryKey> loadMapped() throws IOException {
+        return RegistrySnapshotMapping.open(snapshotFile, true).readTopLevelKeys();
+    }
+
+    // 单独计算各块的校验和（并行）
+    @Benchmark
+    public void verifyMapped() throws IOException {
+        baseSnapshot.verify();
+    }
+
+    // 内存映射后访问全部注册表项
+    @Benchmark
+    public int loadMappedFully() throws IOException {
+        int keys = 0;
+        for (RegistryKey key : RegistrySnapshotMapping.open(snapshotFile, true).readTopLevelKeys().values()) {
+            keys += touch(key);
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public void saveLegacy() throws IOException {
+        saveLegacy(topLevelKeys, outputFile);
+    }
+
+    @Benchmark
+    public Object loadLegacy() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(legacyFile), 64 * 1024))) {
+            return in.readObject();
+        }
+    }
+
+    private static int touch(RegistryKey key) {
+        int keys = 1;
+        key.getValues();
+        for (RegistryKey subKey : key.getSubKeys().values()) {
+            keys += touch(subKey);
+        }
+        return keys;
+    }
+
+    private static void saveSnapshot(Map<String, RegistryKey> topLevelKeys, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+            RegistrySnapshotWriter.write(topLevelKeys, out);
+        }
+    }
+
+    private static void saveLegacy(Map<String, RegistryKey> topLevelKeys, File file) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+            out.writeObject(topLevelKeys);
+        }
+    }
+}
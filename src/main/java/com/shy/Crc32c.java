@@ -0,0 +1,92 @@
+package com.shy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C（Castagnoli 多项式）校验和
+ * java.util.zip.CRC32C 从 Java 9 才有，这里用查表法实现：每次处理 8 个字节（slicing-by-8），
+ * 速度与 java.util.zip.CRC32 的纯 Java 实现相当。结果与 RFC 3720 一致，"123456789" 的校验和为 0xE3069283
+ */
+final class Crc32c implements Checksum {
+
+    // 反射形式的 Castagnoli 多项式
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    // 8 张 256 项的表首尾相接：TABLE[k * 256 + b] 是字节 b 之后再跟 k 个 0 字节的余数
+    private static final int[] TABLE = new int[8 * 256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int crc = b;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[b] = crc;
+        }
+        for (int i = 256; i < TABLE.length; i++) {
+            int previous = TABLE[i - 256];
+            TABLE[i] = (previous >>> 8) ^ TABLE[previous & 0xFF];
+        }
+    }
+
+    // 取反后的余数
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int end = off + len;
+        for (; off + 8 <= end; off += 8) {
+            int lo = c ^ ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | b[off + 3] << 24);
+            int hi = (b[off + 4] & 0xFF) | (b[off + 5] & 0xFF) << 8 | (b[off + 6] & 0xFF) << 16 | b[off + 7] << 24;
+            c = slice(lo, hi);
+        }
+        for (; off < end; off++) {
+            c = (c >>> 8) ^ TABLE[(c ^ b[off]) & 0xFF];
+        }
+        crc = c;
+    }
+
+    /**
+     * 累加缓冲区 position 到 limit 之间的字节，之后 position 移到 limit（与 Java 9 起的 Checksum.update(ByteBuffer) 一致）
+     */
+    public void update(ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int c = crc;
+        int position = in.position();
+        int end = in.limit();
+        for (; position + 8 <= end; position += 8) {
+            c = slice(c ^ in.getInt(position), in.getInt(position + 4));
+        }
+        for (; position < end; position++) {
+            c = (c >>> 8) ^ TABLE[(c ^ in.get(position)) & 0xFF];
+        }
+        crc = c;
+        buffer.position(end);
+    }
+
+    // 8 个字节（按小端拼成两个 int，低位已与余数异或）一次查表
+    private static int slice(int lo, int hi) {
+        return TABLE[7 * 256 + (lo & 0xFF)] ^ TABLE[6 * 256 + ((lo >>> 8) & 0xFF)]
+                ^ TABLE[5 * 256 + ((lo >>> 16) & 0xFF)] ^ TABLE[4 * 256 + (lo >>> 24)]
+                ^ TABLE[3 * 256 + (hi & 0xFF)] ^ TABLE[2 * 256 + ((hi >>> 8) & 0xFF)]
+                ^ TABLE[256 + ((hi >>> 16) & 0xFF)] ^ TABLE[hi >>> 24];
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
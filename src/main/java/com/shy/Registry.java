@@ -1,12 +1,35 @@
 package com.shy;
 
 import java.io.*;
-import java.util.HashMap;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 注册表核心类 - 单例模式实现
  * 负责管理注册表项和键值对，提供增删改查操作
+ *
+ * 并发模型：注册表项的子项/键值集合是不可变映射，修改时整体替换，读操作不加锁；
+ * 写操作只锁住所在顶级项下的一个分段（见 RegistryLocks），不同顶级项、不同子树的写操作可以并行；
+ * 需要跨多个项读取一致视图时使用 readConsistent
  */
 public class Registry implements Serializable {
     // 序列化版本号
@@ -18,145 +41,950 @@ public class Registry implements Serializable {
     // 注册表文件路径
     private static final String REGISTRY_FILE = "registry.dat";
 
-    // 顶级注册表项
-    private Map<String, RegistryKey> topLevelKeys;
+    // 日志文件路径（与快照文件放在一起）
+    private static final String JOURNAL_FILE = "registry.journal";
+
+    // 写快照时的临时文件名前缀与后缀（registry.dat.<随机>.tmp），每次检查点各用一个，写完后原子改名为快照文件
+    private static final String TEMP_PREFIX = REGISTRY_FILE + ".";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // 超过这么久没有修改的临时文件视为进程崩溃时遗留的，启动时删除（正在写的临时文件修改时间一直在更新）
+    private static final long STALE_TEMP_MILLIS = 10 * 60 * 1000L;
+
+    // 上一代快照：写新快照前保留当前快照，当前快照损坏时回退到它
+    private static final String BACKUP_FILE = REGISTRY_FILE + ".bak";
+
+    // 无法载入的快照改名保留在这里，不会被之后的保存覆盖
+    private static final String CORRUPT_FILE = REGISTRY_FILE + ".corrupt";
+
+    // 多进程共用快照文件时的共享头文件（快照代数与写锁）
+    private static final String HEADER_FILE = REGISTRY_FILE + ".header";
+
+    // 顶级注册表项（不可变映射，新增顶级项时整体替换）
+    private volatile Map<String, RegistryKey> topLevelKeys;
+
+    // 预写日志，仅在日志持久化模式下启用
+    private transient RegistryJournal journal;
+
+    // 完整路径 -> 注册表项的索引，查找时按需填充，由修改方法维护一致性
+    private transient Map<String, RegistryKey> pathIndex;
+
+    // 按顶级项分段的写锁；读操作只做乐观校验，不会被阻塞
+    private transient RegistryLocks locks;
+    // 变更通知
+    private transient RegistryEventDispatcher events;
+    // 运行指标，registry.metrics=false 时只保留空壳
+    private transient RegistryMetrics metrics;
+    // 全文检索索引，首次 search 时建立，之后随修改增量维护；refresh 时整体替换，search 不持写锁读取
+    private transient volatile RegistrySearchIndex searchIndex;
+    // 各项键值和子树的版本戳，供 RegistryCache 判断缓存是否过期
+    private transient RegistryVersions versions;
+    // 修改纪元与检查点，日志模式下另有后台线程定期压缩日志
+    private transient RegistryCompactor compactor;
+
+    // 与其他进程协调快照读写，打开失败或不关联文件的实例为 null
+    private transient RegistrySharedHeader sharedHeader;
+    // 当前内容对应的快照代数（载入或最近一次写入时共享头文件中的代数）
+    private transient long generation;
+    // 正在写的快照临时文件与进程是否正在退出，由 tempLock 保护：退出时中断了后台检查点也要删掉临时文件
+    private transient Object tempLock;
+    private transient File checkpointTemp;
+    private transient boolean exiting;
 
     // 私有构造方法，防止外部实例化
     private Registry() {
-        topLevelKeys = new HashMap<>();
+        topLevelKeys = PersistentHashMap.empty();
+        initTransientState();
         initializeTopLevelKeys();
     }
 
+    // 由快照文件中读取的顶级项构造
+    private Registry(Map<String, RegistryKey> topLevelKeys) {
+        this.topLevelKeys = PersistentHashMap.copyOf(topLevelKeys);
+        initTransientState();
+    }
+
+    // 旧版序列化文件反序列化时不会执行字段初始化，这里补上非序列化的状态
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        topLevelKeys = PersistentHashMap.copyOf(topLevelKeys);
+        initTransientState();
+    }
+
+    private void initTransientState() {
+        pathIndex = new ConcurrentHashMap<>();
+        tempLock = new Object();
+        locks = new RegistryLocks(RegistryConfig.getLockStripes());
+        events = new RegistryEventDispatcher(RegistryConfig.getWatchCoalesceMillis());
+        metrics = new RegistryMetrics(this, RegistryConfig.isMetricsEnabled());
+        searchIndex = new RegistrySearchIndex();
+        versions = new RegistryVersions();
+        compactor = new RegistryCompactor(this,
+                RegistryConfig.getCompactJournalBytes(), RegistryConfig.getCompactIntervalMillis());
+    }
+
+    /**
+     * 创建不关联文件的注册表实例（基准测试使用）
+     * @param topLevelKeys  顶级项，为 null 时使用默认的三个顶级项
+     * @param lockStripes   写锁分段数
+     */
+    static Registry createDetached(Map<String, RegistryKey> topLevelKeys, int lockStripes) {
+        Registry registry = topLevelKeys == null ? new Registry() : new Registry(topLevelKeys);
+        registry.locks = new RegistryLocks(lockStripes);
+        return registry;
+    }
+
     // 获取单例实例
     public static synchronized Registry getInstance() {
         if (instance == null) {
             // 先检查注册表文件是否存在
             File regFile = new File(REGISTRY_FILE);
-            if (regFile.exists() && regFile.length() > 0) {
-                // 文件存在，尝试加载
-                try {
-                    instance = loadFromFile();
-                    System.out.println("成功从现有文件加载注册表");
-                } catch (Exception e) {
-                    System.err.println("加载注册表文件失败，将创建新注册表: " + e.getMessage());
-                    instance = new Registry();
-                }
+            File backupFile = new File(BACKUP_FILE);
+            long start = System.nanoTime();
+            deleteStaleTempFiles();
+            RegistrySharedHeader shared = openSharedHeader();
+            // 先读代数再打开快照：打开的快照不会比记下的代数旧，最多在下次 refresh 时多映射一次
+            long loadedGeneration = shared == null ? 0 : shared.generation();
+            if (hasSnapshot(regFile) || hasSnapshot(backupFile)) {
+                // 文件存在，尝试加载，文件损坏时回退到上一代快照
+                instance = loadWithFallback(shared, loadedGeneration);
             } else {
                 // 文件不存在，创建新注册表
                 System.out.println("未找到注册表文件，创建新注册表");
                 instance = new Registry();
             }
+            if (instance.sharedHeader == null) {
+                instance.sharedHeader = shared;
+                instance.generation = loadedGeneration;
+            }
+
+            if (RegistryConfig.isJournalEnabled()) {
+                try {
+                    instance.openJournal();
+                    instance.compactor.start();
+                } catch (IOException e) {
+                    System.err.println("打开注册表日志失败，回退为快照模式: " + e.getMessage());
+                }
+            }
+
+            if (instance.metrics.isEnabled()) {
+                // 加载耗时在实例创建前就已开始计时
+                instance.metrics.record(RegistryMetrics.Operation.LOAD, start, true);
+                if (RegistryConfig.isMetricsJmxEnabled()) {
+                    instance.metrics.registerMBean();
+                }
+            }
         }
         return instance;
     }
 
+    // 删除进程被强制结束时遗留的快照临时文件；其他进程正在写的临时文件较新，不受影响
+    private static void deleteStaleTempFiles() {
+        File directory = new File(REGISTRY_FILE).getAbsoluteFile().getParentFile();
+        File[] stale = directory.listFiles((dir, name) -> name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX));
+        if (stale == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        for (File file : stale) {
+            if (file.lastModified() < cutoff && !file.delete()) {
+                System.err.println("删除遗留的快照临时文件失败: " + file);
+            }
+        }
+    }
+
+    // 打开共享头文件；失败时（如目录只读）退化为不与其他进程协调
+    private static RegistrySharedHeader openSharedHeader() {
+        try {
+            return RegistrySharedHeader.open(new File(HEADER_FILE));
+        } catch (IOException e) {
+            System.err.println("打开注册表共享头文件失败，将不与其他进程协调快照读写: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // 在快照之上重放快照尚未包含的日志段，并打开日志用于后续追加
+    private void openJournal() throws IOException {
+        journal = RegistryJournal.open(new File(JOURNAL_FILE), compactor.retainedSegment(), compactor.baseSegment(),
+                RegistryConfig.getJournalSyncPolicy(),
+                RegistryConfig.getJournalGroupCommitMillis(),
+                this::replayJournalRecord);
+
+        final RegistryJournal opened = journal;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // 后台检查点是守护线程，退出时可能写到一半，临时文件不会再被改名或删除；之后也不再开始新的检查点
+            synchronized (tempLock) {
+                exiting = true;
+                if (checkpointTemp != null) {
+                    checkpointTemp.delete();
+                }
+            }
+            try {
+                opened.close();
+            } catch (IOException e) {
+                System.err.println("关闭注册表日志失败: " + e.getMessage());
+            }
+        }, "registry-journal-shutdown"));
+    }
+
+    // 重放单条日志记录，失败的记录直接忽略（日志中的操作都可以重复执行）
+    private void replayJournalRecord(byte op, String[] args) {
+        switch (op) {
+            case RegistryJournal.CREATE_KEY:
+                doCreateKey(args[0], true);
+                break;
+            case RegistryJournal.SET_VALUE:
+                doSetValue(args[0], args[1], args[2], args[3]);
+                break;
+            case RegistryJournal.DELETE_VALUE:
+                doDeleteValue(args[0], args[1]);
+                break;
+            case RegistryJournal.DELETE_KEY:
+                doDeleteKey(args[0]);
+                break;
+            case RegistryJournal.RENAME_KEY:
+                doRenameKey(args[0], args[1]);
+                break;
+            case RegistryJournal.RENAME_VALUE:
+                doRenameValue(args[0], args[1], args[2]);
+                break;
+            default:
+                System.err.println("未知的注册表日志操作码: " + op);
+        }
+    }
+
+    /**
+     * 在写锁内执行一次修改并记录日志；等待日志落盘时已释放写锁，便于组提交合并多个写入方
+     * 日志模式下按事务的方式执行并记录撤销操作：写日志失败时撤销修改后再抛出异常，内存中的内容不会多出日志里没有的修改，
+     * 也不会通知监视者。等待落盘失败时修改已对其他线程可见，无法撤销；此后日志拒绝一切写入，后续修改都会被撤销
+     * @param scope      计算需要持有的写锁；加锁后再算一次，不一致（期间出现了新的顶级项）时重新加锁
+     * @param change     不写日志时执行的修改
+     * @param operation  写入日志的操作，日志模式下由它执行修改
+     * @return  修改是否成功
+     */
+    private boolean mutate(Supplier<List<RegistryLocks.OrderedLock>> scope,
+                           BooleanSupplier change, RegistryJournal.Operation operation) {
+        long start = metrics.start();
+        long seq = 0;
+        try (RegistryLocks.Held ignored = lockScope(scope)) {
+            if (journal == null) {
+                if (!change.getAsBoolean()) {
+                    metrics.record(RegistryMetrics.operationOf(operation.op), start, false);
+                    return false;
+                }
+            } else {
+                Deque<Runnable> undo = new ArrayDeque<>();
+                if (!applyUndoable(operation, undo)) {
+                    rollback(undo);
+                    metrics.record(RegistryMetrics.operationOf(operation.op), start, false);
+                    return false;
+                }
+                try {
+                    seq = journal.append(operation.op, operation.args);
+                } catch (IOException e) {
+                    rollback(undo);
+                    throw new UncheckedIOException("写入注册表日志失败", e);
+                }
+            }
+            events.publish(operation.op, operation.args);
+        }
+        awaitDurable(seq);
+        metrics.record(RegistryMetrics.operationOf(operation.op), start, true);
+        return true;
+    }
+
+    // 加写锁，加锁后锁的范围发生变化（期间出现了新的顶级项）时释放并重新加锁
+    private RegistryLocks.Held lockScope(Supplier<List<RegistryLocks.OrderedLock>> scope) {
+        while (true) {
+            List<RegistryLocks.OrderedLock> expected = scope.get();
+            RegistryLocks.Held held = locks.lockWrite(expected);
+            if (expected.equals(scope.get())) {
+                return held;
+            }
+            held.close();
+        }
+    }
+
+    private void awaitDurable(long seq) {
+        if (seq > 0) {
+            try {
+                journal.awaitDurable(seq);
+            } catch (IOException e) {
+                throw new UncheckedIOException("注册表日志刷盘失败", e);
+            }
+        }
+    }
+
+    /**
+     * 监视注册表项的变化
+     * 事件在后台通知线程上按批投递，合并窗口（registry.watch.coalesceMillis）内对同一键值的多次修改只通知最后一次
+     * @param path       注册表项路径，注册时不要求已存在
+     * @param listener   监听器
+     * @param recursive  是否包括整个子树；否则只通知该项自身的键值和直接子项的变化
+     * @return  关闭即取消监视
+     */
+    public RegistryWatch watch(String path, RegistryListener listener, boolean recursive) {
+        if (path == null || listener == null) {
+            throw new NullPointerException("监视路径和监听器不能为空");
+        }
+        return events.add(RegistryPath.trimTrailingSeparators(path), recursive, listener);
+    }
+
+    /**
+     * 开始一个事务：修改先缓存在事务中，提交时一次性生效
+     */
+    public RegistryTransaction beginTransaction() {
+        return new RegistryTransaction(this);
+    }
+
+    /**
+     * 提交事务：持有所有涉及分段的写锁，依次执行并记录撤销操作；
+     * 任一操作失败（或写日志失败）时按相反顺序撤销已执行的操作。全部成功后整批作为一条日志记录写入，只 fsync 一次
+     * 持写锁期间的中间状态对 readConsistent 不可见，不加锁的单次读取可能看到部分修改
+     * @return  全部操作是否成功
+     */
+    boolean commit(List<RegistryJournal.Operation> operations) {
+        if (operations.isEmpty()) {
+            return true;
+        }
+        long start = metrics.start();
+        long seq = 0;
+        try (RegistryLocks.Held ignored = lockScope(() -> transactionScope(operations))) {
+            Deque<Runnable> undo = new ArrayDeque<>();
+            for (RegistryJournal.Operation operation : operations) {
+                if (!applyUndoable(operation, undo)) {
+                    rollback(undo);
+                    metrics.record(RegistryMetrics.Operation.COMMIT, start, false);
+                    return false;
+                }
+            }
+            if (journal != null) {
+                try {
+                    seq = journal.appendBatch(operations);
+                } catch (IOException e) {
+                    rollback(undo);
+                    throw new UncheckedIOException("写入注册表日志失败", e);
+                }
+            }
+            for (RegistryJournal.Operation operation : operations) {
+                events.publish(operation.op, operation.args);
+            }
+        }
+        awaitDurable(seq);
+        metrics.record(RegistryMetrics.Operation.COMMIT, start, true);
+        return true;
+    }
+
+    private static void rollback(Deque<Runnable> undo) {
+        while (!undo.isEmpty()) {
+            undo.pop().run();
+        }
+    }
+
+    // 事务涉及的所有写锁（各操作所需写锁的并集，顺序确定以便加锁后比较）
+    private List<RegistryLocks.OrderedLock> transactionScope(List<RegistryJournal.Operation> operations) {
+        Set<RegistryLocks.OrderedLock> scope = new LinkedHashSet<>();
+        for (RegistryJournal.Operation operation : operations) {
+            if (operation.createTopLevel) {
+                scope.addAll(topLevelScope(operation.args[0]));
+            } else {
+                scope.addAll(operation.op == RegistryJournal.RENAME_KEY
+                        ? renameScope(operation.args[0], operation.args[1])
+                        : keyScope(operation.args[0]));
+            }
+        }
+        return new ArrayList<>(scope);
+    }
+
+    /**
+     * 执行事务中的一个操作，成功时把对应的撤销操作压入 undo
+     */
+    private boolean applyUndoable(RegistryJournal.Operation operation, Deque<Runnable> undo) {
+        String[] args = operation.args;
+        switch (operation.op) {
+            case RegistryJournal.CREATE_KEY:
+                return createKeyUndoable(args[0], operation.createTopLevel, undo);
+            case RegistryJournal.SET_VALUE: {
+                RegistryKey key = lookupForWrite(args[0]);
+                if (key == null) {
+                    return false;
+                }
+                RegistryValue previous = key.getValue(args[1]);
+                doSetValue(args[0], args[1], args[2], args[3]);
+                undo.push(() -> {
+                    RegistryValue current = key.getValue(args[1]);
+                    compactor.beforeChange(key);
+                    if (previous == null) {
+                        key.dropValue(args[1]);
+                    } else {
+                        key.putValue(previous);
+                    }
+                    searchIndex.valueReplaced(key, current, previous);
+                    versions.valuesChanged(args[0]);
+                });
+                return true;
+            }
+            case RegistryJournal.DELETE_VALUE: {
+                RegistryKey key = lookupForWrite(args[0]);
+                RegistryValue previous = key == null ? null : key.getValue(args[1]);
+                if (previous == null || !doDeleteValue(args[0], args[1])) {
+                    return false;
+                }
+                undo.push(() -> {
+                    compactor.beforeChange(key);
+                    key.putValue(previous);
+                    searchIndex.valueReplaced(key, null, previous);
+                    versions.valuesChanged(args[0]);
+                });
+                return true;
+            }
+            case RegistryJournal.DELETE_KEY: {
+                String keyPath = RegistryPath.trimTrailingSeparators(args[0]);
+                String parentPath = RegistryPath.parent(keyPath);
+                RegistryKey parentKey = parentPath == null ? null : lookupForWrite(parentPath);
+                RegistryKey key = parentKey == null ? null : parentKey.getSubKey(RegistryPath.name(keyPath));
+                if (key == null || !doDeleteKey(keyPath)) {
+                    return false;
+                }
+                undo.push(() -> {
+                    compactor.beforeChange(parentKey);
+                    parentKey.putSubKey(key);
+                    searchIndex.subtreeAdded(key);
+                    versions.subtreeChanged(keyPath);
+                });
+                return true;
+            }
+            case RegistryJournal.RENAME_KEY: {
+                String keyPath = RegistryPath.trimTrailingSeparators(args[0]);
+                if (!doRenameKey(keyPath, args[1])) {
+                    return false;
+                }
+                String renamedPath = RegistryPath.child(RegistryPath.parent(keyPath), args[1]);
+                undo.push(() -> doRenameKey(renamedPath, RegistryPath.name(keyPath)));
+                return true;
+            }
+            case RegistryJournal.RENAME_VALUE:
+                if (!doRenameValue(args[0], args[1], args[2])) {
+                    return false;
+                }
+                undo.push(() -> doRenameValue(args[0], args[2], args[1]));
+                return true;
+            default:
+                throw new IllegalArgumentException("未知的注册表操作码: " + operation.op);
+        }
+    }
+
+    // 创建子项，撤销时摘掉本次新建的最上层子项（或顶级项）
+    private boolean createKeyUndoable(String path, boolean createTopLevel, Deque<Runnable> undo) {
+        String normalized = RegistryPath.trimTrailingSeparators(path);
+        int end = RegistryPath.firstSegmentEnd(normalized);
+        String topLevelName = RegistryPath.segment(normalized, 0, end);
+        RegistryKey currentKey = topLevelKeys.get(topLevelName);
+        if (currentKey == null) {
+            if (!createTopLevel) {
+                return false;
+            }
+            undo.push(() -> {
+                RegistryKey created = topLevelKeys.get(topLevelName);
+                if (created != null) {
+                    unindexSubtree(topLevelName, created);
+                    searchIndex.subtreeRemoved(created);
+                    topLevelKeys = PersistentHashMap.copyOf(topLevelKeys).minus(topLevelName);
+                    versions.subtreeChanged(topLevelName);
+                }
+            });
+            return doCreateKey(path, true);
+        }
+        while (end < normalized.length()) {
+            int start = end + 1;
+            end = RegistryPath.segmentEnd(normalized, start);
+            String keyName = normalized.substring(start, end);
+            RegistryKey childKey = currentKey.getSubKey(keyName);
+            if (childKey == null) {
+                RegistryKey parentKey = currentKey;
+                String createdPath = normalized.substring(0, end);
+                undo.push(() -> {
+                    RegistryKey created = parentKey.getSubKey(keyName);
+                    if (created != null) {
+                        unindexSubtree(createdPath, created);
+                        searchIndex.subtreeRemoved(created);
+                        compactor.beforeChange(parentKey);
+                        parentKey.dropSubKey(keyName);
+                        versions.subtreeChanged(createdPath);
+                    }
+                });
+                break;
+            }
+            currentKey = childKey;
+        }
+        return doCreateKey(path, createTopLevel);
+    }
+
+    /**
+     * 在一致的视图上执行只读操作：先乐观执行并校验期间没有写入，多次失败后再持读锁执行
+     * 读锁只与写操作互斥，不影响其他读线程
+     */
+    public <T> T readConsistent(Supplier<T> reader) {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            // 顶级项集合在读取期间被替换说明有新的顶级项，它的分段锁不在校验范围内，需重试
+            Map<String, RegistryKey> hives = topLevelKeys;
+            RegistryLocks.OrderedLock[] all = RegistryLocks.sortedDistinct(locks.allLocks(hives.keySet()));
+            long[] stamps = RegistryLocks.tryOptimisticRead(all);
+            if (stamps == null) {
+                continue;
+            }
+            try {
+                T result = reader.get();
+                if (RegistryLocks.validate(all, stamps) && hives == topLevelKeys) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // 读到了写入中途的状态，校验失败则重试，否则如实抛出
+                if (RegistryLocks.validate(all, stamps)) {
+                    throw e;
+                }
+            }
+        }
+
+        try (RegistryLocks.Held ignored = locks.lockAllRead(() -> topLevelKeys.keySet())) {
+            return reader.get();
+        }
+    }
+
+    /**
+     * 修改 path 所指注册表项（其键值或子项集合）需要的写锁：
+     * 顶级项本身锁住它的全部分段，更深的项只锁第一级祖先所在的分段
+     * 同一顶级项下不同分段的写操作只会在顶级项的子项集合上交汇，而增删不同名子项可以交换顺序，因此互不影响
+     */
+    private List<RegistryLocks.OrderedLock> keyScope(String path) {
+        path = RegistryPath.trimTrailingSeparators(path);
+        int end = RegistryPath.firstSegmentEnd(path);
+        String hive = RegistryPath.segment(path, 0, end);
+        if (!topLevelKeys.containsKey(hive)) {
+            // 顶级项不存在时修改必然失败，只需与创建顶级项互斥
+            return Collections.singletonList(locks.structureLock());
+        }
+        if (end >= path.length()) {
+            return Arrays.asList(locks.hiveLocks(hive));
+        }
+        int start = end + 1;
+        return Collections.singletonList(
+                locks.stripeLock(hive, path, start, RegistryPath.segmentEnd(path, start)));
+    }
+
+    // 重命名第一级子项时，新名称所在的分段也要锁住
+    private List<RegistryLocks.OrderedLock> renameScope(String keyPath, String newName) {
+        List<RegistryLocks.OrderedLock> scope = keyScope(keyPath);
+        String parentPath = RegistryPath.parent(RegistryPath.trimTrailingSeparators(keyPath));
+        if (newName == null || parentPath == null || parentPath.indexOf(RegistryPath.SEPARATOR) >= 0
+                || !topLevelKeys.containsKey(parentPath)) {
+            return scope;
+        }
+        List<RegistryLocks.OrderedLock> merged = new ArrayList<>(scope);
+        merged.add(locks.stripeLock(parentPath, newName, 0, newName.length()));
+        return merged;
+    }
+
     // 初始化顶级注册表项，类似Windows的HKEY_*
     private void initializeTopLevelKeys() {
-        topLevelKeys.put("HKEY_MACHINE", new RegistryKey("HKEY_MACHINE"));
-        topLevelKeys.put("HKEY_SOFTWARE", new RegistryKey("HKEY_SOFTWARE"));
-        topLevelKeys.put("HKEY_USERS", new RegistryKey("HKEY_USERS"));
+        topLevelKeys = PersistentHashMap.<String, RegistryKey>empty()
+                .plus("HKEY_MACHINE", new RegistryKey("HKEY_MACHINE"))
+                .plus("HKEY_SOFTWARE", new RegistryKey("HKEY_SOFTWARE"))
+                .plus("HKEY_USERS", new RegistryKey("HKEY_USERS"));
     }
 
     // 根据路径创建注册表项（可以创建多级子健）
     public boolean createKey(String path) {
-        String[] parts = path.split("\\\\");
-        if (parts.length < 1) {
+        return mutate(() -> keyScope(path), () -> doCreateKey(path, false),
+                new RegistryJournal.Operation(RegistryJournal.CREATE_KEY, path));
+    }
+
+    // 创建顶级注册表项（导入时遇到未知的顶级节点使用）
+    public boolean createTopLevelKey(String name) {
+        if (name == null || name.isEmpty() || name.indexOf('\\') >= 0) {
             return false;
         }
+        return mutate(() -> topLevelScope(name), () -> doCreateKey(name, true),
+                RegistryJournal.Operation.createTopLevelKey(name));
+    }
+
+    // 创建顶级项需要的写锁：结构锁和新顶级项的全部分段，撤销创建之前其他线程不能在其中写入
+    private List<RegistryLocks.OrderedLock> topLevelScope(String name) {
+        List<RegistryLocks.OrderedLock> scope = new ArrayList<>();
+        scope.add(locks.structureLock());
+        scope.addAll(Arrays.asList(locks.hiveLocks(name)));
+        return scope;
+    }
+
+    private boolean doCreateKey(String path, boolean createTopLevel) {
+        path = RegistryPath.trimTrailingSeparators(path);
+        if (pathIndex.containsKey(path)) {
+            return true;
+        }
 
         // 检查顶级节点是否存在
-        RegistryKey currentKey = topLevelKeys.get(parts[0]);
+        int end = RegistryPath.firstSegmentEnd(path);
+        String topLevelName = RegistryPath.segment(path, 0, end);
+        RegistryKey currentKey = topLevelKeys.get(topLevelName);
         if (currentKey == null) {
-            return false;
+            if (!createTopLevel) {
+                return false;
+            }
+            currentKey = new RegistryKey(topLevelName);
+            topLevelKeys = PersistentHashMap.copyOf(topLevelKeys).plus(topLevelName, currentKey);
+            searchIndex.keyAdded(currentKey);
         }
 
         // 逐级创建子项
-        for (int i = 1; i < parts.length; i++) {
-            String keyName = parts[i];
+        while (end < path.length()) {
+            int start = end + 1;
+            end = RegistryPath.segmentEnd(path, start);
+            String keyName = path.substring(start, end);
             RegistryKey childKey = currentKey.getSubKey(keyName);  // 判断当前的键是否包含该子项
             if (childKey == null) {
                 childKey = new RegistryKey(keyName);  // 没有就创建子项
-                currentKey.addSubKey(childKey);        // 添加到父项的子项集合里
+                compactor.beforeChange(currentKey);
+                currentKey.putSubKey(childKey);        // 添加到父项的子项集合里
+                searchIndex.keyAdded(childKey);
             }
             currentKey = childKey;    // 移动到子项
         }
+        pathIndex.put(path, currentKey);
         return true;
     }
 
     // 设置键值对
     public boolean setValue(String keyPath, String valueName, String type, String value) {
-        RegistryKey key = getKeyByPath(keyPath);
+        return mutate(() -> keyScope(keyPath), () -> doSetValue(keyPath, valueName, type, value),
+                new RegistryJournal.Operation(RegistryJournal.SET_VALUE, keyPath, valueName, type, value));
+    }
+
+    private boolean doSetValue(String keyPath, String valueName, String type, String value) {
+        RegistryKey key = lookupForWrite(keyPath);
         if (key == null) {
             return false;
         }
 
-        key.addValue(new RegistryValue(valueName, type, value));
+        RegistryValue previous = key.getValue(valueName);
+        RegistryValue current = new RegistryValue(valueName, type, value);
+        compactor.beforeChange(key);
+        key.putValue(current);
+        searchIndex.valueReplaced(key, previous, current);
+        versions.valuesChanged(keyPath);
         return true;
     }
 
     // 根据路径获取注册表项
+    // 命中路径索引时只需一次哈希查找；未命中时逐段查找并把结果放入索引
+    // 注意：索引由 Registry 的修改方法维护，绕过 Registry 直接增删子项会使索引过期；
+    // 这类修改只是让所在的项在下次写快照时重新序列化（见 RegistryKey.markChanged），不会丢失
     public RegistryKey getKeyByPath(String path) {
-        String[] parts = path.split("\\\\");
-        if (parts.length < 1) {
-            return null;
+        long start = metrics.start();
+        RegistryKey key = pathIndex.get(path);
+        if (key != null) {
+            metrics.recordIndexLookup(true);
+            metrics.record(RegistryMetrics.Operation.GET_KEY, start, true);
+            return key;
         }
+        metrics.recordIndexLookup(false);
 
-        RegistryKey currentKey = topLevelKeys.get(parts[0]);
-        if (currentKey == null) {
-            return null;
+        // 查找期间如有写操作，结果可能已过期，放入索引后需校验并撤回
+        // 路径只会被其第一级祖先所在分段的写操作移出索引，校验该分段即可；
+        // 顶级项不会被删除，只会在 refresh 时整体替换，放入索引后与当前的顶级项比对一次
+        String normalized = RegistryPath.trimTrailingSeparators(path);
+        int end = RegistryPath.firstSegmentEnd(normalized);
+        RegistryLocks.OrderedLock guard = null;
+        long stamp = 0;
+        if (end < normalized.length()) {
+            String hive = RegistryPath.segment(normalized, 0, end);
+            if (topLevelKeys.containsKey(hive)) {
+                guard = locks.stripeLock(hive, normalized, end + 1, RegistryPath.segmentEnd(normalized, end + 1));
+                stamp = guard.lock.tryOptimisticRead();
+            }
         }
 
-        for (int i = 1; i < parts.length; i++) {
-            currentKey = currentKey.getSubKey(parts[i]);
-            if (currentKey == null) {
-                return null;
+        key = resolveKey(normalized);
+        if (key != null && normalized == path && (guard == null || stamp != 0)) {
+            pathIndex.put(path, key);
+            if (guard != null ? !guard.lock.validate(stamp) : topLevelKeys.get(path) != key) {
+                pathIndex.remove(path, key);
             }
         }
+        if (key == null) {
+            metrics.recordLookupMiss();
+        }
+        metrics.record(RegistryMetrics.Operation.GET_KEY, start, key != null);
+        return key;
+    }
+
+    // 持有写锁时查找：没有并发修改，结果可直接放入索引
+    private RegistryKey lookupForWrite(String path) {
+        RegistryKey key = pathIndex.get(path);
+        if (key != null) {
+            return key;
+        }
+        String normalized = RegistryPath.trimTrailingSeparators(path);
+        key = resolveKey(normalized);
+        if (key != null && normalized == path) {
+            pathIndex.put(path, key);
+        }
+        return key;
+    }
+
+    // 从顶级项开始逐段查找
+    private RegistryKey resolveKey(String path) {
+        int end = RegistryPath.firstSegmentEnd(path);
+        RegistryKey currentKey = topLevelKeys.get(RegistryPath.segment(path, 0, end));
+        while (currentKey != null && end < path.length()) {
+            int start = end + 1;
+            end = RegistryPath.segmentEnd(path, start);
+            currentKey = currentKey.getSubKey(path.substring(start, end));
+        }
         return currentKey;
     }
 
+    // 从路径索引中移除该项及其已加载的所有子项（未加载的子树不可能出现在索引中）
+    private void unindexSubtree(String path, RegistryKey key) {
+        pathIndex.remove(path);
+        if (!key.isLoaded()) {
+            return;
+        }
+        for (RegistryKey subKey : key.getSubKeys().values()) {
+            unindexSubtree(RegistryPath.child(path, subKey.getName()), subKey);
+        }
+    }
+
     // 获取键值
     public RegistryValue getValue(String keyPath, String valueName) {
+        long start = metrics.start();
         RegistryKey key = getKeyByPath(keyPath);
-        if (key == null) {
-            return null;
+        RegistryValue value = key == null ? null : key.getValue(valueName);
+        metrics.record(RegistryMetrics.Operation.GET_VALUE, start, value != null);
+        return value;
+    }
+
+    /**
+     * 读取 DWord 值，不存在时返回默认值
+     * @throws NumberFormatException  值不是数字
+     */
+    public int getDWord(String keyPath, String valueName, int defaultValue) {
+        RegistryValue value = getValue(keyPath, valueName);
+        return value == null ? defaultValue : value.getDWord();
+    }
+
+    /**
+     * 读取 QWord 值，不存在时返回默认值
+     * @throws NumberFormatException  值不是数字
+     */
+    public long getQWord(String keyPath, String valueName, long defaultValue) {
+        RegistryValue value = getValue(keyPath, valueName);
+        return value == null ? defaultValue : value.getQWord();
+    }
+
+    /**
+     * 读取 Binary 值，不存在时返回 null
+     * @throws NumberFormatException  值不是十六进制字节串
+     */
+    public byte[] getBytes(String keyPath, String valueName) {
+        RegistryValue value = getValue(keyPath, valueName);
+        return value == null ? null : value.getBytes();
+    }
+
+    // 读取 Multi-String 值，不存在时返回 null
+    public String[] getMultiString(String keyPath, String valueName) {
+        RegistryValue value = getValue(keyPath, valueName);
+        return value == null ? null : value.getMultiString();
+    }
+
+    // 设置 DWord 值（日志中仍记录为规范的十六进制文本）
+    public boolean setDWord(String keyPath, String valueName, int value) {
+        return setValue(keyPath, valueName, "DWord", String.format("%08x", value));
+    }
+
+    // 设置 QWord 值
+    public boolean setQWord(String keyPath, String valueName, long value) {
+        return setValue(keyPath, valueName, "QWord", String.format("%016x", value));
+    }
+
+    // 设置 Binary 值
+    public boolean setBytes(String keyPath, String valueName, byte[] value) {
+        StringBuilder hex = new StringBuilder(value.length * 2);
+        for (byte b : value) {
+            hex.append(String.format("%02x", b));
         }
-        return key.getValue(valueName);
+        return setValue(keyPath, valueName, "Binary", hex.toString());
+    }
+
+    // 设置 Multi-String 值
+    public boolean setMultiString(String keyPath, String valueName, String... value) {
+        return setValue(keyPath, valueName, "Multi-String", String.join("\0", value));
     }
 
     // 删除键值
     public boolean deleteValue(String keyPath, String valueName) {
-        RegistryKey key = getKeyByPath(keyPath);
+        return mutate(() -> keyScope(keyPath), () -> doDeleteValue(keyPath, valueName),
+                new RegistryJournal.Operation(RegistryJournal.DELETE_VALUE, keyPath, valueName));
+    }
+
+    private boolean doDeleteValue(String keyPath, String valueName) {
+        RegistryKey key = lookupForWrite(keyPath);
         if (key == null) {
             return false;
         }
-        return key.removeValue(valueName);
+        RegistryValue previous = key.getValue(valueName);
+        if (previous == null) {
+            return false;
+        }
+        compactor.beforeChange(key);
+        if (!key.dropValue(valueName)) {
+            return false;
+        }
+        searchIndex.valueReplaced(key, previous, null);
+        versions.valuesChanged(keyPath);
+        return true;
     }
 
     // 删除注册表项
     public boolean deleteKey(String keyPath) {
-        String[] parts = keyPath.split("\\\\");
-        if (parts.length <= 1) { // 顶级节点不能删
+        return mutate(() -> keyScope(keyPath), () -> doDeleteKey(keyPath),
+                new RegistryJournal.Operation(RegistryJournal.DELETE_KEY, keyPath));
+    }
+
+    private boolean doDeleteKey(String keyPath) {
+        keyPath = RegistryPath.trimTrailingSeparators(keyPath);
+        String parentPath = RegistryPath.parent(keyPath);
+        if (parentPath == null) { // 顶级节点不能删
             return false;
         }
 
-        // 如果是顶级节点，直接删除
-//        if (parts.length == 1) {
-//            return topLevelKeys.remove(parts[0]) != null;
-//        }
-
         // 找到父节点
-        String parentPath = "";
-        for (int i = 0; i < parts.length - 1; i++) {
-            parentPath += (i > 0 ? "\\" : "") + parts[i];
+        RegistryKey parentKey = lookupForWrite(parentPath);
+        if (parentKey == null) {
+            return false;
+        }
+
+        RegistryKey key = parentKey.getSubKey(RegistryPath.name(keyPath));
+        if (key == null) {
+            return false;
+        }
+        unindexSubtree(keyPath, key);
+        compactor.beforeChange(parentKey);
+        if (!parentKey.dropSubKey(key.getName())) {
+            return false;
+        }
+        searchIndex.subtreeRemoved(key);
+        versions.subtreeChanged(keyPath);
+        return true;
+    }
+
+    // 重命名注册表项（顶级节点不能重命名）
+    public boolean renameKey(String keyPath, String newName) {
+        return mutate(() -> renameScope(keyPath, newName), () -> doRenameKey(keyPath, newName),
+                new RegistryJournal.Operation(RegistryJournal.RENAME_KEY, keyPath, newName));
+    }
+
+    private boolean doRenameKey(String keyPath, String newName) {
+        if (newName == null || newName.isEmpty() || newName.indexOf('\\') >= 0) {
+            return false;
+        }
+        keyPath = RegistryPath.trimTrailingSeparators(keyPath);
+        String parentPath = RegistryPath.parent(keyPath);
+        if (parentPath == null) {
+            return false;
         }
 
-        RegistryKey parentKey = getKeyByPath(parentPath);
+        RegistryKey parentKey = lookupForWrite(parentPath);
         if (parentKey == null) {
             return false;
         }
+        RegistryKey key = parentKey.getSubKey(RegistryPath.name(keyPath));
+        if (key == null || parentKey.getSubKey(newName) != null) {
+            return false;
+        }
+
+        // 先按旧名称移除，改名后再按新名称挂回父项（新路径在下次查找时重新进入索引）
+        unindexSubtree(keyPath, key);
+        String oldName = key.getName();
+        compactor.beforeChange(key);  // 一并标记了父项
+        parentKey.dropSubKey(oldName);
+        key.rename(newName);
+        parentKey.putSubKey(key);
+        searchIndex.keyRenamed(key, oldName);
+        versions.subtreeChanged(keyPath);
+        versions.subtreeChanged(RegistryPath.child(parentPath, newName));
+        return true;
+    }
+
+    // 重命名键值（保留类型和数据）
+    public boolean renameValue(String keyPath, String oldName, String newName) {
+        return mutate(() -> keyScope(keyPath), () -> doRenameValue(keyPath, oldName, newName),
+                new RegistryJournal.Operation(RegistryJournal.RENAME_VALUE, keyPath, oldName, newName));
+    }
+
+    private boolean doRenameValue(String keyPath, String oldName, String newName) {
+        RegistryKey key = lookupForWrite(keyPath);
+        if (key == null || newName == null || key.getValue(newName) != null) {
+            return false;
+        }
+        RegistryValue oldValue = key.getValue(oldName);
+        if (oldValue == null) {
+            return false;
+        }
+
+        compactor.beforeChange(key);
+        key.dropValue(oldName);
+        RegistryValue renamed = new RegistryValue(newName, oldValue.getType(), oldValue.getValue());
+        key.putValue(renamed);
+        searchIndex.valueReplaced(key, oldValue, null);
+        searchIndex.valueReplaced(key, null, renamed);
+        versions.valuesChanged(keyPath);
+        return true;
+    }
+
+    /**
+     * 全文检索：查找名称、键值名称或键值数据包含 query（不区分大小写）的注册表项和键值
+     * 首次调用时建立索引（期间阻塞写操作，内存映射的快照会被全部读入），之后的查询只查索引
+     * 查询按词匹配：除最后一个词可以是前缀外，查询中的每个词须是原文中的完整词
+     * @param limit  最多返回的结果数
+     */
+    public List<RegistrySearchHit> search(String query, int limit) {
+        if (query == null) {
+            throw new NullPointerException("查询内容不能为空");
+        }
+        // refresh 会整体换掉索引，只读一次字段，建索引和查询用的是同一个对象
+        RegistrySearchIndex index = searchIndex;
+        if (!index.isBuilt()) {
+            try (RegistryLocks.Held ignored = locks.lockAllRead(() -> topLevelKeys.keySet())) {
+                // 持锁期间不会被 refresh 替换，取最新的索引来建
+                index = searchIndex;
+                index.build(topLevelKeys);
+            }
+        }
+        return index.search(query, limit);
+    }
 
-        return parentKey.removeSubKey(parts[parts.length - 1]);
+    /**
+     * 按通配符模式查找注册表项，结果惰性生成（只在取下一个结果时继续遍历）
+     * 各段依次匹配各级项名称：* 和 ? 匹配段内字符，单独的 ** 匹配零到多级项；
+     * 例如 HKEY_SOFTWARE\DATABASE\*、HKEY_MACHINE\Memory\Area\**（该项及其下所有项）
+     * 不加锁遍历，每个项的子项和键值各自是某一时刻的快照；需要整体一致时在 readConsistent 中收集结果
+     * @throws IllegalArgumentException  模式为空或含空段
+     */
+    public Stream<RegistryQueryResult> queryKeys(String pattern) {
+        return StreamSupport.stream(RegistryPathPattern.compile(pattern, false).spliterator(topLevelKeys), false);
+    }
+
+    /**
+     * 按通配符模式查找键值：最后一段匹配键值名称，其余各段同 queryKeys
+     * 例如 HKEY_SOFTWARE\DATABASE\*\*_port、HKEY_MACHINE\Memory\Area\**\*（该项及其下所有键值）
+     * @throws IllegalArgumentException  模式为空、含空段或最后一段为 **
+     */
+    public Stream<RegistryQueryResult> queryValues(String pattern) {
+        return StreamSupport.stream(RegistryPathPattern.compile(pattern, true).spliterator(topLevelKeys), false);
+    }
+
+    // 全文检索，最多返回 1000 条结果
+    public List<RegistrySearchHit> search(String query) {
+        return search(query, 1000);
     }
 
     // 新增方法：遍历所有键值对
@@ -177,23 +1005,354 @@ public class Registry implements Serializable {
         }
     }
 
+    /**
+     * 估算当前注册表的堆内存占用（只统计已加载的注册表项）
+     */
+    public RegistryFootprint footprint() {
+        return readConsistent(() -> RegistryFootprint.measure(topLevelKeys));
+    }
+
+    /**
+     * 运行指标（registry.metrics=true 时才会记录）
+     */
+    public RegistryMetrics getMetrics() {
+        return metrics;
+    }
+
+    RegistryVersions versions() {
+        return versions;
+    }
+
+    // 路径索引当前的条目数
+    int pathIndexSize() {
+        return pathIndex.size();
+    }
+
+    // 尚未删除的各日志段的总长度，未启用日志时为 0
+    long journalBytes() {
+        RegistryJournal current = journal;
+        if (current == null) {
+            return 0;
+        }
+        try {
+            return current.size();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // 第 segment 段及之后各日志段的总长度，即快照尚未包含的日志长度
+    long journalBytesSince(long segment) {
+        RegistryJournal current = journal;
+        if (current == null) {
+            return 0;
+        }
+        try {
+            return current.sizeSince(segment);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
     // 获取顶级注册表项
     public Map<String, RegistryKey> getTopLevelKeys() {
         return topLevelKeys;
     }
 
-    // 从二进制文件加载注册表
-    private static Registry loadFromFile() throws IOException, ClassNotFoundException {
+    private static boolean hasSnapshot(File file) {
+        return file.exists() && file.length() > 0;
+    }
+
+    /**
+     * 载入当前快照；它损坏（格式不符或校验和不符，见 RegistrySnapshotCorruptException）时改名为 registry.dat.corrupt 保留，
+     * 回退到上一代快照，日志模式下再从上一代快照记下的日志段开始重放，不丢失修改。两者都损坏时才创建新注册表
+     * 其他 I/O 错误（文件描述符耗尽、没有权限、不支持的版本等）不说明文件损坏，抛出 UncheckedIOException，不动任何文件
+     */
+    private static Registry loadWithFallback(RegistrySharedHeader shared, long loadedGeneration) {
+        File regFile = new File(REGISTRY_FILE);
+        File backupFile = new File(BACKUP_FILE);
+        if (hasSnapshot(regFile)) {
+            try {
+                // 上一代快照的日志段在它被替换前都要保留
+                long retainedSegment = RegistrySnapshotFormat.readJournalSegment(backupFile);
+                Registry registry = loadFromFile(regFile, shared, retainedSegment);
+                System.out.println("成功从现有文件加载注册表");
+                return registry;
+            } catch (RegistrySnapshotCorruptException e) {
+                System.err.println("注册表文件已损坏: " + e.getMessage());
+                setAsideCorruptSnapshot(regFile, shared, loadedGeneration);
+            } catch (IOException e) {
+                // 文件本身可能完好（如文件描述符耗尽、没有权限），不能改用较旧的快照
+                throw new UncheckedIOException("加载注册表文件失败: " + regFile.getAbsolutePath(), e);
+            }
+        }
+        if (hasSnapshot(backupFile)) {
+            try {
+                Registry registry = loadFromFile(backupFile, shared, -1);
+                System.err.println("已回退到上一代快照 " + backupFile.getName());
+                return registry;
+            } catch (RegistrySnapshotCorruptException e) {
+                System.err.println("上一代快照也已损坏: " + e.getMessage());
+            } catch (IOException e) {
+                throw new UncheckedIOException("加载上一代快照失败: " + backupFile.getAbsolutePath(), e);
+            }
+        }
+        System.err.println("没有可用的注册表快照，将创建新注册表");
+        return new Registry();
+    }
+
+    // 把无法载入的快照改名保留，避免下次保存时把它当作上一代快照而覆盖完好的 registry.dat.bak
+    // 其他进程已写入了新快照（代数变化）时文件已不是刚才读取的那个，不动它
+    private static void setAsideCorruptSnapshot(File regFile, RegistrySharedHeader shared, long loadedGeneration) {
+        try {
+            if (shared == null) {
+                Files.move(regFile.toPath(), new File(CORRUPT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (RegistrySharedHeader.Held ignored = shared.lockExclusive()) {
+                    if (shared.generation() != loadedGeneration) {
+                        return;
+                    }
+                    Files.move(regFile.toPath(), new File(CORRUPT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            System.err.println("已将损坏的注册表文件改名为 " + CORRUPT_FILE);
+        } catch (IOException e) {
+            System.err.println("保留损坏的注册表文件失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 从二进制文件加载注册表（旧版 Java 序列化文件会被一次性迁移为新格式）
+     * 按需加载时先并行校验各块的校验和，全部通过后才解析内容；一次性读入时边读边校验
+     * @param retainedSegment  上一代快照记下的日志段号，没有上一代快照时为 -1
+     */
+    private static Registry loadFromFile(File file, RegistrySharedHeader shared, long retainedSegment)
+            throws IOException {
+        if (RegistrySnapshotFormat.isLegacyFile(file)) {
+            return migrateLegacyFile(file, shared);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (RegistryConfig.isMappedStorageEnabled()) {
+                RegistrySnapshotMapping mapping = RegistrySnapshotMapping.map(channel, true);
+                Registry registry = new Registry(mapping.readTopLevelKeys());
+                long segment = mapping.journalSegment();
+                registry.compactor.rebase(mapping, segment, retainedSegment < 0 ? segment : retainedSegment);
+                return registry;
+            }
+            // 一次性读入：能映射时同时映射同一个文件，作为之后增量写快照的基础；
+            // 不能映射时（registry.snapshot.mmap 关闭或超过 2GB）不保留文件内容，检查点全部重新序列化
+            RegistrySnapshotMapping base = RegistrySnapshotMapping.mapBase(channel);
+            Registry registry = new Registry(RegistrySnapshotReader.read(Channels.newInputStream(channel), base));
+            channel.position(0);
+            long segment = RegistrySnapshotFormat.readJournalSegment(
+                    new DataInputStream(Channels.newInputStream(channel)));
+            registry.compactor.rebase(base, segment, retainedSegment < 0 ? segment : retainedSegment);
+            return registry;
+        }
+    }
+
+    // 读取旧版 Java 序列化文件，备份后以新格式重写
+    private static Registry migrateLegacyFile(File regFile, RegistrySharedHeader shared) throws IOException {
+        Registry registry;
         try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(REGISTRY_FILE))) {
-            return (Registry) ois.readObject();
+                new BufferedInputStream(new FileInputStream(regFile)))) {
+            registry = (Registry) ois.readObject();
+        } catch (ObjectStreamException | EOFException | ClassNotFoundException | ClassCastException e) {
+            throw new RegistrySnapshotCorruptException("旧版注册表文件内容无效: " + e, e);
+        }
+
+        File legacyBackup = new File(REGISTRY_FILE + ".legacy");
+        if (!legacyBackup.exists()) {
+            Files.copy(regFile.toPath(), legacyBackup.toPath());
         }
+        if (shared != null) {
+            registry.sharedHeader = shared;
+            registry.generation = shared.generation();
+        }
+        registry.checkpoint();
+        System.out.println("已将旧版注册表文件迁移为新格式，原文件备份为 " + legacyBackup.getName());
+        return registry;
     }
 
-    // 保存注册表到二进制文件
+    // 保存注册表到快照文件（日志模式下即做一次检查点，之后删除已被快照包含的日志段）
+    // 写文件期间不阻塞读写操作，见 checkpoint
     public void saveToFile() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(REGISTRY_FILE))) {
-            oos.writeObject(this);
+        checkpoint();
+    }
+
+    // 持久化最近的修改：日志模式下只需确保日志落盘，否则写入完整快照
+    public void flush() throws IOException {
+        if (journal != null) {
+            journal.sync();
+        } else {
+            saveToFile();
+        }
+    }
+
+    /**
+     * 其他进程写入了新快照时重新映射它（只解析文件头、字符串表和目录，注册表项在首次访问时才读取），返回是否刷新
+     * 快照未变化时只读一次共享头文件中的代数，可以频繁调用
+     * 刷新时短暂阻塞本进程的写操作；刷新后内容与新快照一致，本进程尚未保存的修改被丢弃，也不会为此产生变更通知
+     * @throws IllegalStateException  日志模式下本进程的日志以自己的快照为基础，不能换成其他进程的快照
+     */
+    public synchronized boolean refresh() throws IOException {
+        RegistrySharedHeader shared = sharedHeader;
+        if (shared == null || shared.generation() == generation) {
+            return false;
+        }
+        if (journal != null) {
+            throw new IllegalStateException("日志模式下不能载入其他进程写入的快照");
+        }
+        try (RegistryLocks.Held ignored = locks.lockAllWrite(() -> topLevelKeys.keySet())) {
+            long latest = shared.generation();
+            RegistrySnapshotMapping mapping = RegistrySnapshotMapping.open(new File(REGISTRY_FILE), true);
+            Map<String, RegistryKey> loaded = mapping.readTopLevelKeys();
+            Map<String, RegistryKey> previous = topLevelKeys;
+            topLevelKeys = PersistentHashMap.copyOf(loaded);
+            pathIndex.clear();
+            searchIndex = new RegistrySearchIndex();
+            for (String name : previous.keySet()) {
+                versions.subtreeChanged(name);
+            }
+            for (String name : loaded.keySet()) {
+                versions.subtreeChanged(name);
+            }
+            compactor.rebase(mapping, mapping.journalSegment(), mapping.journalSegment());
+            generation = latest;
+        }
+        return true;
+    }
+
+    /**
+     * 检查点：把注册表写成新快照，返回写出的字节数
+     *
+     * 只在开始时持全部写锁片刻，进入新纪元并切换到新的日志段；之后写文件期间读写操作照常进行：
+     * 检查点开始后被修改的项先保存修改前的内容（见 RegistryCheckpoint），快照中写的始终是开始时刻的状态，
+     * 与切换点之前的日志恰好对应。自上一个快照以来没有修改过的子树直接从上一个快照中复制字节，
+     * 修改集中在少数子树时写快照的开销与修改量而不是注册表大小成正比。
+     * 先写临时文件并 fsync，再原子改名：其他进程打开的始终是完整的快照，已映射旧快照的进程（包括本进程）也不受影响；
+     * 多个进程之间由共享头文件上的排他锁互斥，写完后递增代数。被替换的快照保留为上一代快照（registry.dat.bak），
+     * 快照落盘后只删除上一代快照也已包含的日志段
+     */
+    synchronized long checkpoint() throws IOException {
+        long start = metrics.start();
+        RegistryCheckpoint checkpoint;
+        try (RegistryLocks.Held ignored = locks.lockAllWrite(() -> topLevelKeys.keySet())) {
+            // 快照模式下没有日志，沿用载入的快照记下的段号，不影响切回日志模式时重放
+            long segment = journal != null ? journal.rotate() : compactor.baseSegment();
+            checkpoint = compactor.begin(topLevelKeys, segment);
+        }
+        File temp = null;
+        try {
+            // 临时文件名唯一：同时写快照的其他进程（或本进程的其他实例）不会改写它，写文件期间不必持有共享头文件的锁
+            File directory = new File(REGISTRY_FILE).getAbsoluteFile().getParentFile();
+            synchronized (tempLock) {
+                if (exiting) {
+                    throw new IOException("进程正在退出，不再写快照");
+                }
+                temp = Files.createTempFile(directory.toPath(), TEMP_PREFIX, TEMP_SUFFIX).toFile();
+                checkpointTemp = temp;
+            }
+            RegistrySnapshotWriter writer;
+            try (FileOutputStream file = new FileOutputStream(temp)) {
+                OutputStream out = new BufferedOutputStream(file, 64 * 1024);
+                writer = RegistrySnapshotWriter.write(checkpoint, compactor.reusableBase(), compactor.baseEpoch(), out);
+                out.flush();
+                file.getFD().sync();
+            }
+            RegistrySnapshotMapping written = publishSnapshot(temp, writer.bytes());
+            writer.relocate(written);
+            compactor.committed(checkpoint, written, writer);
+            if (journal != null) {
+                journal.deleteSegmentsBefore(compactor.retainedSegment());
+            }
+            metrics.recordSave(start, writer.bytes());
+            return writer.bytes();
+        } finally {
+            compactor.end();
+            synchronized (tempLock) {
+                checkpointTemp = null;
+            }
+            // 改名成功后临时文件已不存在；失败时删掉写了一半的文件
+            if (temp != null && temp.exists() && !temp.delete()) {
+                System.err.println("删除快照临时文件失败: " + temp);
+            }
+        }
+    }
+
+    /**
+     * 校验刚写完的快照，返回它的映射：按需加载时各项之后从中读取，须映射（并整体校验）；
+     * 一次性读入时只在能映射时映射（见 RegistrySnapshotMapping.mapBase），否则顺序读一遍校验，返回 null
+     */
+    private static RegistrySnapshotMapping verifyWritten(File temp) throws IOException {
+        if (RegistryConfig.isMappedStorageEnabled()) {
+            return RegistrySnapshotMapping.open(temp, true);
+        }
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.READ)) {
+            RegistrySnapshotMapping mapping = RegistrySnapshotMapping.mapBase(channel);
+            if (mapping != null) {
+                mapping.verify();
+            } else {
+                RegistrySnapshotChecksums.verify(channel);
+            }
+            return mapping;
+        }
+    }
+
+    // 把写好的临时文件改名为快照文件并递增共享头文件中的代数，返回新快照的映射（见 verifyWritten）
+    private RegistrySnapshotMapping publishSnapshot(File temp, long bytes) throws IOException {
+        // 改名前映射：改名不改变文件本身，映射的就是即将就位的快照，不会与其他进程随后写入的快照混淆
+        // 发布前先校验一遍，写坏的快照不会取代完好的 registry.dat
+        RegistrySnapshotMapping written = verifyWritten(temp);
+        RegistrySharedHeader shared = sharedHeader;
+        if (shared == null) {
+            replaceSnapshotFile(temp);
+            return written;
+        }
+        try (RegistrySharedHeader.Held ignored = shared.lockExclusive()) {
+            long current = shared.generation();
+            if (current != generation) {
+                System.err.println("注册表快照已被其他进程更新（第 " + current + " 代），本次保存将覆盖它");
+            }
+            replaceSnapshotFile(temp);
+            generation = shared.publish(bytes);
+            return written;
+        }
+    }
+
+    // 原子改名替换快照文件，之前先把当前快照保留为上一代快照，之后 fsync 所在目录使改名落盘
+    private static void replaceSnapshotFile(File temp) throws IOException {
+        Path current = new File(REGISTRY_FILE).toPath();
+        if (Files.exists(current)) {
+            keepPreviousSnapshot(current);
+        }
+        try {
+            Files.move(temp.toPath(), current, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), current, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(current.toAbsolutePath().getParent());
+    }
+
+    // 硬链接到 registry.dat.bak，不复制数据；文件系统不支持硬链接时复制一份
+    private static void keepPreviousSnapshot(Path current) throws IOException {
+        Path backup = new File(BACKUP_FILE).toPath();
+        Files.deleteIfExists(backup);
+        try {
+            Files.createLink(backup, current);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(current, backup, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void syncDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 有的平台（如 Windows）不能打开目录，改名随文件系统元数据自行落盘
         }
     }
 }
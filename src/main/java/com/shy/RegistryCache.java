@@ -0,0 +1,238 @@
+package com.shy;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 读穿透的键值缓存：频繁读取同一批键值（datasource_host、redis_port、memory.limit ...）时，
+ * 命中缓存只需一次哈希查找和几次版本戳比较，不再逐段查找注册表项
+ *
+ * 每条缓存记录读取时该项的键值版本戳和各级祖先的子树版本戳（见 RegistryVersions），
+ * 命中时（注册表自上次校验以来有过修改才需要）逐一比较：setValue / deleteValue / renameValue 修改了该项的键值，或 deleteKey / renameKey 删除、移走了
+ * 该项或它的祖先，缓存记录随即失效，修改方法返回后再读取一定能读到新值。不存在的键值同样会被缓存
+ *
+ * 容量有上限，超出时按二次机会（CLOCK）算法淘汰，近似最近最少使用：记录按放入顺序排队，
+ * 轮到的记录若在上次轮到之后被命中过，清除标记后重新排到队尾，否则淘汰。
+ * 命中时不加锁、不调整顺序，只在标记未置位时写一次标记
+ */
+public final class RegistryCache {
+
+    private final Registry registry;
+    private final RegistryVersions versions;
+    private final int capacity;
+    private final ConcurrentHashMap<CacheKey, Entry> entries = new ConcurrentHashMap<>();
+    // 淘汰顺序，被替换的记录仍留在队列中，轮到时丢弃
+    private final Queue<Entry> clock = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 容量取 registry.cache.size
+     */
+    public RegistryCache(Registry registry) {
+        this(registry, RegistryConfig.getCacheSize());
+    }
+
+    /**
+     * @param maxEntries  最多缓存的键值数
+     */
+    public RegistryCache(Registry registry, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("缓存容量必须大于 0: " + maxEntries);
+        }
+        this.registry = registry;
+        this.versions = registry.versions();
+        this.capacity = maxEntries;
+    }
+
+    /**
+     * 读取键值，不存在时为 null；与 Registry.getValue 相同
+     */
+    public RegistryValue getValue(String keyPath, String valueName) {
+        String path = RegistryPath.trimTrailingSeparators(keyPath);
+        CacheKey key = new CacheKey(path, valueName);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.isCurrent(versions)) {
+                if (!entry.referenced) {
+                    entry.referenced = true;
+                }
+                hits.increment();
+                return entry.value;
+            }
+            staleMisses.increment();
+        }
+        misses.increment();
+
+        // 先取版本戳再读取：期间发生的修改会使版本戳变化，这条记录下次命中时即被判为过期
+        int valueSlot = RegistryVersions.slot(path.hashCode());
+        int[] subtreeSlots = entry != null ? entry.subtreeSlots : RegistryVersions.prefixSlots(path);
+        long checked = versions.modifications();
+        long valueStamp = versions.valueStamp(valueSlot);
+        long[] subtreeStamps = new long[subtreeSlots.length];
+        for (int i = 0; i < subtreeSlots.length; i++) {
+            subtreeStamps[i] = versions.subtreeStamp(subtreeSlots[i]);
+        }
+        RegistryValue value = registry.getValue(path, valueName);
+        store(new Entry(key, value, checked, valueSlot, valueStamp, subtreeSlots, subtreeStamps));
+        return value;
+    }
+
+    private void store(Entry entry) {
+        entries.put(entry.key, entry);
+        clock.add(entry);
+        while (entries.size() > capacity) {
+            Entry candidate = clock.poll();
+            if (candidate == null) {
+                return;
+            }
+            if (entries.get(candidate.key) != candidate) {
+                continue;  // 已被替换或清除
+            }
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                clock.add(candidate);
+            } else if (entries.remove(candidate.key, candidate)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * 读取 DWord 值，不存在时返回默认值
+     * @throws NumberFormatException  值不是数字
+     */
+    public int getDWord(String keyPath, String valueName, int defaultValue) {
+        RegistryValue value = getValue(keyPath, valueName);
+        return value == null ? defaultValue : value.getDWord();
+    }
+
+    /**
+     * 读取 QWord 值，不存在时返回默认值
+     * @throws NumberFormatException  值不是数字
+     */
+    public long getQWord(String keyPath, String valueName, long defaultValue) {
+        RegistryValue value = getValue(keyPath, valueName);
+        return value == null ? defaultValue : value.getQWord();
+    }
+
+    // 清空缓存（统计不清零）
+    public void invalidateAll() {
+        entries.clear();
+        clock.clear();
+    }
+
+    // 当前缓存的键值数
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    // 未命中次数，含缓存记录已过期的情况
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // 找到了缓存记录但已被修改操作判为过期的次数
+    public long getStaleCount() {
+        return staleMisses.sum();
+    }
+
+    // 因容量上限被淘汰的记录数
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RegistryCache[size=%d, hits=%d, misses=%d, stale=%d, evictions=%d, hitRate=%.2f%%]",
+                size(), getHitCount(), getMissCount(), getStaleCount(), getEvictionCount(), getHitRate() * 100);
+    }
+
+    private static final class CacheKey {
+        final String keyPath;
+        final String valueName;
+        final int hash;
+
+        CacheKey(String keyPath, String valueName) {
+            this.keyPath = keyPath;
+            this.valueName = valueName;
+            int h = keyPath.hashCode() * 31 + (valueName == null ? 0 : valueName.hashCode());
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return hash == other.hash && keyPath.equals(other.keyPath)
+                    && (valueName == null ? other.valueName == null : valueName.equals(other.valueName));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * 一条缓存记录：读取到的键值（不存在时为 null）及读取前的版本戳
+     */
+    private static final class Entry {
+        final CacheKey key;
+        final RegistryValue value;
+        final int valueSlot;
+        final long valueStamp;
+        // 从顶级项到该项的各级路径
+        final int[] subtreeSlots;
+        final long[] subtreeStamps;
+        // 上次确认仍有效时（比较版本戳之前）的全局修改计数；并发更新可能写回较旧的值，只会多比较一次
+        volatile long checked;
+        // 上次轮到淘汰之后是否被命中过；只是淘汰的参考，并发写丢失无妨
+        volatile boolean referenced;
+
+        Entry(CacheKey key, RegistryValue value, long checked, int valueSlot, long valueStamp,
+              int[] subtreeSlots, long[] subtreeStamps) {
+            this.key = key;
+            this.value = value;
+            this.checked = checked;
+            this.valueSlot = valueSlot;
+            this.valueStamp = valueStamp;
+            this.subtreeSlots = subtreeSlots;
+            this.subtreeStamps = subtreeStamps;
+        }
+
+        boolean isCurrent(RegistryVersions versions) {
+            long modifications = versions.modifications();
+            if (modifications == checked) {
+                return true;
+            }
+            if (versions.valueStamp(valueSlot) != valueStamp) {
+                return false;
+            }
+            for (int i = 0; i < subtreeSlots.length; i++) {
+                if (versions.subtreeStamp(subtreeSlots[i]) != subtreeStamps[i]) {
+                    return false;
+                }
+            }
+            checked = modifications;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.shy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一次检查点：开始时刻注册表的一致视图，供写快照的线程在不持锁的情况下读取
+ *
+ * 开始时持全部写锁记下顶级项集合；此后修改任何项之前（见 RegistryCompactor.beforeChange），
+ * 先把该项修改前的子项集合、键值集合和修改纪元保存在这里，每个项只保存第一次。
+ * 子项和键值集合都是不可变映射，保存的只是引用；写快照时优先读保存的内容，没有保存过的项说明还没有被修改，直接读当前内容
+ */
+final class RegistryCheckpoint {
+
+    private final long epoch;
+    private final long journalSegment;
+    private final Map<String, RegistryKey> topLevelKeys;
+    private final ConcurrentHashMap<RegistryKey, State> preserved = new ConcurrentHashMap<>();
+
+    RegistryCheckpoint(long epoch, long journalSegment, Map<String, RegistryKey> topLevelKeys) {
+        this.epoch = epoch;
+        this.journalSegment = journalSegment;
+        this.topLevelKeys = topLevelKeys;
+    }
+
+    // 检查点开始后的修改所在的纪元，快照写完后即为新快照的纪元
+    long epoch() {
+        return epoch;
+    }
+
+    // 检查点开始时切换到的日志段，快照包含它之前各段中的全部修改
+    long journalSegment() {
+        return journalSegment;
+    }
+
+    Map<String, RegistryKey> topLevelKeys() {
+        return topLevelKeys;
+    }
+
+    // key 即将被修改，须在修改前调用（持有该项的写锁）
+    void preserve(RegistryKey key) {
+        if (!preserved.containsKey(key)) {
+            preserved.putIfAbsent(key, State.of(key));
+        }
+    }
+
+    /**
+     * key 在检查点开始时刻的内容
+     */
+    State state(RegistryKey key) {
+        // 先读当前内容再查保存的内容：查不到时，读到的当前内容一定早于第一次修改
+        State current = State.of(key);
+        State saved = preserved.get(key);
+        return saved != null ? saved : current;
+    }
+
+    /**
+     * 一个项某一时刻的内容
+     */
+    static final class State {
+        final Map<String, RegistryKey> subKeys;
+        final Map<String, RegistryValue> values;
+        final long modifiedEpoch;
+
+        private State(Map<String, RegistryKey> subKeys, Map<String, RegistryValue> values, long modifiedEpoch) {
+            this.subKeys = subKeys;
+            this.values = values;
+            this.modifiedEpoch = modifiedEpoch;
+        }
+
+        // 先读修改纪元：之后再被直接修改时纪元一定会变（见 RegistryKey.clearDirectModification）
+        static State of(RegistryKey key) {
+            long modifiedEpoch = key.modifiedEpoch();
+            return new State(key.getSubKeys(), key.getValues(), modifiedEpoch);
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package com.shy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RegistryServer 的客户端
+ *
+ * 所有请求都有异步版本（xxxAsync），可以连续发出多个请求再等待结果，请求在一条连接上流水线执行；
+ * 同步版本等待结果返回。响应由后台读取线程分发，监视的回调也在该线程上执行，回调中不要长时间阻塞
+ *
+ * 读取的键值缓存在本地（registry.client.cacheSize 条，最近最少使用的先淘汰）：
+ * 第一次读取某个顶级项下的键值前，先在服务端递归监视该顶级项，收到变更通知时使相关缓存失效。
+ * 服务端按顺序执行同一连接的请求，监视一定先于读取生效；缓存最多比服务端晚一个通知合并窗口
+ * （registry.watch.coalesceMillis），本客户端自己的修改立即生效
+ */
+public final class RegistryClient implements AutoCloseable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // 缓存中表示键值不存在
+    private static final RegistryValue ABSENT = new RegistryValue("", "", null);
+
+    private final SocketChannel channel;
+    private final Thread reader;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<RegistryProtocol.Frame>> pending = new ConcurrentHashMap<>();
+    private final Map<Integer, RegistryListener> watches = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private volatile boolean closed;
+
+    private final int cacheSize;
+    // 访问顺序的 LRU，键为 项路径 + '\0' + 键值名称，由自身的锁保护
+    private final LinkedHashMap<String, RegistryValue> cache;
+    // 每次缓存失效时递增，请求发出后发生过失效的读取结果不放入缓存
+    private final AtomicLong invalidations = new AtomicLong();
+    // 已为缓存注册监视的顶级项
+    private final Map<String, CompletableFuture<RegistryProtocol.Frame>> cachedHives = new ConcurrentHashMap<>();
+
+    private RegistryClient(SocketChannel channel, int cacheSize) {
+        this.channel = channel;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<String, RegistryValue>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RegistryValue> eldest) {
+                return size() > RegistryClient.this.cacheSize;
+            }
+        };
+        this.reader = new Thread(this::readLoop, "registry-client-reader");
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * 连接 registry.server.host / registry.server.port 上的注册表服务
+     */
+    public static RegistryClient connect() throws IOException {
+        return connect(new InetSocketAddress(RegistryConfig.getServerHost(), RegistryConfig.getServerPort()));
+    }
+
+    public static RegistryClient connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+        RegistryClient client = new RegistryClient(channel, RegistryConfig.getClientCacheSize());
+        client.reader.start();
+        return client;
+    }
+
+    // ---- 读取 ----
+
+    /**
+     * 读取键值，不存在时为 null；命中缓存时不访问服务端
+     */
+    public CompletableFuture<RegistryValue> getValueAsync(String keyPath, String valueName) {
+        String path = RegistryPath.trimTrailingSeparators(keyPath);
+        if (cacheSize == 0) {
+            return request(RegistryProtocol.GET_VALUE, path, valueName)
+                    .thenApply(response -> toValue(valueName, response));
+        }
+        String cacheKey = cacheKey(path, valueName);
+        RegistryValue cached;
+        synchronized (cache) {
+            cached = cache.get(cacheKey);
+        }
+        if (cached != null) {
+            return CompletableFuture.completedFuture(copy(cached));
+        }
+        watchHive(path);
+        long generation = invalidations.get();
+        return request(RegistryProtocol.GET_VALUE, path, valueName).thenApply(response -> {
+            RegistryValue value = toValue(valueName, response);
+            synchronized (cache) {
+                if (invalidations.get() == generation) {
+                    cache.put(cacheKey, value == null ? ABSENT : value);
+                }
+            }
+            return copy(value);
+        });
+    }
+
+    public RegistryValue getValue(String keyPath, String valueName) throws IOException {
+        return await(getValueAsync(keyPath, valueName));
+    }
+
+    /**
+     * 子项名称，keyPath 为空串时列出顶级项；注册表项不存在时为 null
+     */
+    public CompletableFuture<List<String>> listKeysAsync(String keyPath) {
+        return request(RegistryProtocol.LIST_KEYS, keyPath).thenApply(response ->
+                response.code == RegistryProtocol.NOT_FOUND ? null : Arrays.asList(response.args));
+    }
+
+    public List<String> listKeys(String keyPath) throws IOException {
+        return await(listKeysAsync(keyPath));
+    }
+
+    /**
+     * 注册表项的全部键值；注册表项不存在时为 null
+     */
+    public CompletableFuture<List<RegistryValue>> listValuesAsync(String keyPath) {
+        return request(RegistryProtocol.LIST_VALUES, keyPath).thenApply(response -> {
+            if (response.code == RegistryProtocol.NOT_FOUND) {
+                return null;
+            }
+            List<RegistryValue> values = new ArrayList<>(response.args.length / 3);
+            for (int i = 0; i + 2 < response.args.length; i += 3) {
+                values.add(new RegistryValue(response.args[i], response.args[i + 1], response.args[i + 2]));
+            }
+            return values;
+        });
+    }
+
+    public List<RegistryValue> listValues(String keyPath) throws IOException {
+        return await(listValuesAsync(keyPath));
+    }
+
+    // ---- 修改 ----
+
+    public CompletableFuture<Boolean> setValueAsync(String keyPath, String valueName, String type, String value) {
+        String path = RegistryPath.trimTrailingSeparators(keyPath);
+        invalidateValue(path, valueName);
+        return invalidateOnCompletion(request(RegistryProtocol.SET_VALUE, path, valueName, type, value),
+                () -> invalidateValue(path, valueName));
+    }
+
+    public boolean setValue(String keyPath, String valueName, String type, String value) throws IOException {
+        return await(setValueAsync(keyPath, valueName, type, value));
+    }
+
+    public CompletableFuture<Boolean> deleteValueAsync(String keyPath, String valueName) {
+        String path = RegistryPath.trimTrailingSeparators(keyPath);
+        invalidateValue(path, valueName);
+        return invalidateOnCompletion(request(RegistryProtocol.DELETE_VALUE, path, valueName),
+                () -> invalidateValue(path, valueName));
+    }
+
+    public boolean deleteValue(String keyPath, String valueName) throws IOException {
+        return await(deleteValueAsync(keyPath, valueName));
+    }
+
+    public CompletableFuture<Boolean> createKeyAsync(String keyPath) {
+        return status(request(RegistryProtocol.CREATE_KEY, keyPath));
+    }
+
+    public boolean createKey(String keyPath) throws IOException {
+        return await(createKeyAsync(keyPath));
+    }
+
+    public CompletableFuture<Boolean> deleteKeyAsync(String keyPath) {
+        String path = RegistryPath.trimTrailingSeparators(keyPath);
+        invalidateKey(path);
+        return invalidateOnCompletion(request(RegistryProtocol.DELETE_KEY, path), () -> invalidateKey(path));
+    }
+
+    public boolean deleteKey(String keyPath) throws IOException {
+        return await(deleteKeyAsync(keyPath));
+    }
+
+    // ---- 监视 ----
+
+    /**
+     * 在服务端监视注册表项的变化，语义同 Registry.watch；关闭返回值即取消监视
+     */
+    public Closeable watch(String keyPath, RegistryListener listener, boolean recursive) throws IOException {
+        if (listener == null) {
+            throw new NullPointerException("监听器不能为空");
+        }
+        int id = nextId.incrementAndGet();
+        watches.put(id, listener);
+        try {
+            await(status(request(id, RegistryProtocol.WATCH, keyPath, recursive ? "1" : "0")));
+        } catch (IOException e) {
+            watches.remove(id);
+            throw e;
+        }
+        return () -> {
+            if (watches.remove(id) != null && !closed) {
+                await(request(RegistryProtocol.UNWATCH, String.valueOf(id)));
+            }
+        };
+    }
+
+    /**
+     * 断开连接，未完成的请求以异常结束
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+        try {
+            reader.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---- 缓存 ----
+
+    private static String cacheKey(String keyPath, String valueName) {
+        return keyPath + '\0' + valueName;
+    }
+
+    // 为缓存监视 keyPath 所在的顶级项；请求先于随后的读取发出，服务端也先执行它
+    private void watchHive(String keyPath) {
+        String hive = keyPath.substring(0, RegistryPath.firstSegmentEnd(keyPath));
+        if (cachedHives.containsKey(hive)) {
+            return;
+        }
+        synchronized (cachedHives) {
+            if (cachedHives.containsKey(hive)) {
+                return;
+            }
+            int id = nextId.incrementAndGet();
+            watches.put(id, this::invalidate);
+            CompletableFuture<RegistryProtocol.Frame> watch = request(id, RegistryProtocol.WATCH, hive, "1");
+            cachedHives.put(hive, watch);
+            // 监视失败时放弃该顶级项的缓存记录，下次读取重新注册
+            watch.whenComplete((response, error) -> {
+                if (error != null || response.code != RegistryProtocol.OK) {
+                    watches.remove(id);
+                    cachedHives.remove(hive, watch);
+                    invalidateKey(hive);
+                }
+            });
+        }
+    }
+
+    private void invalidate(List<RegistryEvent> events) {
+        for (RegistryEvent event : events) {
+            if (event.isKeyEvent()) {
+                invalidateKey(event.getKeyPath());
+                // 重命名：新路径下可能还缓存着重命名前查询的结果（不存在）
+                String parent = RegistryPath.parent(RegistryPath.trimTrailingSeparators(event.getKeyPath()));
+                if (event.getNewName() != null && parent != null) {
+                    invalidateKey(RegistryPath.child(parent, event.getNewName()));
+                }
+            } else {
+                invalidateValue(event.getKeyPath(), event.getValueName());
+                if (event.getNewName() != null) {
+                    invalidateValue(event.getKeyPath(), event.getNewName());
+                }
+            }
+        }
+    }
+
+    private void invalidateValue(String keyPath, String valueName) {
+        if (cacheSize == 0) {
+            return;
+        }
+        synchronized (cache) {
+            invalidations.incrementAndGet();
+            cache.remove(cacheKey(keyPath, valueName));
+        }
+    }
+
+    // 注册表项被创建、删除或重命名：其下（含子树）缓存的键值全部失效
+    private void invalidateKey(String keyPath) {
+        if (cacheSize == 0) {
+            return;
+        }
+        String self = keyPath + '\0';
+        String subtree = keyPath + RegistryPath.SEPARATOR;
+        synchronized (cache) {
+            invalidations.incrementAndGet();
+            Iterator<String> keys = cache.keySet().iterator();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (key.startsWith(self) || key.startsWith(subtree)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    private void clearCache() {
+        synchronized (cache) {
+            invalidations.incrementAndGet();
+            cache.clear();
+        }
+        cachedHives.clear();
+    }
+
+    private CompletableFuture<Boolean> invalidateOnCompletion(CompletableFuture<RegistryProtocol.Frame> request,
+                                                              Runnable invalidate) {
+        // 修改生效前发出的读取可能带回旧值，完成时再失效一次
+        return status(request.whenComplete((response, error) -> invalidate.run()));
+    }
+
+    private static RegistryValue copy(RegistryValue value) {
+        return value == null || value == ABSENT ? null
+                : new RegistryValue(value.getName(), value.getType(), value.getValue());
+    }
+
+    // ---- 收发 ----
+
+    private CompletableFuture<RegistryProtocol.Frame> request(byte code, String... args) {
+        return request(nextId.incrementAndGet(), code, args);
+    }
+
+    private CompletableFuture<RegistryProtocol.Frame> request(int id, byte code, String... args) {
+        CompletableFuture<RegistryProtocol.Frame> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IOException("连接已关闭"));
+            return future;
+        }
+        pending.put(id, future);
+        ByteBuffer frame;
+        try {
+            frame = RegistryProtocol.encode(id, code, args);
+        } catch (IllegalArgumentException e) {
+            pending.remove(id);
+            future.completeExceptionally(e);
+            return future;
+        }
+        try {
+            synchronized (writeLock) {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            future.completeExceptionally(e);
+            disconnect(e);
+        }
+        // 读取线程可能已因断开清空了待完成的请求
+        if (closed && pending.remove(id) != null) {
+            future.completeExceptionally(new IOException("连接已关闭"));
+        }
+        return future.thenApply(RegistryClient::checkError);
+    }
+
+    private void readLoop() {
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        IOException failure = null;
+        try {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                RegistryProtocol.Frame frame;
+                while ((frame = RegistryProtocol.decode(in)) != null) {
+                    dispatch(frame);
+                }
+                int needed = RegistryProtocol.frameCapacity(in);
+                if (needed > in.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(needed);
+                    larger.put(in);
+                    in = larger;
+                } else {
+                    in.compact();
+                }
+            }
+            failure = new IOException("服务端已断开连接");
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            disconnect(failure == null ? new IOException("连接已关闭") : failure);
+        }
+    }
+
+    private void dispatch(RegistryProtocol.Frame frame) {
+        if (frame.code == RegistryProtocol.EVENT) {
+            RegistryListener listener = watches.get(frame.id);
+            if (listener == null) {
+                return;
+            }
+            List<RegistryEvent> events = new ArrayList<>(frame.args.length / 4);
+            for (int i = 0; i + 3 < frame.args.length; i += 4) {
+                events.add(new RegistryEvent(RegistryEvent.Type.valueOf(frame.args[i]),
+                        frame.args[i + 1], frame.args[i + 2], frame.args[i + 3]));
+            }
+            try {
+                listener.onChanges(Collections.unmodifiableList(events));
+            } catch (RuntimeException e) {
+                System.err.println("注册表监听器出错: " + e);
+            }
+            return;
+        }
+        CompletableFuture<RegistryProtocol.Frame> future = pending.remove(frame.id);
+        if (future != null) {
+            future.complete(frame);
+        }
+    }
+
+    // 连接断开：未完成的请求以异常结束，缓存不再能收到失效通知，全部清空
+    private void disconnect(IOException cause) {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 已经断开，忽略
+        }
+        Iterator<CompletableFuture<RegistryProtocol.Frame>> futures = pending.values().iterator();
+        while (futures.hasNext()) {
+            futures.next().completeExceptionally(cause);
+            futures.remove();
+        }
+        watches.clear();
+        clearCache();
+    }
+
+    private static RegistryProtocol.Frame checkError(RegistryProtocol.Frame response) {
+        if (response.code == RegistryProtocol.ERROR) {
+            throw new CompletionException(new IOException("注册表服务出错: "
+                    + (response.args.length > 0 ? response.args[0] : "")));
+        }
+        return response;
+    }
+
+    private static CompletableFuture<Boolean> status(CompletableFuture<RegistryProtocol.Frame> request) {
+        return request.thenApply(response -> response.code == RegistryProtocol.OK);
+    }
+
+    private static RegistryValue toValue(String valueName, RegistryProtocol.Frame response) {
+        if (response.code != RegistryProtocol.OK || response.args.length < 2) {
+            return null;
+        }
+        return new RegistryValue(valueName, response.args[0], response.args[1]);
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (CancellationException e) {
+            throw new IOException("请求已取消", e);
+        }
+    }
+}
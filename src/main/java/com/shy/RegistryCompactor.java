@@ -0,0 +1,177 @@
+package com.shy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * 检查点与日志压缩
+ *
+ * 脏标记：注册表按纪元划分修改，每次检查点开始时纪元加一。修改一个项之前（beforeChange）把该项及其各级祖先的
+ * 修改纪元记为当前纪元（遇到已是当前纪元的祖先即停止），修改纪元早于上一个快照纪元的子树与快照中的记录一致，
+ * 写新快照时直接复制字节（见 RegistrySnapshotWriter）。
+ *
+ * 后台线程（仅日志模式）定期检查触发条件：日志超过 registry.compact.journalBytes，
+ * 或距上次检查点超过 registry.compact.intervalMillis 且有新的日志；满足时在后台做一次检查点（Registry.checkpoint），
+ * 写完快照后删除已被上一代快照（registry.dat.bak）包含的日志段：回退到上一代快照时仍能重放此后的全部修改
+ */
+final class RegistryCompactor {
+
+    // 检查点失败后至少等待这么久再重试
+    private static final long FAILURE_BACKOFF_MILLIS = 30_000;
+
+    private final Registry registry;
+    private final long journalBytesTrigger;
+    private final long intervalMillis;
+
+    // 当前纪元，只在持有全部写锁时递增；修改方法持有所在项的写锁读取
+    private volatile long epoch = 1;
+    // 正在进行的检查点，修改前须保存修改前的内容
+    private volatile RegistryCheckpoint active;
+
+    // 以下由 Registry.checkpoint / refresh / 载入快照时访问（持有 Registry 的对象锁）
+    // 上一个快照，未修改的子树从中复制；没有映射它时为 null
+    private RegistrySnapshotMapping base;
+    private long baseEpoch = 1;
+    // 上一个快照包含的日志段之后的第一段（后台线程也会读取）
+    private volatile long baseSegment;
+    // 上一代快照需要的第一个日志段，更早的段可以删除
+    private long retainedSegment;
+    // 上次全部重新序列化时的字符串表大小；之后增量写出只追加字符串，超出太多时再全部重写一次，清掉不再使用的字符串
+    private int compactStringCount;
+
+    private volatile long lastCheckpointMillis = System.currentTimeMillis();
+    private Thread thread;
+
+    RegistryCompactor(Registry registry, long journalBytesTrigger, long intervalMillis) {
+        this.registry = registry;
+        this.journalBytesTrigger = journalBytesTrigger;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * key 即将被修改（须持有该项的写锁）：检查点进行中时先保存修改前的内容，再沿父项向上标记修改纪元
+     * 祖先的子项集合并未改变，保存它们只是为了让检查点读到它们修改纪元的旧值
+     */
+    void beforeChange(RegistryKey key) {
+        long current = epoch;
+        RegistryCheckpoint checkpoint = active;
+        for (RegistryKey k = key; k != null && k.modifiedEpoch() != current; k = k.getParent()) {
+            if (checkpoint != null) {
+                checkpoint.preserve(k);
+            }
+            k.setModifiedEpoch(current);
+        }
+    }
+
+    /**
+     * 开始一次检查点，须持有全部写锁：进入新纪元，记下此刻的顶级项集合
+     */
+    RegistryCheckpoint begin(Map<String, RegistryKey> topLevelKeys, long journalSegment) {
+        RegistryCheckpoint checkpoint = new RegistryCheckpoint(epoch + 1, journalSegment, topLevelKeys);
+        active = checkpoint;
+        epoch = checkpoint.epoch();
+        return checkpoint;
+    }
+
+    // 检查点结束（无论成功与否），之后的修改不再保存修改前的内容
+    void end() {
+        active = null;
+    }
+
+    // 本次可以作为增量基础的快照，为 null 时全部重新序列化
+    RegistrySnapshotMapping reusableBase() {
+        if (base == null || base.strings().length > 2L * compactStringCount + 1024) {
+            return null;
+        }
+        return base;
+    }
+
+    long baseEpoch() {
+        return baseEpoch;
+    }
+
+    long baseSegment() {
+        return baseSegment;
+    }
+
+    long retainedSegment() {
+        return retainedSegment;
+    }
+
+    /**
+     * 检查点写出的快照已就位，成为下次的增量基础（written 为 null 时没有增量基础）
+     */
+    void committed(RegistryCheckpoint checkpoint, RegistrySnapshotMapping written, RegistrySnapshotWriter writer) {
+        base = written;
+        baseEpoch = checkpoint.epoch();
+        writer.clearDirectModifications(checkpoint.epoch());
+        // 被替换的快照成为上一代快照
+        retainedSegment = baseSegment;
+        baseSegment = checkpoint.journalSegment();
+        if (!writer.isIncremental()) {
+            compactStringCount = writer.stringCount();
+        }
+        lastCheckpointMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 内容整体换成了快照中的内容（载入或刷新），各项的修改纪元都是 0
+     * 须持有全部写锁或尚未对外提供实例
+     * @param snapshot         该快照的映射，没有映射时为 null（下次检查点全部重新序列化）
+     * @param journalSegment   该快照记下的日志段号
+     * @param retainedSegment  上一代快照需要的第一个日志段，没有上一代快照时与 journalSegment 相同
+     */
+    void rebase(RegistrySnapshotMapping snapshot, long journalSegment, long retainedSegment) {
+        base = snapshot;
+        baseEpoch = epoch;
+        baseSegment = journalSegment;
+        this.retainedSegment = Math.min(retainedSegment, baseSegment);
+        compactStringCount = snapshot != null ? snapshot.strings().length : 0;
+    }
+
+    /**
+     * 启动后台线程（两个触发条件都关闭时不启动）
+     */
+    synchronized void start() {
+        if (thread != null || (journalBytesTrigger <= 0 && intervalMillis <= 0)) {
+            return;
+        }
+        thread = new Thread(this::run, "registry-compactor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        long poll = intervalMillis > 0 ? Math.min(1000, intervalMillis) : 1000;
+        while (true) {
+            try {
+                Thread.sleep(poll);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!isDue()) {
+                continue;
+            }
+            try {
+                registry.checkpoint();
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("后台检查点失败，稍后重试: " + e.getMessage());
+                try {
+                    Thread.sleep(FAILURE_BACKOFF_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean isDue() {
+        long journalBytes = registry.journalBytesSince(baseSegment);
+        if (journalBytes == 0) {
+            return false;
+        }
+        return (journalBytesTrigger > 0 && journalBytes >= journalBytesTrigger)
+                || (intervalMillis > 0 && System.currentTimeMillis() - lastCheckpointMillis >= intervalMillis);
+    }
+}
@@ -0,0 +1,165 @@
+package com.shy;
+
+/**
+ * 注册表运行参数
+ * 统一从系统属性读取（-Dregistry.xxx=...），未设置时使用默认值
+ */
+final class RegistryConfig {
+
+    // 持久化模式：snapshot（每次全量写快照）或 journal（追加写日志）
+    static final String PERSISTENCE = "registry.persistence";
+    // 日志刷盘策略：always / group / never
+    static final String JOURNAL_SYNC = "registry.journal.sync";
+    // 组提交的最长等待时间（毫秒）
+    static final String JOURNAL_GROUP_COMMIT_MILLIS = "registry.journal.groupCommitMillis";
+    // 日志模式下后台检查点的触发条件：日志总大小（字节）、距上次检查点的时间（毫秒），0 表示不按该条件触发
+    static final String COMPACT_JOURNAL_BYTES = "registry.compact.journalBytes";
+    static final String COMPACT_INTERVAL_MILLIS = "registry.compact.intervalMillis";
+    // 快照加载方式：eager（一次性读入）或 mapped（内存映射，按需加载子树；不映射时从读入堆内存的文件内容中按需解码）
+    static final String STORAGE = "registry.storage";
+    // 是否内存映射快照文件；Windows 上被映射的文件不能被改名覆盖或删除，默认改为读入堆内存
+    static final String SNAPSHOT_MMAP = "registry.snapshot.mmap";
+    // 每个顶级项的写锁分段数，0 表示所有顶级项共用一把写锁
+    static final String LOCK_STRIPES = "registry.lock.stripes";
+    // 变更通知的合并窗口（毫秒），窗口内的多次修改合并为一批投递
+    static final String WATCH_COALESCE_MILLIS = "registry.watch.coalesceMillis";
+    // 是否对名称、类型和较短的值去重
+    static final String INTERN = "registry.intern";
+    // 参与去重的值的最大长度
+    static final String INTERN_MAX_VALUE_LENGTH = "registry.intern.maxValueLength";
+    // 是否记录操作次数、延迟等运行指标
+    static final String METRICS = "registry.metrics";
+    // 开启指标时是否注册到 JMX
+    static final String METRICS_JMX = "registry.metrics.jmx";
+    // 导入 .reg 文件时每个事务包含的最大修改数
+    static final String IMPORT_BATCH_SIZE = "registry.import.batchSize";
+    // 导入 .reg 文件时每个事务编码后的最大字节数，不超过日志单条记录上限的一半
+    static final String IMPORT_BATCH_BYTES = "registry.import.batchBytes";
+    // 编辑器中修改后延迟保存的时间（毫秒），期间的多次修改合并为一次保存
+    static final String EDITOR_SAVE_DELAY_MILLIS = "registry.editor.saveDelayMillis";
+    // RegistryCache 默认缓存的最大键值数
+    static final String CACHE_SIZE = "registry.cache.size";
+    // 注册表服务监听的地址和端口，默认只接受本机连接
+    static final String SERVER_HOST = "registry.server.host";
+    static final String SERVER_PORT = "registry.server.port";
+    // 客户端缓存的最大键值数，0 表示不缓存
+    static final String CLIENT_CACHE_SIZE = "registry.client.cacheSize";
+
+    private RegistryConfig() {
+    }
+
+    // 是否启用日志持久化模式
+    static boolean isJournalEnabled() {
+        return "journal".equalsIgnoreCase(getString(PERSISTENCE, "snapshot"));
+    }
+
+    // 是否以内存映射方式按需加载快照
+    static boolean isMappedStorageEnabled() {
+        return "mapped".equalsIgnoreCase(getString(STORAGE, "eager"));
+    }
+
+    static boolean isSnapshotMmapEnabled() {
+        boolean windows = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+        return getBoolean(SNAPSHOT_MMAP, !windows);
+    }
+
+    static int getLockStripes() {
+        return (int) Math.max(0, Math.min(1024, getLong(LOCK_STRIPES, 16L)));
+    }
+
+    static long getWatchCoalesceMillis() {
+        return Math.max(0, getLong(WATCH_COALESCE_MILLIS, 50L));
+    }
+
+    static boolean isInternEnabled() {
+        return getBoolean(INTERN, true);
+    }
+
+    static int getInternMaxValueLength() {
+        return (int) Math.max(0, Math.min(4096, getLong(INTERN_MAX_VALUE_LENGTH, 32L)));
+    }
+
+    static boolean isMetricsEnabled() {
+        return getBoolean(METRICS, false);
+    }
+
+    static boolean isMetricsJmxEnabled() {
+        return getBoolean(METRICS_JMX, true);
+    }
+
+    static int getImportBatchSize() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, getLong(IMPORT_BATCH_SIZE, 50_000L)));
+    }
+
+    static long getImportBatchBytes() {
+        return Math.max(1, Math.min(RegistryJournal.MAX_RECORD_SIZE / 2, getLong(IMPORT_BATCH_BYTES, 16L * 1024 * 1024)));
+    }
+
+    static long getEditorSaveDelayMillis() {
+        return Math.max(0, getLong(EDITOR_SAVE_DELAY_MILLIS, 500L));
+    }
+
+    static int getCacheSize() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, getLong(CACHE_SIZE, 10_000L)));
+    }
+
+    static String getServerHost() {
+        return getString(SERVER_HOST, "127.0.0.1");
+    }
+
+    static int getServerPort() {
+        return (int) Math.max(0, Math.min(65535, getLong(SERVER_PORT, 7077L)));
+    }
+
+    static int getClientCacheSize() {
+        return (int) Math.max(0, Math.min(1 << 20, getLong(CLIENT_CACHE_SIZE, 1024L)));
+    }
+
+    static RegistryJournal.SyncPolicy getJournalSyncPolicy() {
+        String policy = getString(JOURNAL_SYNC, "group");
+        try {
+            return RegistryJournal.SyncPolicy.valueOf(policy.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("未知的日志刷盘策略: " + policy + "，使用 GROUP");
+            return RegistryJournal.SyncPolicy.GROUP;
+        }
+    }
+
+    static long getJournalGroupCommitMillis() {
+        return getLong(JOURNAL_GROUP_COMMIT_MILLIS, 10L);
+    }
+
+    static long getCompactJournalBytes() {
+        return Math.max(0, getLong(COMPACT_JOURNAL_BYTES, 64L * 1024 * 1024));
+    }
+
+    static long getCompactIntervalMillis() {
+        return Math.max(0, getLong(COMPACT_INTERVAL_MILLIS, 10 * 60 * 1000L));
+    }
+
+    static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    static long getLong(String name, long defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("参数 " + name + " 不是有效数字: " + value + "，使用默认值 " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+}
@@ -1,19 +1,16 @@
 package com.shy;
 
 import javax.swing.*;
-import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeCellRenderer;
-import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * 注册表可视化编辑器
@@ -22,18 +19,39 @@ import java.util.Stack;
 public class RegistryEditor extends JFrame {
     private Registry registry;
     private JTree registryTree;
-    private DefaultTreeModel treeModel;
+    private RegistryTreeModel treeModel;
     private JTable valuesTable;
-    private ValuesTableModel valuesTableModel;
+    private RegistryValuesTableModel valuesTableModel;
+    // 修改后的保存在后台线程上延迟、合并执行
+    private RegistrySaveScheduler saveScheduler;
+    // 查找对话框（第一次打开时创建）
+    private FindDialog findDialog;
+    // 状态栏：保存状态和后台任务进度
+    private JLabel statusLabel;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
+    // 导入、导出菜单项（后台任务进行中时禁用）
+    private final List<JMenuItem> backgroundTaskItems = new ArrayList<>();
+    // 正在执行的导入/导出任务，同一时间只有一个
+    private BackgroundTask currentTask;
 
     public RegistryEditor() {
         // 初始化注册表实例
         registry = Registry.getInstance();
+        saveScheduler = new RegistrySaveScheduler(registry, RegistryConfig.getEditorSaveDelayMillis(),
+                new SaveStatus());
 
         // 设置窗口基本属性
         setTitle("注册表编辑器");
         setSize(1024, 768);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // 关闭窗口前先保存尚未保存的修改
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                exitEditor();
+            }
+        });
         setLocationRelativeTo(null); // 居中显示
 
         // 初始化UI组件
@@ -54,9 +72,8 @@ public class RegistryEditor extends JFrame {
         JSplitPane mainSplitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
         mainSplitPane.setDividerLocation(300); // 设置初始分割位置
 
-        // 左侧：注册表项树
-        DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode("注册表");
-        treeModel = new DefaultTreeModel(rootNode);
+        // 左侧：注册表项树（节点直接是 RegistryKey，展开时才读取子项）
+        treeModel = new RegistryTreeModel(registry, "注册表");
         registryTree = new JTree(treeModel);
         registryTree.setCellRenderer(new RegistryTreeCellRenderer());
         registryTree.addTreeSelectionListener(e -> onTreeSelectionChanged());
@@ -77,11 +94,22 @@ public class RegistryEditor extends JFrame {
         mainSplitPane.setLeftComponent(treeScrollPane);
 
         // 右侧：键值对表格
-        valuesTableModel = new ValuesTableModel();
+        valuesTableModel = new RegistryValuesTableModel();
         valuesTable = new JTable(valuesTableModel);
         valuesTable.setAutoResizeMode(JTable.AUTO_RESIZE_ALL_COLUMNS);
         valuesTable.getTableHeader().setReorderingAllowed(false);
 
+        // 点击表头按该列排序（再次点击切换升序/降序），排序在模型中完成
+        valuesTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = valuesTable.columnAtPoint(e.getPoint());
+                if (column != -1 && SwingUtilities.isLeftMouseButton(e)) {
+                    sortValuesTable(valuesTable.convertColumnIndexToModel(column));
+                }
+            }
+        });
+
         // 为表格添加右键菜单（新增重命名键值）
         valuesTable.addMouseListener(new MouseAdapter() {
             @Override
@@ -113,6 +141,35 @@ public class RegistryEditor extends JFrame {
 
         // 添加主面板到窗口
         getContentPane().add(mainSplitPane);
+        getContentPane().add(createStatusBar(), BorderLayout.SOUTH);
+    }
+
+    /**
+     * 创建状态栏：左侧显示状态文字，右侧为后台任务的进度条和取消按钮（无任务时隐藏）
+     */
+    private JComponent createStatusBar() {
+        statusLabel = new JLabel(" ");
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        cancelButton = new JButton("取消");
+        cancelButton.setVisible(false);
+        cancelButton.addActionListener(e -> {
+            if (currentTask != null) {
+                currentTask.requestCancel();
+                cancelButton.setEnabled(false);
+            }
+        });
+
+        JPanel taskPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 4, 0));
+        taskPanel.add(progressBar);
+        taskPanel.add(cancelButton);
+
+        JPanel statusBar = new JPanel(new BorderLayout());
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 2));
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+        statusBar.add(taskPanel, BorderLayout.EAST);
+        return statusBar;
     }
 
     /**
@@ -136,13 +193,16 @@ public class RegistryEditor extends JFrame {
         // 新增“导入注册表”选项
         JMenuItem importItem = new JMenuItem("导入注册表");
         importItem.addActionListener(e -> importRegistry());
+        backgroundTaskItems.add(exportAllItem);
+        backgroundTaskItems.add(exportSelectedItem);
+        backgroundTaskItems.add(importItem);
 
         // 保存退出
         JMenuItem saveItem = new JMenuItem("保存");
-        saveItem.addActionListener(e -> saveRegistry());
+        saveItem.addActionListener(e -> saveScheduler.saveNow());
 
         JMenuItem exitItem = new JMenuItem("退出");
-        exitItem.addActionListener(e -> System.exit(0));
+        exitItem.addActionListener(e -> exitEditor());
 
         fileMenu.add(exportMenu);
         fileMenu.add(importItem); // 插入导入选项
@@ -162,10 +222,17 @@ public class RegistryEditor extends JFrame {
         JMenuItem deleteItem = new JMenuItem("删除");
         deleteItem.addActionListener(e -> deleteSelectedItem());
 
+        JMenuItem findItem = new JMenuItem("查找...");
+        findItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        findItem.addActionListener(e -> showFindDialog());
+
         editMenu.add(newKeyItem);
         editMenu.add(newValueItem);
         editMenu.addSeparator();
         editMenu.add(deleteItem);
+        editMenu.addSeparator();
+        editMenu.add(findItem);
 
         menuBar.add(fileMenu);
         menuBar.add(editMenu);
@@ -191,15 +258,14 @@ public class RegistryEditor extends JFrame {
                 return;
             }
 
-            DefaultMutableTreeNode selectedNode =
-                    (DefaultMutableTreeNode) selectionPath.getLastPathComponent();
+            Object selectedNode = selectionPath.getLastPathComponent();
 
-            if (!(selectedNode.getUserObject() instanceof RegistryKey)) {
+            if (!(selectedNode instanceof RegistryKey)) {
                 JOptionPane.showMessageDialog(this, "请选择有效的注册表项");
                 return;
             }
 
-            exportKey = (RegistryKey) selectedNode.getUserObject();
+            exportKey = (RegistryKey) selectedNode;
             defaultFileName = exportKey.getName() + "_backup.reg";
         }
 
@@ -240,136 +306,58 @@ public class RegistryEditor extends JFrame {
                 }
             }
 
-            try {
-                // 导出注册表内容到文件
-                exportRegistryToFile(fileToSave, exportAll, exportKey);
-
-                JOptionPane.showMessageDialog(this,
-                        "注册表已成功导出到:\n" + fileToSave.getAbsolutePath(),
-                        "导出成功", JOptionPane.INFORMATION_MESSAGE);
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this,
-                        "导出注册表失败: " + ex.getMessage(),
-                        "错误", JOptionPane.ERROR_MESSAGE);
-                ex.printStackTrace();
-            }
+            // 在后台线程导出注册表内容到文件
+            startBackgroundTask(new ExportTask(fileToSave, exportKey));
         }
     }
 
     /**
-     * 将注册表内容导出到文件（类似Windows的.reg格式）
+     * 后台导出：写出的字节数显示在状态栏，取消或失败时删除写了一半的文件
      */
-    private void exportRegistryToFile(File file, boolean exportAll, RegistryKey exportKey)
-            throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(
-                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_16LE))) {
-
-            // 写入REG文件头部
-            writer.write("DataOS Registry Editor Version 1.00");
-            writer.newLine();
-            writer.newLine();
-
-            if (exportAll) {
-                // 导出全部注册表
-                for (RegistryKey topKey : registry.getTopLevelKeys().values()) {
-                    exportRegistryKey(writer, topKey, topKey.getName());
-                }
-            } else {
-                // 导出选中的注册表项
-                String keyPath = getKeyPath(exportKey);
-                exportRegistryKey(writer, exportKey, keyPath);
-            }
-        }
-    }
+    private class ExportTask extends BackgroundTask {
+        private final File file;
+        private final RegistryKey exportKey;  // null 表示导出全部注册表
+        private final String exportPath;
 
-    /**
-     * 递归导出注册表项及其子项
-     */
-    private void exportRegistryKey(BufferedWriter writer, RegistryKey key, String fullPath)
-            throws IOException {
-        // 写入项路径
-        writer.write("[\"" + fullPath + "\"]");
-        writer.newLine();
-
-        // 写入键值对
-        for (RegistryValue value : key.getValues().values()) {
-            String valueStr;
-            switch (value.getType()) {
-                case "String":
-                case "Multi-String":
-                    valueStr = "\"" + escapeValue(value.getValue()) + "\"";
-                    break;
-                case "DWord":
-                    valueStr = "dword:" + value.getValue().toLowerCase();
-                    break;
-                case "QWord":
-                    valueStr = "hex(7):" + value.getValue().toLowerCase();
-                    break;
-                case "Binary":
-                    valueStr = "hex:" + value.getValue();
-                    break;
-                default:
-                    valueStr = "\"" + escapeValue(value.getValue()) + "\"";
-            }
-
-            // 处理默认值
-            if (value.getName().isEmpty() || value.getName().equals("@")) {
-                writer.write("@=" + valueStr);
-            } else {
-                writer.write("\"" + value.getName() + "\"=" + valueStr);
-            }
-            writer.newLine();
+        ExportTask(File file, RegistryKey exportKey) {
+            super("导出到 " + file.getName());
+            this.file = file;
+            this.exportKey = exportKey;
+            this.exportPath = exportKey != null ? exportKey.getFullPath() : null;
         }
 
-        writer.newLine();
-
-        // 递归导出子项
-        String childPath;
-        for (RegistryKey childKey : key.getSubKeys().values()) {
-            childPath = fullPath + "\\" + childKey.getName();
-            exportRegistryKey(writer, childKey, childPath);
-        }
-    }
-
-    /**
-     * 转义值中的特殊字符
-     */
-    private String escapeValue(String value) {
-        if (value == null) return "";
-        return value.replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
-    }
-
-    /**
-     * 获取注册表项的完整路径
-     */
-    private String getKeyPath(RegistryKey key) {
-        // 查找顶级节点
-        for (Map.Entry<String, RegistryKey> entry : registry.getTopLevelKeys().entrySet()) {
-            String path = findKeyPath(entry.getValue(), key, entry.getKey());
-            if (path != null) {
-                return path;
+        @Override
+        void work() throws IOException {
+            RegistryExporter.Progress progress = bytesWritten -> report(-1, "已写出 " + (bytesWritten >> 10) + " KB");
+            try {
+                if (exportKey == null) {
+                    // 导出全部注册表
+                    RegistryExporter.exportToFile(registry, file, progress);
+                } else {
+                    // 导出选中的注册表项
+                    RegistryExporter.exportToFile(file, exportKey, exportPath, progress);
+                }
+            } catch (IOException | RuntimeException e) {
+                file.delete();
+                throw e;
             }
         }
-        return key.getName();
-    }
 
-    /**
-     * 递归查找注册表项的完整路径
-     */
-    private String findKeyPath(RegistryKey currentKey, RegistryKey targetKey, String currentPath) {
-        if (currentKey == targetKey) {
-            return currentPath;
+        @Override
+        void succeeded() {
+            JOptionPane.showMessageDialog(RegistryEditor.this,
+                    "注册表已成功导出到:\n" + file.getAbsolutePath(),
+                    "导出成功", JOptionPane.INFORMATION_MESSAGE);
         }
 
-        for (RegistryKey childKey : currentKey.getSubKeys().values()) {
-            String path = findKeyPath(childKey, targetKey, currentPath + "\\" + childKey.getName());
-            if (path != null) {
-                return path;
-            }
+        @Override
+        void failed(Throwable cause) {
+            JOptionPane.showMessageDialog(RegistryEditor.this,
+                    "导出注册表失败: " + cause.getMessage(),
+                    "错误", JOptionPane.ERROR_MESSAGE);
         }
-
-        return null;
     }
+
     //----------------------------------备份与导出部分的代码----------------------------------------------
 
     //----------------------------------导入注册表代码----------------------------------------------
@@ -394,151 +382,48 @@ public class RegistryEditor extends JFrame {
 
         int userSelection = fileChooser.showOpenDialog(this);
         if (userSelection == JFileChooser.APPROVE_OPTION) {
-            File importFile = fileChooser.getSelectedFile();
-            try {
-                importRegistryFromFile(importFile);
-                JOptionPane.showMessageDialog(this,
-                        "注册表导入成功！\n文件：" + importFile.getAbsolutePath(),
-                        "导入成功", JOptionPane.INFORMATION_MESSAGE);
-                // 导入后刷新树结构
-                loadRegistryData();
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this,
-                        "导入失败：" + ex.getMessage(),
-                        "错误", JOptionPane.ERROR_MESSAGE);
-                ex.printStackTrace();
-            }
+            startBackgroundTask(new ImportTask(fileChooser.getSelectedFile()));
         }
     }
 
     /**
-     * 从 .reg 文件解析并导入注册表内容
-     * @throws IOException  文件读取错误
-     * @throws RegistryImportException  格式不兼容或解析错误
+     * 后台导入：按已读取的字节数显示进度。导入按批提交，取消或失败时已提交的批次保留，
+     * 因此结束后无论结果如何都刷新树并保存
      */
-    private void importRegistryFromFile(File file)
-            throws IOException, RegistryImportException {
-        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_16LE);
-        if (lines.isEmpty()) {
-            throw new RegistryImportException("空的 .reg 文件");
-        }
-
-        // 检查文件头部（兼容格式）
-        if (!lines.get(0).trim().equals("DataOS Registry Editor Version 1.00")) {
-            throw new RegistryImportException("不支持的 .reg 文件格式");
-        }
-
-        RegistryKey currentKey = null;
-        for (int i = 1; i < lines.size(); i++) {
-            String line = lines.get(i).trim();
-            if (line.isEmpty()) continue;
-
-            // 解析注册表项路径（如 ["HKEY_CURRENT_USER\\Software\\MyApp"]）
-            if (line.startsWith("[") && line.endsWith("]")) {
-                String path = line.substring(1, line.length() - 1)
-                        .replace("\"", "") // 处理 Windows 导出的带引号路径
-                        .replace("\\\\", "\\"); // 处理转义反斜杠
-                currentKey = resolveRegistryKey(path);
-                if (currentKey == null) {
-                    throw new RegistryImportException("无效的注册表路径：" + path);
-                }
-            }
-            // 解析键值对（如 "Name"="Value" 或 @="DefaultValue"）
-            else if (currentKey != null) {
-                String[] parts = line.split("=", 2);
-                if (parts.length != 2) {
-                    throw new RegistryImportException("无效的键值对格式：" + line);
-                }
-                String namePart = parts[0].trim().replace("\"", "");
-                String valuePart = parts[1].trim();
-
-                // 处理默认值（@ 符号）
-                String valueName = namePart.equals("@") ? "" : namePart;
-                // 解析值内容（自动识别类型）
-                RegistryValue value = parseRegistryValue(valuePart);
-                if (value != null) {
-                    // 若存在同名键值，覆盖；否则新增
-                    currentKey.getValues().put(valueName, value);
-                }
-            }
+    private class ImportTask extends BackgroundTask {
+        private final File file;
+
+        ImportTask(File file) {
+            super("导入 " + file.getName());
+            this.file = file;
         }
-        // 导入后保存当前注册表状态
-        saveRegistry();
-    }
 
-    /**
-     * 根据路径查找或创建注册表项（自动处理顶级节点匹配）
-     * @return  找到或创建的 RegistryKey，若路径无效返回 null
-     */
-    private RegistryKey resolveRegistryKey(String fullPath) {
-        // 分割路径（如 "HKEY_CURRENT_USER\\Software\\MyApp" -> 拆分多级）
-        String[] pathParts = fullPath.split("\\\\");
-        if (pathParts.length == 0) return null;
-
-        // 处理顶级节点（如 "HKEY_CURRENT_USER" 匹配 registry.topLevelKeys）
-        String topLevelName = pathParts[0];
-        RegistryKey topKey = registry.getTopLevelKeys().get(topLevelName);
-        if (topKey == null) {
-            // 若顶级节点不存在，自动创建（或根据需求调整为抛异常）
-            topKey = new RegistryKey(topLevelName);
-            registry.getTopLevelKeys().put(topLevelName, topKey);
-        }
-
-        // 递归创建/查找子项
-        RegistryKey current = topKey;
-        for (int i = 1; i < pathParts.length; i++) {
-            String part = pathParts[i];
-            RegistryKey child = current.getSubKeys().get(part);
-            if (child == null) {
-                child = new RegistryKey(part);
-                current.getSubKeys().put(part, child);
-            }
-            current = child;
+        @Override
+        void work() throws IOException, RegistryImporter.RegistryImportException {
+            RegistryImporter.importFile(registry, file, (lines, bytesRead, totalBytes) ->
+                    report(totalBytes > 0 ? (int) (bytesRead * 100 / totalBytes) : -1, "已处理 " + lines + " 行"));
         }
-        return current;
-    }
 
-    /**
-     * 解析 .reg 文件中的值内容，自动识别类型
-     * @return  RegistryValue 或 null（无效格式）
-     */
-    private RegistryValue parseRegistryValue(String valueStr) {
-        // 处理空值
-        if (valueStr.equals("\"\"")) {
-            return new RegistryValue("", "String", "");
-        }
-        // 处理带引号的字符串（如 "Hello\\World"）
-        if (valueStr.startsWith("\"") && valueStr.endsWith("\"")) {
-            String value = valueStr.substring(1, valueStr.length() - 1)
-                    .replace("\\\\", "\\")  // 恢复转义反斜杠
-                    .replace("\\n", "\n")   // 恢复换行符
-                    .replace("\\r", "\r");  // 恢复回车符
-            return new RegistryValue("", "String", value);
-        }
-        // 处理 DWord（如 dword:00000001）
-        if (valueStr.toLowerCase().startsWith("dword:")) {
-            String hex = valueStr.substring(6);
-            return new RegistryValue("", "DWord", hex);
-        }
-        // 处理 QWord（如 hex(7):00,00,00,00,00,00,00,01）
-        if (valueStr.toLowerCase().startsWith("hex(7):")) {
-            String hex = valueStr.substring(6).replace(",", "");
-            return new RegistryValue("", "QWord", hex);
-        }
-        // 处理 Binary（如 hex:00,01,02）
-        if (valueStr.toLowerCase().startsWith("hex:")) {
-            String hex = valueStr.substring(4).replace(",", "");
-            return new RegistryValue("", "Binary", hex);
-        }
-        // 处理 Multi-String（如 "Value1\0Value2\0" 或 hex(7):00,01...）
-        // （简化处理：这里默认按 String 类型，实际可扩展自动识别）
-        return new RegistryValue("", "String", valueStr.replace("\"", ""));
-    }
+        @Override
+        void finished() {
+            // 导入后刷新树结构和当前选中项的键值，并保存当前注册表状态
+            loadRegistryData();
+            onTreeSelectionChanged();
+            saveRegistry();
+        }
 
-    // 自定义异常：导入失败时抛出
-    private static class RegistryImportException extends Exception {
-        public RegistryImportException(String message) {
-            super(message);
+        @Override
+        void succeeded() {
+            JOptionPane.showMessageDialog(RegistryEditor.this,
+                    "注册表导入成功！\n文件：" + file.getAbsolutePath(),
+                    "导入成功", JOptionPane.INFORMATION_MESSAGE);
+        }
+
+        @Override
+        void failed(Throwable cause) {
+            JOptionPane.showMessageDialog(RegistryEditor.this,
+                    "导入失败：" + cause.getMessage(),
+                    "错误", JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -548,35 +433,15 @@ public class RegistryEditor extends JFrame {
 
     /**
      * 从注册表加载数据到树中
+     * 只刷新已展开过的节点，未展开的子树在展开时才读取
      */
     private void loadRegistryData() {
-        DefaultMutableTreeNode rootNode = (DefaultMutableTreeNode) treeModel.getRoot();
-        rootNode.removeAllChildren();
-
-        // 添加顶级节点
-        for (RegistryKey topKey : registry.getTopLevelKeys().values()) {
-            DefaultMutableTreeNode topNode = new DefaultMutableTreeNode(topKey);
-            rootNode.add(topNode);
-            // 递归添加子节点
-            loadSubKeys(topKey, topNode);
-        }
-
-        treeModel.reload();
+        treeModel.refreshLoaded();
 
         // 展开所有顶级节点
-        for (int i = 0; i < rootNode.getChildCount(); i++) {
-            registryTree.expandRow(i + 1); // +1 因为根节点是隐藏的
-        }
-    }
-
-    /**
-     * 递归加载子项
-     */
-    private void loadSubKeys(RegistryKey parentKey, DefaultMutableTreeNode parentNode) {
-        for (RegistryKey subKey : parentKey.getSubKeys().values()) {
-            DefaultMutableTreeNode subNode = new DefaultMutableTreeNode(subKey);
-            parentNode.add(subNode);
-            loadSubKeys(subKey, subNode); // 递归加载子项
+        Object root = treeModel.getRoot();
+        for (int i = 0; i < treeModel.getChildCount(root); i++) {
+            registryTree.expandPath(treeModel.pathTo((RegistryKey) treeModel.getChild(root, i)));
         }
     }
 
@@ -590,10 +455,7 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        DefaultMutableTreeNode selectedNode =
-            (DefaultMutableTreeNode) selectionPath.getLastPathComponent();
-
-        Object userObject = selectedNode.getUserObject();
+        Object userObject = selectionPath.getLastPathComponent();
         if (userObject instanceof RegistryKey) {
             RegistryKey selectedKey = (RegistryKey) userObject;
             updateValuesTable(selectedKey);
@@ -607,6 +469,36 @@ public class RegistryEditor extends JFrame {
         valuesTableModel.setValues(key.getValues());
     }
 
+    /**
+     * 更新表格并重新选中名为 valueName 的键值（排序后其所在行可能变化）
+     */
+    private void updateValuesTable(RegistryKey key, String valueName) {
+        updateValuesTable(key);
+        int row = valuesTableModel.indexOf(valueName);
+        if (row != -1) {
+            valuesTable.setRowSelectionInterval(row, row);
+            valuesTable.scrollRectToVisible(valuesTable.getCellRect(row, 0, true));
+        }
+    }
+
+    /**
+     * 按模型的 column 列排序，并更新各列表头上的排序标记
+     */
+    private void sortValuesTable(int column) {
+        int selectedRow = valuesTable.getSelectedRow();
+        String selectedName = selectedRow != -1 ? valuesTableModel.getRow(selectedRow).getName() : null;
+        valuesTableModel.sortBy(column);
+        for (int i = 0; i < valuesTable.getColumnCount(); i++) {
+            valuesTable.getColumnModel().getColumn(i)
+                    .setHeaderValue(valuesTableModel.getColumnName(valuesTable.convertColumnIndexToModel(i)));
+        }
+        valuesTable.getTableHeader().repaint();
+        if (selectedName != null) {
+            int row = valuesTableModel.indexOf(selectedName);
+            valuesTable.setRowSelectionInterval(row, row);
+        }
+    }
+
     /**
      * 显示树的右键菜单
      */
@@ -670,17 +562,16 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        DefaultMutableTreeNode selectedNode =
-                (DefaultMutableTreeNode) selectionPath.getLastPathComponent();
+        Object selectedNode = selectionPath.getLastPathComponent();
 
-        if (!(selectedNode.getUserObject() instanceof RegistryKey)) {
+        if (!(selectedNode instanceof RegistryKey)) {
             JOptionPane.showMessageDialog(this, "请选择有效的注册表项");
             return;
         }
 
-        RegistryKey selectedKey = (RegistryKey) selectedNode.getUserObject();
+        RegistryKey selectedKey = (RegistryKey) selectedNode;
         String oldName = selectedKey.getName();
-        RegistryKey parentKey = getParentRegistryKey(selectedNode);
+        RegistryKey parentKey = selectedKey.getParent();
 
         // 弹出对话框输入新名称
         String newName = (String) JOptionPane.showInputDialog(this, "输入新名称:", "重命名项",
@@ -696,37 +587,20 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        // 1. 从父项的 subKeys 中移除旧名称的项
-        if (parentKey != null) {
-            parentKey.getSubKeys().remove(oldName); // 移除旧键
-        }
-
-        // 2. 修改当前 RegistryKey 的名称
-        selectedKey.setName(newName);
-
-        // 3. 以新名称为键，重新添加到父项的 subKeys
-        if (parentKey != null) {
-            parentKey.getSubKeys().put(newName, selectedKey); // 新增新键
+        // 1. 通过注册表重命名（从父项移除旧名称、改名、按新名称挂回父项）
+        if (!registry.renameKey(selectedKey.getFullPath(), newName)) {
+            JOptionPane.showMessageDialog(this, "顶级项不能重命名");
+            return;
         }
 
-        // 4. 更新树节点显示（修改 UserObject 并触发刷新）
-        selectedNode.setUserObject(selectedKey);
-        treeModel.nodeChanged(selectedNode);
+        // 2. 更新树（按新名称重新排序，选中改名后的项）
+        treeModel.refresh(parentKey);
+        registryTree.setSelectionPath(treeModel.pathTo(selectedKey));
 
-        // 5. 保存注册表
+        // 3. 保存注册表
         saveRegistry();
     }
 
-    /**
-     * 获取选中节点的父 RegistryKey（辅助重命名逻辑）
-     */
-    private RegistryKey getParentRegistryKey(DefaultMutableTreeNode node) {
-        DefaultMutableTreeNode parentNode = (DefaultMutableTreeNode) node.getParent();
-        if (parentNode == null) return null;
-
-        Object parentObj = parentNode.getUserObject();
-        return parentObj instanceof RegistryKey ? (RegistryKey) parentObj : null;
-    }
 
 
 
@@ -740,16 +614,15 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        DefaultMutableTreeNode selectedNode =
-                (DefaultMutableTreeNode) selectionPath.getLastPathComponent();
+        Object selectedNode = selectionPath.getLastPathComponent();
 
-        if (!(selectedNode.getUserObject() instanceof RegistryKey)) {
+        if (!(selectedNode instanceof RegistryKey)) {
             JOptionPane.showMessageDialog(this, "请选择有效的注册表项");
             return;
         }
 
-        RegistryKey selectedKey = (RegistryKey) selectedNode.getUserObject();
-        String oldValueName = (String) valuesTableModel.getValueAt(row, 0);
+        RegistryKey selectedKey = (RegistryKey) selectedNode;
+        String oldValueName = valuesTableModel.getRow(row).getName();
         RegistryValue oldValue = selectedKey.getValue(oldValueName);
 
         if (oldValue == null) {
@@ -771,19 +644,13 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        // 1. 删除旧键值
-        selectedKey.removeValue(oldValueName);
-
-        // 2. 创建新名称的键值（保留类型和值）
-        RegistryValue newValue = new RegistryValue(
-                newValueName, oldValue.getType(), oldValue.getValue()
-        );
-        selectedKey.addValue(newValue);
+        // 1. 删除旧键值并以新名称创建（保留类型和值）
+        registry.renameValue(getKeyPathFromNode(selectedNode), oldValueName, newValueName);
 
-        // 3. 更新表格显示
-        updateValuesTable(selectedKey);
+        // 2. 更新表格显示
+        updateValuesTable(selectedKey, newValueName);
 
-        // 4. 保存注册表
+        // 3. 保存注册表
         saveRegistry();
     }
 
@@ -801,10 +668,9 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        DefaultMutableTreeNode parentNode =
-            (DefaultMutableTreeNode) selectionPath.getLastPathComponent();
+        Object parentNode = selectionPath.getLastPathComponent();
 
-        if (!(parentNode.getUserObject() instanceof RegistryKey)) {
+        if (!(parentNode instanceof RegistryKey)) {
             JOptionPane.showMessageDialog(this, "请选择一个有效的父项");
             return;
         }
@@ -814,7 +680,7 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        RegistryKey parentKey = (RegistryKey) parentNode.getUserObject();
+        RegistryKey parentKey = (RegistryKey) parentNode;
 
         // 检查是否已存在同名项
         if (parentKey.getSubKey(keyName) != null) {
@@ -823,16 +689,15 @@ public class RegistryEditor extends JFrame {
         }
 
         // 创建新项
-        RegistryKey newKey = new RegistryKey(keyName);
-        parentKey.addSubKey(newKey);
+        registry.createKey(parentKey.getFullPath() + "\\" + keyName);
+        RegistryKey newKey = parentKey.getSubKey(keyName);
 
         // 更新树
-        DefaultMutableTreeNode newNode = new DefaultMutableTreeNode(newKey);
-        treeModel.insertNodeInto(newNode, parentNode, parentNode.getChildCount());
+        treeModel.refresh(parentKey);
 
         // 展开父节点并选中新节点
         registryTree.expandPath(selectionPath);
-        registryTree.setSelectionPath(new TreePath(newNode.getPath()));
+        registryTree.setSelectionPath(selectionPath.pathByAddingChild(newKey));
 
         // 保存注册表
         saveRegistry();
@@ -848,15 +713,14 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        DefaultMutableTreeNode selectedNode =
-            (DefaultMutableTreeNode) selectionPath.getLastPathComponent();
+        Object selectedNode = selectionPath.getLastPathComponent();
 
-        if (!(selectedNode.getUserObject() instanceof RegistryKey)) {
+        if (!(selectedNode instanceof RegistryKey)) {
             JOptionPane.showMessageDialog(this, "请选择一个有效的注册表项");
             return;
         }
 
-        RegistryKey selectedKey = (RegistryKey) selectedNode.getUserObject();
+        RegistryKey selectedKey = (RegistryKey) selectedNode;
 
         // 获取键名
         String valueName = JOptionPane.showInputDialog(this, "请输入键名:");
@@ -888,10 +752,10 @@ public class RegistryEditor extends JFrame {
         }
 
         // 创建新键值对
-        selectedKey.addValue(new RegistryValue(valueName, valueType, valueData));
+        registry.setValue(getKeyPathFromNode(selectedNode), valueName, valueType, valueData);
 
         // 更新表格
-        updateValuesTable(selectedKey);
+        updateValuesTable(selectedKey, valueName);
 
         // 保存注册表
         saveRegistry();
@@ -902,9 +766,7 @@ public class RegistryEditor extends JFrame {
      * 编辑选中的键值对
      */
     private void editSelectedValue(int row) {
-        String valueName = (String) valuesTableModel.getValueAt(row, 0);
-        String currentType = (String) valuesTableModel.getValueAt(row, 1);
-        String currentValue = (String) valuesTableModel.getValueAt(row, 2);
+        String valueName = valuesTableModel.getRow(row).getName();
 
         // 获取选中的注册表项
         TreePath selectionPath = registryTree.getSelectionPath();
@@ -912,14 +774,13 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        DefaultMutableTreeNode selectedNode =
-            (DefaultMutableTreeNode) selectionPath.getLastPathComponent();
+        Object selectedNode = selectionPath.getLastPathComponent();
 
-        if (!(selectedNode.getUserObject() instanceof RegistryKey)) {
+        if (!(selectedNode instanceof RegistryKey)) {
             return;
         }
 
-        RegistryKey selectedKey = (RegistryKey) selectedNode.getUserObject();
+        RegistryKey selectedKey = (RegistryKey) selectedNode;
         RegistryValue value = selectedKey.getValue(valueName);
 
         if (value == null) {
@@ -928,11 +789,11 @@ public class RegistryEditor extends JFrame {
 
         // 显示编辑对话框
         String newValue = JOptionPane.showInputDialog(
-            this, "编辑 " + valueName + " 的值:", currentValue);
+            this, "编辑 " + valueName + " 的值:", value.getValue());
 
         if (newValue != null) {
-            value.setValue(newValue);
-            updateValuesTable(selectedKey);
+            registry.setValue(getKeyPathFromNode(selectedNode), valueName, value.getType(), newValue);
+            updateValuesTable(selectedKey, valueName);
             saveRegistry();
         }
     }
@@ -949,24 +810,26 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        DefaultMutableTreeNode selectedNode =
-            (DefaultMutableTreeNode) selectionPath.getLastPathComponent();
+        Object selectedNode = selectionPath.getLastPathComponent();
 
-        if (selectedNode.getUserObject() instanceof RegistryKey) {
+        if (selectedNode instanceof RegistryKey) {
             // 删除注册表项
             int confirm = JOptionPane.showConfirmDialog(
                 this, "确定要删除这项及其所有子项吗?",
                 "确认删除", JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
-                RegistryKey keyToDelete = (RegistryKey) selectedNode.getUserObject();
-                String keyPath = getKeyPathFromNode(selectedNode);
+                RegistryKey keyToDelete = (RegistryKey) selectedNode;
+                RegistryKey parentKey = keyToDelete.getParent();
 
                 // 从注册表中删除
-                registry.deleteKey(keyPath);
+                if (!registry.deleteKey(keyToDelete.getFullPath())) {
+                    JOptionPane.showMessageDialog(this, "顶级项不能删除");
+                    return;
+                }
 
                 // 从树中删除
-                treeModel.removeNodeFromParent(selectedNode);
+                treeModel.refresh(parentKey);
 
                 // 清空表格
                 valuesTableModel.clear();
@@ -986,19 +849,18 @@ public class RegistryEditor extends JFrame {
             return;
         }
 
-        DefaultMutableTreeNode selectedNode =
-                (DefaultMutableTreeNode) selectionPath.getLastPathComponent();
+        Object selectedNode = selectionPath.getLastPathComponent();
 
-        if (!(selectedNode.getUserObject() instanceof RegistryKey)) {
+        if (!(selectedNode instanceof RegistryKey)) {
             JOptionPane.showMessageDialog(this, "请选择有效的注册表项");
             return;
         }
 
-        RegistryKey selectedKey = (RegistryKey) selectedNode.getUserObject();
-        String valueName = (String) valuesTableModel.getValueAt(row, 0);
+        RegistryKey selectedKey = (RegistryKey) selectedNode;
+        String valueName = valuesTableModel.getRow(row).getName();
 
         // 删除键值
-        selectedKey.removeValue(valueName);
+        registry.deleteValue(getKeyPathFromNode(selectedNode), valueName);
         updateValuesTable(selectedKey);
         saveRegistry();
     }
@@ -1007,128 +869,328 @@ public class RegistryEditor extends JFrame {
     /**
      * 获取注册表项的完整路径
      */
-    private String getKeyPathFromNode(DefaultMutableTreeNode node) {
-        StringBuilder path = new StringBuilder();
-        TreePath treePath = new TreePath(node.getPath());
-        Object[] pathComponents = treePath.getPath();
-
-        // 跳过根节点("注册表")
-        for (int i = 1; i < pathComponents.length; i++) {
-            DefaultMutableTreeNode componentNode = (DefaultMutableTreeNode) pathComponents[i];
-            RegistryKey key = (RegistryKey) componentNode.getUserObject();
-
-            if (i > 1) {
-                path.append("\\");
-            }
-            path.append(key.getName());
-        }
-
-        return path.toString();
+    private String getKeyPathFromNode(Object node) {
+        // 根节点("注册表")不对应任何注册表项
+        return node instanceof RegistryKey ? ((RegistryKey) node).getFullPath() : "";
     }
 
     /**
-     * 保存注册表到文件
+     * 保存注册表到文件（日志模式下只需把日志刷到磁盘）
+     * 在后台线程上延迟执行，连续的多次修改只保存一次
      */
     private void saveRegistry() {
-        try {
-            registry.saveToFile();
+        saveScheduler.requestSave();
+    }
+
+    /**
+     * 保存状态显示在状态栏，失败时弹出提示；回调来自保存线程，转到事件分发线程处理
+     */
+    private class SaveStatus implements RegistrySaveScheduler.Listener {
+        @Override
+        public void saving() {
+            SwingUtilities.invokeLater(() -> statusLabel.setText("正在保存..."));
+        }
+
+        @Override
+        public void saved() {
             System.out.println("注册表已保存");
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(
-                this, "保存注册表失败: " + e.getMessage(),
-                "错误", JOptionPane.ERROR_MESSAGE);
+            SwingUtilities.invokeLater(() -> statusLabel.setText("注册表已保存"));
+        }
+
+        @Override
+        public void failed(IOException e) {
             e.printStackTrace();
+            SwingUtilities.invokeLater(() -> {
+                statusLabel.setText("保存失败");
+                JOptionPane.showMessageDialog(
+                    RegistryEditor.this, "保存注册表失败: " + e.getMessage(),
+                    "错误", JOptionPane.ERROR_MESSAGE);
+            });
         }
     }
 
     /**
-     * 注册表树的单元格渲染器
+     * 退出编辑器：先保存尚未保存的修改（进行中的导入会在下一次进度检查时放弃未提交的一批）
      */
-    private class RegistryTreeCellRenderer extends DefaultTreeCellRenderer {
-        @Override
-        public Component getTreeCellRendererComponent(JTree tree, Object value,
-                                                      boolean selected, boolean expanded,
-                                                      boolean leaf, int row, boolean hasFocus) {
-            super.getTreeCellRendererComponent(tree, value, selected, expanded,
-                                              leaf, row, hasFocus);
+    private void exitEditor() {
+        if (currentTask != null) {
+            int confirm = JOptionPane.showConfirmDialog(this,
+                    "后台任务仍在进行，确定要退出吗？", "确认退出", JOptionPane.YES_NO_OPTION);
+            if (confirm != JOptionPane.YES_OPTION) {
+                return;
+            }
+            currentTask.requestCancel();
+        }
+        try {
+            if (!saveScheduler.close(30_000)) {
+                System.err.println("保存注册表超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.exit(0);
+    }
 
-            DefaultMutableTreeNode node = (DefaultMutableTreeNode) value;
-            Object userObject = node.getUserObject();
+    //----------------------------------查找部分的代码----------------------------------------------
 
-            // 设置节点显示文本为注册表项名称
-            if (userObject instanceof RegistryKey) {
-                setText(((RegistryKey) userObject).getName());
-            }
+    private void showFindDialog() {
+        if (findDialog == null) {
+            findDialog = new FindDialog();
+        }
+        findDialog.setVisible(true);
+        findDialog.queryField.requestFocusInWindow();
+        findDialog.queryField.selectAll();
+    }
 
-            return this;
+    /**
+     * 在树中选中 hit 所在的注册表项，匹配的是键值时再选中表格中的对应行
+     */
+    private void revealSearchHit(RegistrySearchHit hit) {
+        RegistryKey key = registry.getKeyByPath(hit.getKeyPath());
+        if (key == null) {
+            JOptionPane.showMessageDialog(this, "该项已不存在：" + hit.getKeyPath());
+            return;
+        }
+        TreePath path = treeModel.pathTo(key);
+        registryTree.setSelectionPath(path);
+        registryTree.scrollPathToVisible(path);
+        if (hit.getValueName() != null) {
+            int row = valuesTableModel.indexOf(hit.getValueName());
+            if (row != -1) {
+                valuesTable.setRowSelectionInterval(row, row);
+                valuesTable.scrollRectToVisible(valuesTable.getCellRect(row, 0, true));
+            }
         }
     }
 
     /**
-     * 键值对表格的数据模型
+     * 查找对话框：在项名称、键值名称和数据中查找（Registry.search），双击或回车定位到结果
+     * 第一次查找需要建立索引，放在后台线程执行
      */
-    private class ValuesTableModel extends javax.swing.table.AbstractTableModel {
-        private String[] columnNames = {"名称", "类型", "数据"};
-        private Object[][] data;
+    private class FindDialog extends JDialog {
+        private static final int MAX_RESULTS = 1000;
+
+        final JTextField queryField = new JTextField(30);
+        private final JButton findButton = new JButton("查找");
+        private final DefaultListModel<RegistrySearchHit> results = new DefaultListModel<>();
+        private final JList<RegistrySearchHit> resultList = new JList<>(results);
+        private final JLabel summary = new JLabel(" ");
+
+        FindDialog() {
+            super(RegistryEditor.this, "查找", false);
+
+            JPanel queryPanel = new JPanel(new BorderLayout(4, 0));
+            queryPanel.add(new JLabel("查找内容:"), BorderLayout.WEST);
+            queryPanel.add(queryField, BorderLayout.CENTER);
+            queryPanel.add(findButton, BorderLayout.EAST);
+            queryField.addActionListener(e -> find());
+            findButton.addActionListener(e -> find());
+
+            resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            resultList.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2 && resultList.getSelectedValue() != null) {
+                        revealSearchHit(resultList.getSelectedValue());
+                    }
+                }
+            });
+            resultList.addKeyListener(new KeyAdapter() {
+                @Override
+                public void keyPressed(KeyEvent e) {
+                    if (e.getKeyCode() == KeyEvent.VK_ENTER && resultList.getSelectedValue() != null) {
+                        revealSearchHit(resultList.getSelectedValue());
+                    }
+                }
+            });
 
-        public ValuesTableModel() {
-            data = new Object[0][3];
+            JPanel content = new JPanel(new BorderLayout(0, 6));
+            content.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+            content.add(queryPanel, BorderLayout.NORTH);
+            content.add(new JScrollPane(resultList), BorderLayout.CENTER);
+            content.add(summary, BorderLayout.SOUTH);
+            setContentPane(content);
+            setSize(600, 400);
+            setLocationRelativeTo(RegistryEditor.this);
         }
 
-        @Override
-        public int getColumnCount() {
-            return columnNames.length;
+        private void find() {
+            String query = queryField.getText().trim();
+            if (query.isEmpty()) {
+                return;
+            }
+            findButton.setEnabled(false);
+            summary.setText("正在查找...");
+            new SwingWorker<List<RegistrySearchHit>, Void>() {
+                private long elapsedMillis;
+
+                @Override
+                protected List<RegistrySearchHit> doInBackground() {
+                    long start = System.nanoTime();
+                    List<RegistrySearchHit> hits = registry.search(query, MAX_RESULTS);
+                    elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                    return hits;
+                }
+
+                @Override
+                protected void done() {
+                    findButton.setEnabled(true);
+                    results.clear();
+                    try {
+                        List<RegistrySearchHit> hits = get();
+                        for (RegistrySearchHit hit : hits) {
+                            results.addElement(hit);
+                        }
+                        summary.setText((hits.size() >= MAX_RESULTS ? "前 " : "共 ") + hits.size()
+                                + " 条结果，用时 " + elapsedMillis + " 毫秒");
+                        if (!hits.isEmpty()) {
+                            resultList.setSelectedIndex(0);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        summary.setText("查找失败: " + e.getCause().getMessage());
+                    }
+                }
+            }.execute();
         }
+    }
 
-        @Override
-        public int getRowCount() {
-            return data.length;
+    //----------------------------------查找部分的代码----------------------------------------------
+
+    //----------------------------------后台任务的代码----------------------------------------------
+
+    private void startBackgroundTask(BackgroundTask task) {
+        if (currentTask != null) {
+            JOptionPane.showMessageDialog(this, "请等待当前的导入/导出完成");
+            return;
         }
+        currentTask = task;
+        for (JMenuItem item : backgroundTaskItems) {
+            item.setEnabled(false);
+        }
+        statusLabel.setText(task.description + "...");
+        progressBar.setIndeterminate(true);
+        progressBar.setString("");
+        progressBar.setVisible(true);
+        cancelButton.setEnabled(true);
+        cancelButton.setVisible(true);
+        task.execute();
+    }
 
-        @Override
-        public String getColumnName(int col) {
-            return columnNames[col];
+    private void finishBackgroundTask() {
+        currentTask = null;
+        for (JMenuItem item : backgroundTaskItems) {
+            item.setEnabled(true);
         }
+        progressBar.setVisible(false);
+        cancelButton.setVisible(false);
+    }
 
-        @Override
-        public Object getValueAt(int row, int col) {
-            return data[row][col];
+    /**
+     * 在后台线程上执行的导入/导出，进度显示在状态栏
+     *
+     * 取消只设置标记，由任务在下一次进度回调时抛出 CancellationException 自行结束；
+     * 不使用 SwingWorker.cancel，因为它会在后台线程仍在运行时就调用 done，
+     * 也不中断线程，以免中断正在写日志的 FileChannel
+     */
+    private abstract class BackgroundTask extends SwingWorker<Void, String> {
+        final String description;
+        private volatile boolean cancelRequested;
+
+        BackgroundTask(String description) {
+            this.description = description;
+            // 进度变化在事件分发线程上通知
+            addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName())) {
+                    progressBar.setIndeterminate(false);
+                    progressBar.setValue((Integer) e.getNewValue());
+                }
+            });
         }
 
-        @Override
-        public boolean isCellEditable(int row, int col) {
-            return false; // 单元格不可直接编辑，通过双击触发编辑对话框
+        // 在后台线程上执行
+        abstract void work() throws Exception;
+
+        // 以下在事件分发线程上执行：finished 总会调用，随后按结果调用其余之一
+        void finished() {
+        }
+
+        abstract void succeeded();
+
+        abstract void failed(Throwable cause);
+
+        void requestCancel() {
+            cancelRequested = true;
         }
 
         /**
-         * 设置表格数据
+         * 由后台线程的进度回调调用
+         * @param percent  完成百分比，未知时为 -1
+         * @throws CancellationException  已请求取消
          */
-        public void setValues(Map<String, RegistryValue> values) {
-            if (values == null || values.isEmpty()) {
-                data = new Object[0][3];
-                fireTableDataChanged();
-                return;
+        void report(int percent, String text) {
+            if (cancelRequested) {
+                throw new CancellationException();
+            }
+            if (percent >= 0) {
+                setProgress(Math.min(100, percent));
             }
+            publish(text);
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            work();
+            return null;
+        }
 
-            data = new Object[values.size()][3];
-            int row = 0;
+        @Override
+        protected void process(List<String> texts) {
+            progressBar.setString(texts.get(texts.size() - 1));
+        }
 
-            for (RegistryValue value : values.values()) {
-                data[row][0] = value.getName();
-                data[row][1] = value.getType();
-                data[row][2] = value.getValue();
-                row++;
+        @Override
+        protected void done() {
+            finishBackgroundTask();
+            finished();
+            try {
+                get();
+                statusLabel.setText(description + " 已完成");
+                succeeded();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException) {
+                    statusLabel.setText(description + " 已取消");
+                } else {
+                    statusLabel.setText(description + " 失败");
+                    e.getCause().printStackTrace();
+                    failed(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-
-            fireTableDataChanged();
         }
+    }
 
-        /**
-         * 清空表格数据
-         */
-        public void clear() {
-            data = new Object[0][3];
-            fireTableDataChanged();
+    //----------------------------------后台任务的代码----------------------------------------------
+
+    /**
+     * 注册表树的单元格渲染器
+     */
+    private class RegistryTreeCellRenderer extends DefaultTreeCellRenderer {
+        @Override
+        public Component getTreeCellRendererComponent(JTree tree, Object value,
+                                                      boolean selected, boolean expanded,
+                                                      boolean leaf, int row, boolean hasFocus) {
+            super.getTreeCellRendererComponent(tree, value, selected, expanded,
+                                              leaf, row, hasFocus);
+
+            // 设置节点显示文本为注册表项名称
+            if (value instanceof RegistryKey) {
+                setText(((RegistryKey) value).getName());
+            }
+
+            return this;
         }
     }
 
@@ -0,0 +1,88 @@
+package com.shy;
+
+/**
+ * 注册表变更事件
+ */
+public final class RegistryEvent {
+
+    /**
+     * 事件类型
+     */
+    public enum Type {
+        KEY_CREATED,
+        KEY_DELETED,
+        KEY_RENAMED,
+        VALUE_SET,
+        VALUE_DELETED,
+        VALUE_RENAMED
+    }
+
+    private final Type type;
+    private final String keyPath;
+    private final String valueName;
+    private final String newName;
+
+    RegistryEvent(Type type, String keyPath, String valueName, String newName) {
+        this.type = type;
+        this.keyPath = keyPath;
+        this.valueName = valueName;
+        this.newName = newName;
+    }
+
+    // 由日志操作码构造事件，未知操作返回 null
+    static RegistryEvent of(byte op, String[] args) {
+        String keyPath = RegistryPath.trimTrailingSeparators(args[0]);
+        switch (op) {
+            case RegistryJournal.CREATE_KEY:
+                return new RegistryEvent(Type.KEY_CREATED, keyPath, null, null);
+            case RegistryJournal.SET_VALUE:
+                return new RegistryEvent(Type.VALUE_SET, keyPath, args[1], null);
+            case RegistryJournal.DELETE_VALUE:
+                return new RegistryEvent(Type.VALUE_DELETED, keyPath, args[1], null);
+            case RegistryJournal.DELETE_KEY:
+                return new RegistryEvent(Type.KEY_DELETED, keyPath, null, null);
+            case RegistryJournal.RENAME_KEY:
+                return new RegistryEvent(Type.KEY_RENAMED, keyPath, null, args[1]);
+            case RegistryJournal.RENAME_VALUE:
+                return new RegistryEvent(Type.VALUE_RENAMED, keyPath, args[1], args[2]);
+            default:
+                return null;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    // 发生变化的注册表项路径（重命名时为旧路径）
+    public String getKeyPath() {
+        return keyPath;
+    }
+
+    // 键值名称，注册表项事件为 null
+    public String getValueName() {
+        return valueName;
+    }
+
+    // 重命名后的名称，其他事件为 null
+    public String getNewName() {
+        return newName;
+    }
+
+    // 是否为注册表项本身的事件（创建/删除/重命名）
+    boolean isKeyEvent() {
+        return valueName == null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(type.name()).append(' ').append(keyPath);
+        if (valueName != null) {
+            text.append(" [").append(valueName).append(']');
+        }
+        if (newName != null) {
+            text.append(" -> ").append(newName);
+        }
+        return text.toString();
+    }
+}
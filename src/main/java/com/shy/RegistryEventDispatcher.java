@@ -0,0 +1,110 @@
+package com.shy;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 变更通知分发
+ * 写操作只把事件放入队列，后台线程每隔一个合并窗口取出一批，合并同一对象的连续修改后回调监听器
+ * 没有监听器时 publish 只读一个 volatile 字段，不创建事件对象
+ */
+final class RegistryEventDispatcher {
+
+    private final long coalesceMillis;
+    private final CopyOnWriteArrayList<RegistryWatch> watches = new CopyOnWriteArrayList<>();
+    private final LinkedBlockingQueue<RegistryEvent> queue = new LinkedBlockingQueue<>();
+    private volatile boolean active;
+    private Thread thread;
+
+    RegistryEventDispatcher(long coalesceMillis) {
+        this.coalesceMillis = coalesceMillis;
+    }
+
+    // 是否有监听器（写操作据此跳过事件构造）
+    boolean isActive() {
+        return active;
+    }
+
+    synchronized RegistryWatch add(String path, boolean recursive, RegistryListener listener) {
+        RegistryWatch watch = new RegistryWatch(this, path, recursive, listener);
+        watches.add(watch);
+        active = true;
+        if (thread == null) {
+            thread = new Thread(this::dispatchLoop, "registry-event-dispatcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return watch;
+    }
+
+    synchronized void remove(RegistryWatch watch) {
+        watches.remove(watch);
+        active = !watches.isEmpty();
+    }
+
+    // 在写锁内调用，保证同一子树的事件按修改顺序入队
+    void publish(byte op, String[] args) {
+        if (!active) {
+            return;
+        }
+        RegistryEvent event = RegistryEvent.of(op, args);
+        if (event != null) {
+            queue.offer(event);
+        }
+    }
+
+    private void dispatchLoop() {
+        List<RegistryEvent> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                if (coalesceMillis > 0) {
+                    Thread.sleep(coalesceMillis);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            List<RegistryEvent> events = coalesce(batch);
+            batch.clear();
+
+            for (RegistryWatch watch : watches) {
+                List<RegistryEvent> matched = new ArrayList<>();
+                for (RegistryEvent event : events) {
+                    if (watch.matches(event)) {
+                        matched.add(event);
+                    }
+                }
+                if (!matched.isEmpty()) {
+                    try {
+                        watch.getListener().onChanges(matched);
+                    } catch (RuntimeException e) {
+                        System.err.println("注册表变更监听器执行失败: " + e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 合并一批事件：同一键值的设置/删除只保留最后一次，位置移到最后一次发生处；
+     * 注册表项事件和键值重命名保持原样
+     */
+    static List<RegistryEvent> coalesce(List<RegistryEvent> batch) {
+        Map<Object, RegistryEvent> merged = new LinkedHashMap<>();
+        for (RegistryEvent event : batch) {
+            RegistryEvent.Type type = event.getType();
+            Object key = type == RegistryEvent.Type.VALUE_SET || type == RegistryEvent.Type.VALUE_DELETED
+                    ? new AbstractMap.SimpleImmutableEntry<>(event.getKeyPath(), event.getValueName())
+                    : new Object();
+            merged.remove(key);
+            merged.put(key, event);
+        }
+        return new ArrayList<>(merged.values());
+    }
+}
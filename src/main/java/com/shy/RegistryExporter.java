@@ -0,0 +1,407 @@
+package com.shy;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 注册表导出（类似Windows的.reg格式，UTF-16LE 编码）
+ *
+ * 导出到文件时按先序把树切成若干子树，在 ForkJoin 线程池上并行生成并编码为字节，
+ * 主线程按原顺序经 FileChannel 写出；同时在途的子树数量有上限，内存占用不随注册表大小增长。
+ * 输出与逐项写 BufferedWriter 的结果逐字节相同
+ */
+final class RegistryExporter {
+
+    static final String HEADER = "DataOS Registry Editor Version 1.00";
+
+    // 与 BufferedWriter.newLine 一致
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    // 这一深度（顶级项为 0）的项连同整棵子树作为一个写出单元，更浅的项只单独生成自身的段落
+    private static final int SPLIT_DEPTH = 2;
+    // 写出单元内部，子项不少于两个且深度小于该值时继续拆分并行生成
+    private static final int FORK_DEPTH = 5;
+    // 单个缓冲区积累到这么多字符时编码并开始下一个缓冲区
+    private static final int CHUNK_CHARS = 32 * 1024;
+    // 相邻的段落合并到估算工作量达到该值再作为一个写出单元提交
+    private static final int UNIT_WEIGHT = 512;
+
+    /**
+     * 导出进度回调（在导出线程上调用，每写出一个单元调用一次）
+     * 回调中抛出 CancellationException 可中止导出，已写出的部分留在文件中
+     */
+    @FunctionalInterface
+    interface Progress {
+        void onProgress(long bytesWritten);
+    }
+
+    private RegistryExporter() {
+    }
+
+    /**
+     * 导出全部注册表到文件
+     */
+    static void exportToFile(Registry registry, File file) throws IOException {
+        exportToFile(registry, file, null);
+    }
+
+    /**
+     * 导出全部注册表到文件
+     * @param progress  进度回调，可为 null
+     */
+    static void exportToFile(Registry registry, File file, Progress progress) throws IOException {
+        List<Map.Entry<String, RegistryKey>> roots = new ArrayList<>();
+        for (RegistryKey topKey : registry.getTopLevelKeys().values()) {
+            roots.add(new AbstractMap.SimpleImmutableEntry<>(topKey.getName(), topKey));
+        }
+        writeParallel(file, roots, progress);
+    }
+
+    /**
+     * 导出指定注册表项（含子项）到文件
+     */
+    static void exportToFile(File file, RegistryKey key, String keyPath) throws IOException {
+        exportToFile(file, key, keyPath, null);
+    }
+
+    /**
+     * 导出指定注册表项（含子项）到文件
+     * @param progress  进度回调，可为 null
+     */
+    static void exportToFile(File file, RegistryKey key, String keyPath, Progress progress) throws IOException {
+        writeParallel(file, Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>(keyPath, key)),
+                progress);
+    }
+
+    // 导出全部注册表（单线程，不关闭 writer）
+    static void exportAll(Registry registry, BufferedWriter writer) throws IOException {
+        writeHeader(writer);
+        for (RegistryKey topKey : registry.getTopLevelKeys().values()) {
+            exportRegistryKey(writer, topKey, topKey.getName());
+        }
+        writer.flush();
+    }
+
+    // 写入REG文件头部
+    private static void writeHeader(BufferedWriter writer) throws IOException {
+        writer.write(HEADER);
+        writer.newLine();
+        writer.newLine();
+    }
+
+    /**
+     * 递归导出注册表项及其子项
+     */
+    static void exportRegistryKey(BufferedWriter writer, RegistryKey key, String fullPath)
+            throws IOException {
+        StringBuilder section = new StringBuilder(256);
+        appendSection(section, key, fullPath);
+        writer.append(section);
+
+        // 递归导出子项
+        for (RegistryKey childKey : key.getSubKeys().values()) {
+            exportRegistryKey(writer, childKey, fullPath + "\\" + childKey.getName());
+        }
+    }
+
+    /**
+     * 生成单个注册表项的段落：项路径、各键值，最后一个空行
+     */
+    private static void appendSection(StringBuilder out, RegistryKey key, String fullPath) {
+        // 写入项路径
+        out.append("[\"").append(fullPath).append("\"]").append(LINE_SEPARATOR);
+
+        // 写入键值对
+        for (RegistryValue value : key.getValues().values()) {
+            // 处理默认值
+            if (value.getName().isEmpty() || value.getName().equals("@")) {
+                out.append("@=");
+            } else {
+                out.append('"').append(value.getName()).append("\"=");
+            }
+            switch (value.getType()) {
+                case "DWord":
+                    out.append("dword:").append(value.getValue().toLowerCase());
+                    break;
+                case "QWord":
+                    out.append("hex(7):").append(value.getValue().toLowerCase());
+                    break;
+                case "Binary":
+                    out.append("hex:").append(value.getValue());
+                    break;
+                default:
+                    // String、Multi-String 及未知类型
+                    out.append('"');
+                    appendEscaped(out, value.getValue());
+                    out.append('"');
+            }
+            out.append(LINE_SEPARATOR);
+        }
+
+        out.append(LINE_SEPARATOR);
+    }
+
+    /**
+     * 转义值中的特殊字符
+     */
+    static String escapeValue(String value) {
+        if (value == null) return "";
+        return value.replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    // 与 escapeValue 相同，直接追加到 out
+    private static void appendEscaped(StringBuilder out, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    /**
+     * 并行生成、按序写出
+     * @param roots  要导出的子树（路径 -> 项），按顺序写出
+     */
+    private static void writeParallel(File file, Collection<Map.Entry<String, RegistryKey>> roots,
+                                      Progress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Pipeline pipeline = new Pipeline(channel, ForkJoinPool.commonPool(), progress);
+            StringBuilder header = new StringBuilder()
+                    .append(HEADER).append(LINE_SEPARATOR).append(LINE_SEPARATOR);
+            pipeline.write(Collections.singletonList(encode(header)));
+            for (Map.Entry<String, RegistryKey> root : roots) {
+                pipeline.submitSubtree(root.getValue(), root.getKey(), 0);
+            }
+            pipeline.drain();
+        }
+    }
+
+    /**
+     * 按先序把相邻的小段落合并为写出单元提交，在途单元超过窗口大小时先按顺序写出最早的一个
+     */
+    private static final class Pipeline {
+        private final FileChannel channel;
+        private final ForkJoinPool pool;
+        private final Progress progress;
+        private final int window;
+        // 只有一个处理器时交给线程池只会多出线程切换，直接在当前线程生成
+        private final boolean inline = Runtime.getRuntime().availableProcessors() < 2;
+        private final Deque<ForkJoinTask<List<ByteBuffer>>> pending = new ArrayDeque<>();
+        private List<SubtreeTask> batch = new ArrayList<>();
+        private int batchWeight;
+        private long bytesWritten;
+
+        Pipeline(FileChannel channel, ForkJoinPool pool, Progress progress) {
+            this.channel = channel;
+            this.pool = pool;
+            this.progress = progress;
+            this.window = Math.max(2, pool.getParallelism() * 4);
+        }
+
+        void submitSubtree(RegistryKey key, String path, int depth) throws IOException {
+            if (depth >= SPLIT_DEPTH || key.getSubKeys().isEmpty()) {
+                add(new SubtreeTask(key, path, depth, true));
+                return;
+            }
+            add(new SubtreeTask(key, path, depth, false));
+            for (RegistryKey childKey : key.getSubKeys().values()) {
+                submitSubtree(childKey, path + "\\" + childKey.getName(), depth + 1);
+            }
+        }
+
+        // 按项自身的键值数和子项数粗略估算工作量，攒够一个单元再提交
+        private void add(SubtreeTask task) throws IOException {
+            batch.add(task);
+            batchWeight += 1 + task.key.getValues().size() + task.key.getSubKeys().size();
+            if (batchWeight >= UNIT_WEIGHT) {
+                submitBatch();
+            }
+        }
+
+        private void submitBatch() throws IOException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<SubtreeTask> tasks = batch;
+            batch = new ArrayList<>();
+            batchWeight = 0;
+            ForkJoinTask<List<ByteBuffer>> unit = tasks.size() == 1 ? tasks.get(0) : new UnitTask(tasks);
+            if (inline) {
+                write(unit.invoke());
+                return;
+            }
+            pending.addLast(pool.submit(unit));
+            while (pending.size() > window) {
+                write(pending.removeFirst().join());
+            }
+        }
+
+        void drain() throws IOException {
+            submitBatch();
+            while (!pending.isEmpty()) {
+                write(pending.removeFirst().join());
+            }
+        }
+
+        void write(List<ByteBuffer> buffers) throws IOException {
+            ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+            long remaining = 0;
+            for (ByteBuffer buffer : array) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                long written = channel.write(array);
+                remaining -= written;
+                bytesWritten += written;
+            }
+            if (progress != null) {
+                progress.onProgress(bytesWritten);
+            }
+        }
+    }
+
+    /**
+     * 依次执行合并在一起的几个段落，结果按顺序拼接
+     */
+    private static final class UnitTask extends RecursiveTask<List<ByteBuffer>> {
+        private final List<SubtreeTask> tasks;
+
+        UnitTask(List<SubtreeTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected List<ByteBuffer> compute() {
+            List<ByteBuffer> out = new ArrayList<>();
+            StringBuilder chunk = new StringBuilder(CHUNK_CHARS + 1024);
+            for (SubtreeTask task : tasks) {
+                task.render(chunk, out);
+            }
+            flush(chunk, out);
+            return out;
+        }
+    }
+
+    /**
+     * 生成一个注册表项的段落（withChildren 时连同整棵子树），结果为按顺序排列的已编码缓冲区
+     */
+    private static final class SubtreeTask extends RecursiveTask<List<ByteBuffer>> {
+        private final RegistryKey key;
+        private final String path;
+        private final int depth;
+        private final boolean withChildren;
+
+        SubtreeTask(RegistryKey key, String path, int depth, boolean withChildren) {
+            this.key = key;
+            this.path = path;
+            this.depth = depth;
+            this.withChildren = withChildren;
+        }
+
+        @Override
+        protected List<ByteBuffer> compute() {
+            List<ByteBuffer> out = new ArrayList<>();
+            StringBuilder chunk = new StringBuilder(CHUNK_CHARS + 1024);
+            render(chunk, out);
+            flush(chunk, out);
+            return out;
+        }
+
+        /**
+         * 追加到 chunk（满了编码到 out）；子树够大时拆给其他线程生成，结果按顺序接在后面
+         */
+        void render(StringBuilder chunk, List<ByteBuffer> out) {
+            appendSection(chunk, key, path);
+            if (!withChildren) {
+                return;
+            }
+            Map<String, RegistryKey> children = key.getSubKeys();
+            if (children.size() >= 2 && depth < FORK_DEPTH && inForkJoinPool()) {
+                flush(chunk, out);
+                List<SubtreeTask> tasks = new ArrayList<>(children.size());
+                for (RegistryKey childKey : children.values()) {
+                    tasks.add(new SubtreeTask(childKey, path + "\\" + childKey.getName(), depth + 1, true));
+                }
+                for (SubtreeTask task : invokeAll(tasks)) {
+                    out.addAll(task.join());
+                }
+                return;
+            }
+            for (RegistryKey childKey : children.values()) {
+                appendSubtree(chunk, out, childKey, path + "\\" + childKey.getName());
+            }
+        }
+
+        // 在当前线程上依次生成整棵子树
+        private static void appendSubtree(StringBuilder chunk, List<ByteBuffer> out, RegistryKey key, String path) {
+            appendSection(chunk, key, path);
+            if (chunk.length() >= CHUNK_CHARS) {
+                flush(chunk, out);
+            }
+            for (RegistryKey childKey : key.getSubKeys().values()) {
+                appendSubtree(chunk, out, childKey, path + "\\" + childKey.getName());
+            }
+        }
+    }
+
+    private static void flush(StringBuilder chunk, List<ByteBuffer> out) {
+        if (chunk.length() > 0) {
+            out.add(encode(chunk));
+            chunk.setLength(0);
+        }
+    }
+
+    /**
+     * 编码为 UTF-16LE；不成对的代理字符与 OutputStreamWriter 一样替换为 U+FFFD
+     * 每个缓冲区都以完整的行结束，代理对不会被拆开
+     */
+    private static ByteBuffer encode(StringBuilder text) {
+        int length = text.length();
+        char[] chars = new char[length];
+        text.getChars(0, length, chars, 0);
+        byte[] bytes = new byte[length * 2];
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+                    // 完整的代理对原样写出
+                    bytes[2 * i] = (byte) c;
+                    bytes[2 * i + 1] = (byte) (c >> 8);
+                    c = chars[++i];
+                } else {
+                    c = '\uFFFD';
+                }
+            }
+            bytes[2 * i] = (byte) c;
+            bytes[2 * i + 1] = (byte) (c >> 8);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
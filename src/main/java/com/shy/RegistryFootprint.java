@@ -0,0 +1,171 @@
+package com.shy;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 注册表堆内存占用报告
+ * 按 64 位 JVM、压缩指针、Java 8 的对象布局估算（对象头 12 字节，按 8 字节对齐，String 内部为 char[]），
+ * 内存映射模式下尚未访问的子树不在堆上，不计入字节数，其中的注册表项和键值个数直接从快照记录中数出
+ *
+ * 用法：java com.shy.RegistryFootprint  （在 registry.dat 所在目录运行）
+ */
+public final class RegistryFootprint {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int REFERENCE = 4;
+    // RegistryKey：name、subKeys、values、snapshot、parent 五个引用 + long 快照位置、long 修改纪元 + boolean 是否已加载
+    private static final long KEY_SIZE = align(OBJECT_HEADER + 5 * REFERENCE + 2 * 8 + 1);
+    // RegistryValue：name、type、data 三个引用 + long number
+    private static final long VALUE_SIZE = align(OBJECT_HEADER + 3 * REFERENCE + 8);
+    // 不可变映射的粗略估算：映射对象 + 根节点 + 数组头，每个条目占数组中的两个引用
+    private static final long MAP_SIZE = align(OBJECT_HEADER + 2 * REFERENCE + 4) + align(OBJECT_HEADER + 4 + REFERENCE) + 16;
+    private static final long MAP_ENTRY_SIZE = 2 * REFERENCE;
+
+    private long keys;
+    private long values;
+    private long unloadedKeys;
+    private long nativeValues;
+    private long structureBytes;
+    private long nativeValueBytes;
+    // 字符串引用总数及全部各自持有一份副本时的大小
+    private long stringReferences;
+    private long undeduplicatedStringBytes;
+    // 实际持有的字符串实例
+    private final Map<String, Boolean> instances = new IdentityHashMap<>();
+    private long stringBytes;
+    // 内容不同的字符串（完全去重后的大小）
+    private final Set<String> contents = new HashSet<>();
+    private long deduplicatedStringBytes;
+
+    private RegistryFootprint() {
+    }
+
+    static RegistryFootprint measure(Map<String, RegistryKey> topLevelKeys) {
+        RegistryFootprint footprint = new RegistryFootprint();
+        footprint.structureBytes += MAP_SIZE + MAP_ENTRY_SIZE * topLevelKeys.size();
+        for (RegistryKey key : topLevelKeys.values()) {
+            footprint.addKey(key);
+        }
+        return footprint;
+    }
+
+    private void addKey(RegistryKey key) {
+        keys++;
+        structureBytes += KEY_SIZE;
+        addString(key.getName());
+        long[] unloaded = key.countUnloadedSubtree();
+        if (unloaded != null) {
+            keys += unloaded[0] - 1;
+            unloadedKeys += unloaded[0];
+            values += unloaded[1];
+            return;
+        }
+
+        Map<String, RegistryValue> keyValues = key.getValues();
+        Map<String, RegistryKey> subKeys = key.getSubKeys();
+        structureBytes += 2 * MAP_SIZE + MAP_ENTRY_SIZE * (keyValues.size() + subKeys.size());
+        for (RegistryValue value : keyValues.values()) {
+            values++;
+            structureBytes += VALUE_SIZE;
+            addString(value.getName());
+            addString(value.getType());
+            addValueData(value);
+        }
+        for (RegistryKey subKey : subKeys.values()) {
+            addKey(subKey);
+        }
+    }
+
+    private void addValueData(RegistryValue value) {
+        String type = value.getType();
+        if (value.isNative()) {
+            nativeValues++;
+            if ("Binary".equals(type)) {
+                nativeValueBytes += align(16 + value.getBytes().length);
+            } else if ("Multi-String".equals(type)) {
+                String[] parts = value.getMultiString();
+                nativeValueBytes += align(16 + (long) REFERENCE * parts.length);
+                for (String part : parts) {
+                    nativeValueBytes += stringSize(part);
+                }
+            }
+            return;
+        }
+        addString(value.getValue());
+    }
+
+    private void addString(String s) {
+        if (s == null) {
+            return;
+        }
+        long size = stringSize(s);
+        stringReferences++;
+        undeduplicatedStringBytes += size;
+        if (instances.put(s, Boolean.TRUE) == null) {
+            stringBytes += size;
+        }
+        if (contents.add(s)) {
+            deduplicatedStringBytes += size;
+        }
+    }
+
+    private static long stringSize(String s) {
+        // String 对象（value、hash 两个字段）+ char[]
+        return align(OBJECT_HEADER + REFERENCE + 4) + align(16 + 2L * s.length());
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    public long getKeyCount() {
+        return keys;
+    }
+
+    // 尚未从快照中加载的注册表项数
+    public long getUnloadedKeyCount() {
+        return unloadedKeys;
+    }
+
+    public long getValueCount() {
+        return values;
+    }
+
+    // 估算的总字节数
+    public long getEstimatedBytes() {
+        return structureBytes + nativeValueBytes + stringBytes;
+    }
+
+    // 去重前（每个引用各持有一份字符串）的估算字节数
+    public long getUndeduplicatedBytes() {
+        return structureBytes + nativeValueBytes + undeduplicatedStringBytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("注册表项: %d（未加载 %d），键值: %d（原生形式 %d）%n",
+                keys, unloadedKeys, values, nativeValues));
+        report.append(String.format("字符串引用: %d，实例: %d，不同内容: %d%n",
+                stringReferences, instances.size(), contents.size()));
+        report.append(String.format("结构（项、键值、集合）: %s%n", bytes(structureBytes)));
+        report.append(String.format("原生形式的值: %s%n", bytes(nativeValueBytes)));
+        report.append(String.format("字符串: %s（未去重 %s，完全去重 %s）%n",
+                bytes(stringBytes), bytes(undeduplicatedStringBytes), bytes(deduplicatedStringBytes)));
+        report.append(String.format("合计: %s（未去重 %s）", bytes(getEstimatedBytes()), bytes(getUndeduplicatedBytes())));
+        return report.toString();
+    }
+
+    private static String bytes(long bytes) {
+        return bytes < 1024 * 1024
+                ? String.format("%.1f KB", bytes / 1024.0)
+                : String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    public static void main(String[] args) {
+        System.out.println(Registry.getInstance().footprint());
+    }
+}
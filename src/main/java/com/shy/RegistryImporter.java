@@ -0,0 +1,336 @@
+package com.shy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 注册表导入（解析 RegistryExporter 导出的 .reg 文件并合并到注册表）
+ *
+ * 文件按行流式读取，内存占用与文件大小无关：修改累积到 registry.import.batchSize 条，
+ * 或编码后达到 registry.import.batchBytes 字节时提交一次事务（日志模式下一个事务就是一条日志记录）。
+ * 整个文件不超过一批时仍是全部成功或全部撤销；更大的文件出错时，之前已提交的批次会保留，
+ * 异常信息中给出出错的行号
+ *
+ * 也可以脱离编辑器直接运行：java -cp registry.jar com.shy.RegistryImporter a.reg [b.reg ...]
+ */
+public final class RegistryImporter {
+
+    // 进度回调的最小间隔（行）
+    private static final int PROGRESS_INTERVAL_LINES = 64 * 1024;
+
+    /**
+     * 导入进度回调（在导入线程上调用）
+     */
+    @FunctionalInterface
+    public interface Progress {
+        /**
+         * 回调中抛出 CancellationException 可中止导入：尚未提交的一批修改被丢弃，之前提交的批次保留
+         * @param lines       已处理的行数
+         * @param bytesRead   已读取的字节数，从内存导入时为 -1
+         * @param totalBytes  文件总字节数，从内存导入时为 -1
+         */
+        void onProgress(long lines, long bytesRead, long totalBytes);
+    }
+
+    private RegistryImporter() {
+    }
+
+    /**
+     * 从 .reg 文件解析并导入注册表内容（不保存注册表文件）
+     * @throws IOException  文件读取错误
+     * @throws RegistryImportException  格式不兼容或解析错误
+     */
+    public static void importFile(Registry registry, File file)
+            throws IOException, RegistryImportException {
+        importFile(registry, file, null);
+    }
+
+    /**
+     * 从 .reg 文件流式导入
+     * @param progress  进度回调，可为 null
+     * @throws IOException  文件读取错误
+     * @throws RegistryImportException  格式不兼容或解析错误
+     */
+    public static void importFile(Registry registry, File file, Progress progress)
+            throws IOException, RegistryImportException {
+        long totalBytes = file.length();
+        try (CountingInputStream in = new CountingInputStream(new FileInputStream(file));
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(in, StandardCharsets.UTF_16LE), 64 * 1024)) {
+            Progress fileProgress = progress == null ? null
+                    : (lines, bytesRead, total) -> progress.onProgress(lines, in.count, totalBytes);
+            importLines(registry, reader.lines().iterator(), fileProgress);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 导入 .reg 文件的各行内容
+     * @throws RegistryImportException  格式不兼容或解析错误
+     */
+    static void importLines(Registry registry, List<String> lines) throws RegistryImportException {
+        importLines(registry, lines.iterator(), null);
+    }
+
+    /**
+     * 逐行导入：只保留当前所在的注册表项和未提交的一批修改
+     * @throws RegistryImportException  格式不兼容或解析错误
+     */
+    static void importLines(Registry registry, Iterator<String> lines, Progress progress)
+            throws RegistryImportException {
+        if (!lines.hasNext()) {
+            throw new RegistryImportException("空的 .reg 文件");
+        }
+
+        // 检查文件头部（兼容格式）
+        if (!lines.next().trim().equals(RegistryExporter.HEADER)) {
+            throw new RegistryImportException("不支持的 .reg 文件格式");
+        }
+
+        Batch batch = new Batch(registry, RegistryConfig.getImportBatchSize(), RegistryConfig.getImportBatchBytes());
+        String currentPath = null;
+        long lineNumber = 1;
+        while (lines.hasNext()) {
+            String line = lines.next().trim();
+            lineNumber++;
+            if (progress != null && lineNumber % PROGRESS_INTERVAL_LINES == 0) {
+                try {
+                    progress.onProgress(lineNumber, -1, -1);
+                } catch (CancellationException e) {
+                    batch.rollback();
+                    throw e;
+                }
+            }
+            if (line.isEmpty()) continue;
+
+            // 解析注册表项路径（如 ["HKEY_CURRENT_USER\\Software\\MyApp"]）
+            if (line.startsWith("[") && line.endsWith("]")) {
+                String path = line.substring(1, line.length() - 1)
+                        .replace("\"", "") // 处理 Windows 导出的带引号路径
+                        .replace("\\\\", "\\"); // 处理转义反斜杠
+                if (path.isEmpty()) {
+                    throw new RegistryImportException("第 " + lineNumber + " 行：无效的注册表路径：" + path);
+                }
+                // 同一项的多个分段只需创建一次
+                if (!path.equals(currentPath)) {
+                    batch.createKey(path, lineNumber);
+                    currentPath = path;
+                }
+            }
+            // 解析键值对（如 "Name"="Value" 或 @="DefaultValue"）
+            else if (currentPath != null) {
+                int separator = line.indexOf('=');
+                if (separator < 0) {
+                    throw new RegistryImportException("第 " + lineNumber + " 行：无效的键值对格式：" + line);
+                }
+                String namePart = line.substring(0, separator).trim().replace("\"", "");
+                String valuePart = line.substring(separator + 1).trim();
+
+                // 处理默认值（@ 符号）
+                String valueName = namePart.equals("@") ? "" : namePart;
+                // 解析值内容（自动识别类型）
+                RegistryValue value = parseRegistryValue(valuePart);
+                if (value != null) {
+                    // 若存在同名键值，覆盖；否则新增
+                    batch.setValue(currentPath, valueName, value.getType(), value.getValue(), lineNumber);
+                }
+            }
+        }
+
+        batch.commit(lineNumber);
+        if (progress != null) {
+            progress.onProgress(lineNumber, -1, -1);
+        }
+    }
+
+    /**
+     * 未提交的一批修改及其需要的顶级节点
+     */
+    private static final class Batch {
+        private final Registry registry;
+        private final int limit;
+        private final long byteLimit;
+        // 当前事务中创建的顶级节点
+        private final Set<String> createdTopLevelKeys = new HashSet<>();
+        private RegistryTransaction transaction;
+        // 当前事务中的操作编码后的字节数
+        private long bytes;
+        private int committed;
+
+        Batch(Registry registry, int limit, long byteLimit) {
+            this.registry = registry;
+            this.limit = limit;
+            this.byteLimit = byteLimit;
+            this.transaction = registry.beginTransaction();
+        }
+
+        // 逐级创建子项（提交时经由 Registry 修改，保证写入日志）
+        void createKey(String path, long lineNumber) throws RegistryImportException {
+            long size = RegistryJournal.encodedSize(path);
+            flushIfFull(size, lineNumber);
+            String topLevelName = RegistryPath.segment(path, 0, RegistryPath.firstSegmentEnd(path));
+            if (registry.getTopLevelKeys().get(topLevelName) == null && createdTopLevelKeys.add(topLevelName)) {
+                // 若顶级节点不存在，在同一事务中先创建它，这一批撤销时一并删除
+                transaction.createTopLevelKey(topLevelName);
+                bytes += RegistryJournal.encodedSize(topLevelName);
+            }
+            transaction.createKey(path);
+            bytes += size;
+        }
+
+        void setValue(String keyPath, String valueName, String type, String value, long lineNumber)
+                throws RegistryImportException {
+            long size = RegistryJournal.encodedSize(keyPath, valueName, type, value);
+            if (flushIfFull(size, lineNumber)) {
+                // 新的一批可能从项的中间开始，先保证该项存在
+                transaction.createKey(keyPath);
+                bytes += RegistryJournal.encodedSize(keyPath);
+            }
+            transaction.setValue(keyPath, valueName, type, value);
+            bytes += size;
+        }
+
+        // 再加入 size 字节的操作会超过条数或字节数上限时，先提交已缓存的一批，开始新的事务
+        private boolean flushIfFull(long size, long lineNumber) throws RegistryImportException {
+            if (transaction.size() == 0 || (transaction.size() < limit && bytes + size <= byteLimit)) {
+                return false;
+            }
+            commit(lineNumber);
+            transaction = registry.beginTransaction();
+            createdTopLevelKeys.clear();
+            bytes = 0;
+            return true;
+        }
+
+        void commit(long lineNumber) throws RegistryImportException {
+            if (!transaction.commit()) {
+                throw new RegistryImportException(committed == 0
+                        ? "导入失败，本次导入的修改已全部撤销"
+                        : "导入失败（第 " + lineNumber + " 行之前的一批修改已撤销，更早提交的 "
+                        + committed + " 条修改已保留）");
+            }
+            committed += transaction.size();
+        }
+
+        // 放弃尚未提交的修改
+        void rollback() {
+            createdTopLevelKeys.clear();
+            transaction.rollback();
+        }
+    }
+
+    /**
+     * 解析 .reg 文件中的值内容，自动识别类型
+     * @return  RegistryValue 或 null（无效格式）
+     */
+    static RegistryValue parseRegistryValue(String valueStr) {
+        // 处理空值
+        if (valueStr.equals("\"\"")) {
+            return new RegistryValue("", "String", "");
+        }
+        // 处理带引号的字符串（如 "Hello\\World"）
+        if (valueStr.startsWith("\"") && valueStr.endsWith("\"")) {
+            String value = valueStr.substring(1, valueStr.length() - 1)
+                    .replace("\\\\", "\\")  // 恢复转义反斜杠
+                    .replace("\\n", "\n")   // 恢复换行符
+                    .replace("\\r", "\r");  // 恢复回车符
+            return new RegistryValue("", "String", value);
+        }
+        // 处理 DWord（如 dword:00000001）
+        if (valueStr.regionMatches(true, 0, "dword:", 0, 6)) {
+            String hex = valueStr.substring(6);
+            return new RegistryValue("", "DWord", hex);
+        }
+        // 处理 QWord（如 hex(7):00,00,00,00,00,00,00,01）
+        if (valueStr.regionMatches(true, 0, "hex(7):", 0, 7)) {
+            String hex = valueStr.substring(6).replace(",", "");
+            return new RegistryValue("", "QWord", hex);
+        }
+        // 处理 Binary（如 hex:00,01,02）
+        if (valueStr.regionMatches(true, 0, "hex:", 0, 4)) {
+            String hex = valueStr.substring(4).replace(",", "");
+            return new RegistryValue("", "Binary", hex);
+        }
+        // 处理 Multi-String（如 "Value1\0Value2\0" 或 hex(7):00,01...）
+        // （简化处理：这里默认按 String 类型，实际可扩展自动识别）
+        return new RegistryValue("", "String", valueStr.replace("\"", ""));
+    }
+
+    // 统计已读取的字节数，用于报告进度
+    private static final class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * 命令行导入：依次导入给定的 .reg 文件并保存注册表
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("用法: RegistryImporter <文件.reg> [...]");
+            System.exit(2);
+        }
+        Registry registry = Registry.getInstance();
+        for (String name : args) {
+            File file = new File(name);
+            try {
+                importFile(registry, file, (lines, bytesRead, totalBytes) -> System.out.printf(
+                        "%s: %d 行，%.1f%%%n", file.getName(), lines,
+                        totalBytes > 0 ? bytesRead * 100.0 / totalBytes : 100.0));
+                System.out.println("已导入 " + file.getAbsolutePath());
+            } catch (RegistryImportException e) {
+                System.err.println("导入 " + file.getAbsolutePath() + " 失败: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        registry.saveToFile();
+    }
+
+    // 自定义异常：导入失败时抛出
+    public static class RegistryImportException extends Exception {
+        public RegistryImportException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,635 @@
+package com.shy;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 注册表预写日志（追加写）
+ * 每次修改以一条紧凑记录追加到 registry.journal，启动时在最近一次快照之上重放
+ *
+ * 日志分段：第 0 段是 registry.journal，第 n 段是 registry.journal.n。检查点开始时切换到新段（rotate），
+ * 快照中记下新段的段号，从快照记下的段开始依次重放。被上一代快照（registry.dat.bak）包含的段才会删除，
+ * 当前快照损坏而回退到上一代快照时，之后的修改仍能从保留的段中重放
+ *
+ * 记录格式：[int 负载长度][负载][int CRC32]
+ * 负载格式：[byte 操作码][byte 参数个数]{[int 字节数][UTF-8 字节]}...
+ * 批量记录（事务）：[byte BATCH][int 操作个数]{[byte 操作码][byte 参数个数]{参数}...}...，
+ * 整批共用一个校验和，重放时要么全部生效要么全部忽略
+ */
+final class RegistryJournal implements Closeable {
+
+    /**
+     * 刷盘策略
+     */
+    enum SyncPolicy {
+        // 每条记录写入后立即 fsync
+        ALWAYS,
+        // 组提交：后台线程按时间窗口合并多条记录一次 fsync，写入方等待所在批次落盘
+        GROUP,
+        // 只写入操作系统缓存，不主动 fsync
+        NEVER
+    }
+
+    // 操作码
+    static final byte CREATE_KEY = 1;
+    static final byte SET_VALUE = 2;
+    static final byte DELETE_VALUE = 3;
+    static final byte DELETE_KEY = 4;
+    static final byte RENAME_KEY = 5;
+    static final byte RENAME_VALUE = 6;
+    static final byte BATCH = 7;
+
+    // 单条记录的负载上限，超过视为损坏
+    static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * 一条待记录的操作
+     */
+    static final class Operation {
+        final byte op;
+        final String[] args;
+        // 创建注册表项时顶级项不存在也一并创建（日志中不区分：重放 CREATE_KEY 时总会创建缺少的顶级项）
+        final boolean createTopLevel;
+
+        Operation(byte op, String... args) {
+            this(op, false, args);
+        }
+
+        private Operation(byte op, boolean createTopLevel, String... args) {
+            this.op = op;
+            this.args = args;
+            this.createTopLevel = createTopLevel;
+        }
+
+        static Operation createTopLevelKey(String name) {
+            return new Operation(CREATE_KEY, true, name);
+        }
+    }
+
+    /**
+     * 重放回调
+     */
+    interface Replayer {
+        void replay(byte op, String[] args);
+    }
+
+    private final File baseFile;
+    private final SyncPolicy policy;
+    private final long groupCommitMillis;
+    // 当前追加的段
+    private long segment;
+    private File file;
+    private FileChannel channel;
+    // 之前尚未删除的各段：段号 -> 字节数
+    private final TreeMap<Long, Long> closedSegments = new TreeMap<>();
+
+    // 组提交模式下尚未写入文件的记录
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    // 组提交模式下切换段时交给后台线程收尾的旧段及其尚未写入的记录
+    private FileChannel retiredChannel;
+    private byte[] retiredRecords;
+    // 已追加的记录序号
+    private long appendedSeq;
+    // 已落盘的记录序号
+    private long syncedSeq;
+    // 写入或后台刷盘失败时记录的异常，后续写入方直接抛出
+    private IOException failure;
+    private boolean closed;
+    private Thread flusher;
+
+    private RegistryJournal(File baseFile, long segment, SyncPolicy policy, long groupCommitMillis, long validLength)
+            throws IOException {
+        this.baseFile = baseFile;
+        this.policy = policy;
+        this.groupCommitMillis = Math.max(0, groupCommitMillis);
+        this.segment = segment;
+        this.file = segmentFile(baseFile, segment);
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // 截掉尾部未写完整的记录，保证后续追加的记录可以被正确重放
+        if (channel.size() > validLength) {
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        channel.position(validLength);
+
+        if (policy == SyncPolicy.GROUP) {
+            flusher = new Thread(this::flushLoop, "registry-journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * 重放已有日志后打开日志，继续追加到最后一段
+     * @param baseFile          第 0 段的文件，其余各段与它放在一起
+     * @param retainedSegment   上一代快照记下的段号，之前的段直接删除
+     * @param firstSegment      快照记下的段号，之前的段已包含在快照中，不再重放，但保留到上一代快照被替换为止
+     * @param replayer          每条完整记录的回调
+     */
+    static RegistryJournal open(File baseFile, long retainedSegment, long firstSegment, SyncPolicy policy,
+                                long groupCommitMillis, Replayer replayer) throws IOException {
+        long active = firstSegment;
+        long validLength = 0;
+        boolean replayed = false;
+        boolean truncated = false;
+        TreeMap<Long, Long> closed = new TreeMap<>();
+        for (Map.Entry<Long, File> entry : segments(baseFile).entrySet()) {
+            long number = entry.getKey();
+            File segmentFile = entry.getValue();
+            if (number < retainedSegment) {
+                deleteSegment(segmentFile);
+                continue;
+            }
+            if (number < firstSegment) {
+                closed.put(number, segmentFile.length());
+                continue;
+            }
+            if (truncated) {
+                // 前一段尾部不完整，之后各段中的记录不能越过缺口重放
+                System.err.println("注册表日志段 " + segmentFile.getName() + " 位于不完整的段之后，已丢弃");
+                deleteSegment(segmentFile);
+                continue;
+            }
+            if (replayed) {
+                closed.put(active, validLength);
+            }
+            active = number;
+            validLength = replay(segmentFile, replayer);
+            replayed = true;
+            truncated = validLength < segmentFile.length();
+        }
+
+        RegistryJournal journal = new RegistryJournal(baseFile, active, policy, groupCommitMillis, validLength);
+        journal.closedSegments.putAll(closed);
+        return journal;
+    }
+
+    // 第 segment 段的文件
+    static File segmentFile(File baseFile, long segment) {
+        return segment == 0 ? baseFile : new File(baseFile.getPath() + "." + segment);
+    }
+
+    // 磁盘上已有的各段：段号 -> 文件
+    private static TreeMap<Long, File> segments(File baseFile) {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        File directory = baseFile.getAbsoluteFile().getParentFile();
+        String prefix = baseFile.getName() + ".";
+        File[] files = directory == null ? null : directory.listFiles();
+        if (files == null) {
+            return segments;
+        }
+        for (File candidate : files) {
+            String name = candidate.getName();
+            if (name.equals(baseFile.getName())) {
+                segments.put(0L, candidate);
+            } else if (name.startsWith(prefix) && name.length() > prefix.length()
+                    && name.substring(prefix.length()).chars().allMatch(c -> c >= '0' && c <= '9')) {
+                try {
+                    segments.put(Long.parseLong(name.substring(prefix.length())), candidate);
+                } catch (NumberFormatException ignored) {
+                    // 段号超出范围，不是本日志的文件
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static void deleteSegment(File segmentFile) {
+        if (segmentFile.exists() && !segmentFile.delete()) {
+            System.err.println("删除注册表日志段失败: " + segmentFile);
+        }
+    }
+
+    /**
+     * 顺序重放日志，遇到截断或校验失败的记录即停止
+     * @return  最后一条完整记录结束的位置
+     */
+    static long replay(File file, Replayer replayer) throws IOException {
+        long validLength = 0;
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    System.err.println("注册表日志记录长度异常，忽略后续内容: " + length);
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                int checksum;
+                try {
+                    in.readFully(payload);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    System.err.println("注册表日志尾部记录不完整，已忽略");
+                    break;
+                }
+                if (checksum != checksum(payload, 0, payload.length)) {
+                    System.err.println("注册表日志记录校验失败，忽略后续内容");
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                byte op = record.readByte();
+                if (op == BATCH) {
+                    int operations = record.readInt();
+                    for (int i = 0; i < operations; i++) {
+                        replayOperation(record, record.readByte(), replayer);
+                    }
+                } else {
+                    replayOperation(record, op, replayer);
+                }
+
+                validLength += 4 + length + 4;
+                count++;
+            }
+        }
+        if (count > 0) {
+            System.out.println("已重放注册表日志记录: " + count + " 条");
+        }
+        return validLength;
+    }
+
+    private static void replayOperation(DataInputStream record, byte op, Replayer replayer) throws IOException {
+        String[] args = new String[record.readUnsignedByte()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = readString(record);
+        }
+        replayer.replay(op, args);
+    }
+
+    /**
+     * 追加一条记录
+     * @return  记录序号，配合 awaitDurable 等待落盘
+     */
+    long append(byte op, String... args) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(64);
+        writeOperation(new DataOutputStream(payloadBytes), op, args);
+        if (payloadBytes.size() > MAX_RECORD_SIZE) {
+            throw new IOException("操作过大，无法写入注册表日志: " + payloadBytes.size() + " 字节");
+        }
+        return appendRecord(frame(payloadBytes.toByteArray()));
+    }
+
+    /**
+     * 把一批操作作为一条记录追加，只占用一次写入和一次 fsync
+     * @return  记录序号，配合 awaitDurable 等待落盘
+     */
+    long appendBatch(List<Operation> operations) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(64 * operations.size());
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeByte(BATCH);
+        payload.writeInt(operations.size());
+        for (Operation operation : operations) {
+            writeOperation(payload, operation.op, operation.args);
+        }
+        if (payloadBytes.size() > MAX_RECORD_SIZE) {
+            throw new IOException("批量操作过大，无法写入注册表日志: " + payloadBytes.size() + " 字节");
+        }
+        return appendRecord(frame(payloadBytes.toByteArray()));
+    }
+
+    private long appendRecord(byte[] record) throws IOException {
+        synchronized (this) {
+            ensureWritable();
+            switch (policy) {
+                case ALWAYS:
+                case NEVER:
+                    writeDirect(record);
+                    syncedSeq = ++appendedSeq;
+                    break;
+                default:
+                    pending.write(record);
+                    appendedSeq++;
+                    notifyAll();
+            }
+            return appendedSeq;
+        }
+    }
+
+    // 直接写入当前段（ALWAYS 模式随即 fsync）；失败时截掉写了一半的记录，
+    // 并与组提交模式一样不再接受写入：调用方随即撤销这次修改，内存中的内容不会与日志分叉
+    private void writeDirect(byte[] record) throws IOException {
+        long start = channel.position();
+        try {
+            writeFully(channel, ByteBuffer.wrap(record));
+            if (policy == SyncPolicy.ALWAYS) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            failure = e;
+            try {
+                channel.truncate(start);
+            } catch (IOException ignored) {
+                // 截断失败时，不完整的记录在重放时校验不通过，被当作尾部损坏忽略
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 等待指定序号之前的记录全部落盘（仅组提交模式需要等待）
+     */
+    synchronized void awaitDurable(long seq) throws IOException {
+        boolean interrupted = false;
+        while (syncedSeq < seq && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 把已追加的记录全部刷到磁盘
+     */
+    void sync() throws IOException {
+        long seq;
+        synchronized (this) {
+            ensureWritable();
+            if (policy != SyncPolicy.GROUP) {
+                channel.force(false);
+                return;
+            }
+            seq = appendedSeq;
+        }
+        awaitDurable(seq);
+    }
+
+    /**
+     * 切换到新的一段，之后追加的记录都写入新段（调用方须保证期间没有并发的修改，见 Registry.checkpoint）
+     * 组提交模式下旧段中尚未写入的记录交给后台线程，由它写完并 fsync 旧段后再写新段的记录，这里不等待刷盘；
+     * 新段中的记录落盘时旧段一定已经落盘，重放时不会越过旧段尾部的缺口
+     * @return  新段的段号
+     */
+    synchronized long rotate() throws IOException {
+        ensureWritable();
+        // 上次切换留下的旧段还没有收尾（后台线程很少会落后这么多）
+        boolean interrupted = false;
+        while (retiredChannel != null && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        ensureWritable();
+
+        File nextFile = segmentFile(baseFile, segment + 1);
+        FileChannel next = FileChannel.open(nextFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        FileChannel previous = channel;
+        long previousBytes = previous.size();
+        if (policy == SyncPolicy.GROUP) {
+            retiredRecords = pending.toByteArray();
+            retiredChannel = previous;
+            pending = new ByteArrayOutputStream();
+            previousBytes += retiredRecords.length;
+            notifyAll();
+        } else {
+            // ALWAYS 模式下每条记录都已落盘
+            if (policy == SyncPolicy.NEVER) {
+                previous.force(false);
+            }
+            previous.close();
+        }
+        closedSegments.put(segment, previousBytes);
+        segment++;
+        file = nextFile;
+        channel = next;
+        return segment;
+    }
+
+    /**
+     * 删除 first 之前的各段（其中的修改已包含在落盘的快照中）
+     */
+    synchronized void deleteSegmentsBefore(long first) {
+        for (File segmentFile : segments(baseFile).headMap(first).values()) {
+            deleteSegment(segmentFile);
+        }
+        closedSegments.headMap(first).clear();
+    }
+
+    /**
+     * 第 first 段及之后各段的总大小（字节）
+     */
+    synchronized long sizeSince(long first) throws IOException {
+        long size = channel.size();
+        for (long bytes : closedSegments.tailMap(first).values()) {
+            size += bytes;
+        }
+        return size;
+    }
+
+    /**
+     * 尚未删除的各段的总大小（字节）
+     */
+    synchronized long size() throws IOException {
+        long size = channel.size();
+        for (long bytes : closedSegments.values()) {
+            size += bytes;
+        }
+        return size;
+    }
+
+    synchronized File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            if (flusher != null) {
+                try {
+                    flusher.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                if (retiredChannel != null) {
+                    retiredChannel.close();
+                }
+                channel.close();
+            }
+        }
+    }
+
+    // 组提交后台线程：等待时间窗口内的记录攒成一批后一次写入并 fsync
+    private void flushLoop() {
+        while (true) {
+            synchronized (this) {
+                while (pending.size() == 0 && retiredChannel == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed && pending.size() == 0 && retiredChannel == null) {
+                    return;
+                }
+            }
+
+            if (groupCommitMillis > 0) {
+                try {
+                    Thread.sleep(groupCommitMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            FileChannel retired;
+            byte[] retiredBatch;
+            FileChannel target;
+            byte[] batch;
+            long batchSeq;
+            synchronized (this) {
+                retired = retiredChannel;
+                retiredBatch = retiredRecords;
+                retiredChannel = null;
+                retiredRecords = null;
+                target = channel;
+                batch = pending.toByteArray();
+                batchSeq = appendedSeq;
+                pending = new ByteArrayOutputStream();
+                notifyAll();
+            }
+
+            try {
+                // 先写完并 fsync 已切换掉的旧段，再写当前段
+                if (retired != null) {
+                    writeFully(retired, ByteBuffer.wrap(retiredBatch));
+                    retired.force(false);
+                    retired.close();
+                }
+                writeFully(target, ByteBuffer.wrap(batch));
+                target.force(false);
+                synchronized (this) {
+                    syncedSeq = batchSeq;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                System.err.println("注册表日志刷盘失败: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void ensureWritable() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("注册表日志已关闭");
+        }
+    }
+
+    private static void writeFully(FileChannel target, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * 一条操作写入记录后占用的字节数（与 writeOperation 一致），用于在提交前控制批量记录的大小
+     */
+    static long encodedSize(String... args) {
+        long size = 2;
+        for (String arg : args) {
+            size += 4;
+            if (arg != null) {
+                size += utf8Length(arg);
+            }
+        }
+        return size;
+    }
+
+    // UTF-8 编码后的字节数，不生成字节数组（代理对按两个字符各 2 字节计，合计 4 字节）
+    private static long utf8Length(String value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static void writeOperation(DataOutputStream payload, byte op, String[] args) throws IOException {
+        payload.writeByte(op);
+        payload.writeByte(args.length);
+        for (String arg : args) {
+            writeString(payload, arg);
+        }
+    }
+
+    // 加上长度和校验和，组成完整记录
+    private static byte[] frame(byte[] body) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(body.length + 8);
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeInt(body.length);
+        record.write(body);
+        record.writeInt(checksum(body, 0, body.length));
+        return recordBytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
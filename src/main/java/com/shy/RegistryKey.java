@@ -1,59 +1,288 @@
 package com.shy;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * 注册表项类
  * 包含子项和键值对
+ *
+ * 子项和键值集合都是不可变映射，修改时生成新映射并整体替换，
+ * 读线程拿到的集合不会再变化，无需加锁
+ *
+ * 每个项记录所在的父项（由 addSubKey / removeSubKey 维护），getFullPath 沿父项向上拼出路径
  */
 public class RegistryKey implements Serializable {
     private static final long serialVersionUID = 1L;
-    
-    private String name;
-    private Map<String, RegistryKey> subKeys;  // 子健集合
-    private Map<String, RegistryValue> values;  // 键的值集合
-    
+
+    private volatile String name;
+    private volatile Map<String, RegistryKey> subKeys;  // 子健集合
+    private volatile Map<String, RegistryValue> values;  // 键的值集合
+
+    // 该项在快照中的记录：snapshot 为记录所在的快照（运行中新建的项为 null），snapshotOffset 为记录位置
+    // 写出新快照后由 relocate 指向新快照中的同一记录，供下次增量写快照时原样复制未修改的子树
+    private transient volatile RegistrySnapshotMapping snapshot;
+    private transient volatile long snapshotOffset = -1;
+    // 延迟加载：为 false 时子项和键值尚未从 snapshot 中读出
+    private transient volatile boolean loaded;
+    // 最近一次修改该项或其子树时的纪元（见 RegistryCompactor），不早于上一个快照的纪元说明快照中的记录已过期
+    private transient volatile long modifiedEpoch;
+    // 通过公开方法直接修改过的项的修改纪元不小于它（大于任何纪元）；每次直接修改取一个新值，
+    // 检查点据此判断写出之后该项是否又被直接修改过（见 clearDirectModification）
+    static final long DIRECTLY_MODIFIED = Long.MAX_VALUE / 2;
+    private static final AtomicLong DIRECT_MODIFICATIONS = new AtomicLong(DIRECTLY_MODIFIED);
+    private static final AtomicLongFieldUpdater<RegistryKey> MODIFIED_EPOCH =
+            AtomicLongFieldUpdater.newUpdater(RegistryKey.class, "modifiedEpoch");
+
+    // 父项，顶级项或已从树中摘下的项为 null；不参与序列化，读入后由父项重新设置
+    private transient volatile RegistryKey parent;
+
     public RegistryKey(String name) {
-        this.name = name;
-        this.subKeys = new HashMap<>();
-        this.values = new HashMap<>();
+        this.name = RegistryStrings.name(name);
+        this.subKeys = PersistentHashMap.empty();
+        this.values = PersistentHashMap.empty();
+        this.loaded = true;
+    }
+
+    // 延迟加载的注册表项，首次访问子项或键值时才从快照记录中读取
+    RegistryKey(String name, RegistrySnapshotMapping snapshot, long snapshotOffset) {
+        this.name = RegistryStrings.name(name);
+        this.snapshot = snapshot;
+        this.snapshotOffset = snapshotOffset;
+    }
+
+    // 旧版序列化文件中的集合是 HashMap，读入后转换为不可变映射
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        name = RegistryStrings.name(name);
+        subKeys = PersistentHashMap.copyOf(subKeys);
+        values = PersistentHashMap.copyOf(values);
+        snapshotOffset = -1;
+        loaded = true;
+        adoptSubKeys();
+    }
+
+    // 仍按旧版结构（HashMap）序列化，保持与旧文件兼容
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ensureLoaded();
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("subKeys", new HashMap<>(subKeys));
+        fields.put("values", new HashMap<>(values));
+        out.writeFields();
+    }
+
+    // 是否已经读出子项和键值
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                Map<String, RegistryKey> loadedSubKeys = new HashMap<>();
+                Map<String, RegistryValue> loadedValues = new HashMap<>();
+                snapshot.readKey(snapshotOffset, loadedSubKeys, loadedValues);
+                subKeys = PersistentHashMap.copyOf(loadedSubKeys);
+                values = PersistentHashMap.copyOf(loadedValues);
+                adoptSubKeys();
+                loaded = true;
+            }
+        }
+    }
+
+    // 记录所在的快照，运行中新建的项为 null
+    RegistrySnapshotMapping snapshot() {
+        return snapshot;
+    }
+
+    long snapshotOffset() {
+        return snapshotOffset;
+    }
+
+    /**
+     * 尚未加载时返回快照中以该项为根的子树的 {注册表项数, 键值数}（不加载子树），已加载时返回 null
+     */
+    synchronized long[] countUnloadedSubtree() {
+        if (loaded) {
+            return null;
+        }
+        try {
+            return snapshot.countSubtree(snapshotOffset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(new IOException("读取快照记录失败，偏移量 " + snapshotOffset, e));
+        }
+    }
+
+    /**
+     * 该项的记录（内容不变）写到了新快照的 offset 处；尚未加载的项之后改从新快照读取
+     */
+    synchronized void relocate(RegistrySnapshotMapping snapshot, long offset) {
+        this.snapshot = snapshot;
+        this.snapshotOffset = offset;
+    }
+
+    long modifiedEpoch() {
+        return modifiedEpoch;
+    }
+
+    void setModifiedEpoch(long epoch) {
+        modifiedEpoch = epoch;
     }
-    
+
+    // 把当前子项集合中各项的父项指向自己
+    private void adoptSubKeys() {
+        for (RegistryKey subKey : subKeys.values()) {
+            subKey.parent = this;
+        }
+    }
+
     public String getName() {
         return name;
     }
 
+    // 父项，顶级项返回 null
+    public RegistryKey getParent() {
+        return parent;
+    }
+
+    /**
+     * 从顶级项开始的完整路径（如 HKEY_SOFTWARE\DATABASE\Redis），只需沿父项向上走 depth 步
+     * 已从树中删除的项返回以被删除的那一项开头的路径
+     */
+    public String getFullPath() {
+        if (parent == null) {
+            return name;
+        }
+        List<String> names = new ArrayList<>();
+        int length = 0;
+        for (RegistryKey key = this; key != null; key = key.parent) {
+            String keyName = key.name;
+            names.add(keyName);
+            length += keyName.length() + 1;
+        }
+        StringBuilder path = new StringBuilder(length);
+        for (int i = names.size() - 1; i >= 0; i--) {
+            path.append(names.get(i));
+            if (i > 0) {
+                path.append(RegistryPath.SEPARATOR);
+            }
+        }
+        return path.toString();
+    }
+
+    // 直接改名：不会更新父项中的名称，应使用 Registry.renameKey
     public void setName(String name) {
-        this.name = name;
+        rename(name);
+        markChanged();
     }
     // 添加子健，
     public void addSubKey(RegistryKey key) {
-        subKeys.put(key.getName(), key);
+        putSubKey(key);
+        markChanged();
     }
     // 根据子健名获取子健
     public RegistryKey getSubKey(String name) {
+        ensureLoaded();
         return subKeys.get(name);
     }
     // 根据子健名删除子健
     public boolean removeSubKey(String name) {
-        return subKeys.remove(name) != null;
+        boolean removed = dropSubKey(name);
+        markChanged();
+        return removed;
     }
     // 添加键值
     public void addValue(RegistryValue value) {
-        values.put(value.getName(), value);
+        putValue(value);
+        markChanged();
     }
     // 根据键值的名字获取键值
     public RegistryValue getValue(String name) {
+        ensureLoaded();
         return values.get(name);
     }
     // 根据键值的名字删除键值
     public boolean removeValue(String name) {
-        return values.remove(name) != null;
+        boolean removed = dropValue(name);
+        markChanged();
+        return removed;
+    }
+
+    /**
+     * 绕过 Registry 的直接修改：该项及其各级祖先的修改纪元记为一个新的直接修改标记（不小于 DIRECTLY_MODIFIED），
+     * 之后的检查点重新写出这些项（其中未修改的子树仍从快照复制），直接修改不会因增量写快照而丢失
+     */
+    private void markChanged() {
+        long stamp = DIRECT_MODIFICATIONS.incrementAndGet();
+        for (RegistryKey key = this; key != null; key = key.parent) {
+            key.modifiedEpoch = stamp;
+        }
+    }
+
+    /**
+     * 检查点已写出该项修改纪元为 stamp（直接修改标记）时的内容，且快照已就位：
+     * 此后没有再被修改时把修改纪元改回 epoch，之后不再修改就可以从快照复制，不必每次都重新写出
+     */
+    void clearDirectModification(long stamp, long epoch) {
+        MODIFIED_EPOCH.compareAndSet(this, stamp, epoch);
+    }
+
+    // 以下由 Registry 的修改方法（已标记修改纪元）和快照读取器使用
+
+    void rename(String name) {
+        this.name = RegistryStrings.name(name);
+    }
+
+    synchronized void putSubKey(RegistryKey key) {
+        ensureLoaded();
+        subKeys = persistent(subKeys).plus(key.getName(), key);
+        key.parent = this;
+    }
+
+    synchronized boolean dropSubKey(String name) {
+        ensureLoaded();
+        Map<String, RegistryKey> current = subKeys;
+        Map<String, RegistryKey> updated = persistent(current).minus(name);
+        subKeys = updated;
+        RegistryKey removed = current.get(name);
+        if (removed != null && removed.parent == this) {
+            removed.parent = null;
+        }
+        return updated.size() != current.size();
+    }
+
+    synchronized void putValue(RegistryValue value) {
+        ensureLoaded();
+        values = persistent(values).plus(value.getName(), value);
+    }
+
+    synchronized boolean dropValue(String name) {
+        ensureLoaded();
+        Map<String, RegistryValue> current = values;
+        Map<String, RegistryValue> updated = persistent(current).minus(name);
+        values = updated;
+        return updated.size() != current.size();
+    }
+
+    // 获取键值集合（不可变快照）
+    public Map<String, RegistryValue> getValues() { ensureLoaded(); return values;}
+    // 获取子健集合（不可变快照）
+    public Map<String, RegistryKey> getSubKeys() { ensureLoaded(); return subKeys;}
+
+    private static <V> PersistentHashMap<String, V> persistent(Map<String, V> map) {
+        return PersistentHashMap.copyOf(map);
     }
-    // 获取键值集合,
-    public Map<String, RegistryValue> getValues() { return values;}
-    // 获取子健集合
-    public Map<String, RegistryKey> getSubKeys() { return subKeys;}
 }
@@ -0,0 +1,16 @@
+package com.shy;
+
+import java.util.List;
+
+/**
+ * 注册表变更监听器
+ * 在通知线程上回调，一次收到合并窗口内的一批事件；回调中不要长时间阻塞
+ */
+@FunctionalInterface
+public interface RegistryListener {
+
+    /**
+     * @param events  按发生顺序排列的事件，同一键值的多次修改只保留最后一次
+     */
+    void onChanges(List<RegistryEvent> events);
+}
@@ -0,0 +1,238 @@
+package com.shy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * 注册表写锁
+ * 每个顶级项（HKEY_MACHINE / HKEY_SOFTWARE / HKEY_USERS ...）拥有一组分段锁，
+ * 顶级项下的子树按第一级子项名称的哈希落到某个分段；另有一把结构锁保护顶级项集合本身
+ *
+ * 所有锁都带有创建顺序号，同时加多把锁时一律按顺序号从小到大获取，避免死锁
+ */
+final class RegistryLocks {
+
+    /**
+     * 带全局顺序号的锁
+     */
+    static final class OrderedLock implements Comparable<OrderedLock> {
+        final long order;
+        final StampedLock lock = new StampedLock();
+
+        OrderedLock(long order) {
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(OrderedLock other) {
+            return Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * 一次加锁的结果，关闭时按相反顺序释放
+     */
+    static final class Held implements AutoCloseable {
+        private final OrderedLock[] locks;
+        private final long[] stamps;
+        private final boolean write;
+
+        private Held(OrderedLock[] locks, long[] stamps, boolean write) {
+            this.locks = locks;
+            this.stamps = stamps;
+            this.write = write;
+        }
+
+        @Override
+        public void close() {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                if (write) {
+                    locks[i].lock.unlockWrite(stamps[i]);
+                } else {
+                    locks[i].lock.unlockRead(stamps[i]);
+                }
+            }
+        }
+    }
+
+    private final AtomicLong nextOrder = new AtomicLong();
+    private final int stripes;
+    private final OrderedLock structure;
+    // 分段数不大于 0 时所有顶级项共用这一把锁（退化为全局写锁）
+    private final OrderedLock[] global;
+    private final ConcurrentHashMap<String, OrderedLock[]> hives = new ConcurrentHashMap<>();
+
+    RegistryLocks(int stripes) {
+        this.stripes = stripes;
+        this.structure = new OrderedLock(nextOrder.getAndIncrement());
+        this.global = stripes > 0 ? null : new OrderedLock[]{new OrderedLock(nextOrder.getAndIncrement())};
+    }
+
+    // 顶级项集合的结构锁
+    OrderedLock structureLock() {
+        return structure;
+    }
+
+    // 顶级项的全部分段锁（按需创建，同一顶级项的分段顺序号连续）
+    OrderedLock[] hiveLocks(String hive) {
+        if (global != null) {
+            return global;
+        }
+        OrderedLock[] locks = hives.get(hive);
+        if (locks != null) {
+            return locks;
+        }
+        return hives.computeIfAbsent(hive, name -> {
+            OrderedLock[] created = new OrderedLock[stripes];
+            for (int i = 0; i < stripes; i++) {
+                created[i] = new OrderedLock(nextOrder.getAndIncrement());
+            }
+            return created;
+        });
+    }
+
+    /**
+     * 第一级子项所在的分段锁
+     * @param start  第一级子项名称在 path 中的起始位置
+     * @param end    结束位置（不含）
+     */
+    OrderedLock stripeLock(String hive, String path, int start, int end) {
+        OrderedLock[] locks = hiveLocks(hive);
+        if (locks.length == 1) {
+            return locks[0];
+        }
+        // 与 String.hashCode 相同的算法，直接在原路径上计算，避免截取子串
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + path.charAt(i);
+        }
+        return locks[(h & 0x7FFFFFFF) % locks.length];
+    }
+
+    /**
+     * 结构锁 + 给定顶级项的全部分段锁
+     * 顶级项集合只在结构锁下变化，持有结构锁时传入的集合即是完整的
+     */
+    List<OrderedLock> allLocks(Collection<String> hiveNames) {
+        List<OrderedLock> locks = new ArrayList<>();
+        locks.add(structure);
+        if (global != null) {
+            locks.add(global[0]);
+        } else {
+            for (String hive : hiveNames) {
+                locks.addAll(Arrays.asList(hiveLocks(hive)));
+            }
+        }
+        return locks;
+    }
+
+    Held lockWrite(Collection<OrderedLock> locks) {
+        return lock(locks, true);
+    }
+
+    Held lockRead(Collection<OrderedLock> locks) {
+        return lock(locks, false);
+    }
+
+    /**
+     * 对结构锁和全部顶级项的分段锁加读锁
+     * 先持有结构锁再取顶级项集合，保证期间不会有新的顶级项出现
+     */
+    Held lockAllRead(Supplier<Collection<String>> hiveNames) {
+        long structureStamp = structure.lock.readLock();
+        Held rest;
+        try {
+            List<OrderedLock> locks = allLocks(hiveNames.get());
+            rest = lockRead(locks.subList(1, locks.size()));
+        } catch (RuntimeException | Error e) {
+            structure.lock.unlockRead(structureStamp);
+            throw e;
+        }
+        OrderedLock[] ordered = new OrderedLock[rest.locks.length + 1];
+        long[] stamps = new long[ordered.length];
+        ordered[0] = structure;
+        stamps[0] = structureStamp;
+        System.arraycopy(rest.locks, 0, ordered, 1, rest.locks.length);
+        System.arraycopy(rest.stamps, 0, stamps, 1, rest.stamps.length);
+        return new Held(ordered, stamps, false);
+    }
+
+    /**
+     * 对结构锁和全部顶级项的分段锁加写锁（整体替换注册表内容时使用），加锁顺序同 lockAllRead
+     */
+    Held lockAllWrite(Supplier<Collection<String>> hiveNames) {
+        long structureStamp = structure.lock.writeLock();
+        Held rest;
+        try {
+            List<OrderedLock> locks = allLocks(hiveNames.get());
+            rest = lockWrite(locks.subList(1, locks.size()));
+        } catch (RuntimeException | Error e) {
+            structure.lock.unlockWrite(structureStamp);
+            throw e;
+        }
+        OrderedLock[] ordered = new OrderedLock[rest.locks.length + 1];
+        long[] stamps = new long[ordered.length];
+        ordered[0] = structure;
+        stamps[0] = structureStamp;
+        System.arraycopy(rest.locks, 0, ordered, 1, rest.locks.length);
+        System.arraycopy(rest.stamps, 0, stamps, 1, rest.stamps.length);
+        return new Held(ordered, stamps, true);
+    }
+
+    private static Held lock(Collection<OrderedLock> locks, boolean write) {
+        OrderedLock[] ordered = sortedDistinct(locks);
+        long[] stamps = new long[ordered.length];
+        int acquired = 0;
+        try {
+            for (; acquired < ordered.length; acquired++) {
+                StampedLock lock = ordered[acquired].lock;
+                stamps[acquired] = write ? lock.writeLock() : lock.readLock();
+            }
+        } catch (RuntimeException | Error e) {
+            new Held(Arrays.copyOf(ordered, acquired), stamps, write).close();
+            throw e;
+        }
+        return new Held(ordered, stamps, write);
+    }
+
+    /**
+     * 乐观读：返回每把锁的版本戳，任意一把处于写锁定状态时返回 null
+     */
+    static long[] tryOptimisticRead(OrderedLock[] locks) {
+        long[] stamps = new long[locks.length];
+        for (int i = 0; i < locks.length; i++) {
+            stamps[i] = locks[i].lock.tryOptimisticRead();
+            if (stamps[i] == 0) {
+                return null;
+            }
+        }
+        return stamps;
+    }
+
+    static boolean validate(OrderedLock[] locks, long[] stamps) {
+        for (int i = 0; i < locks.length; i++) {
+            if (!locks[i].lock.validate(stamps[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static OrderedLock[] sortedDistinct(Collection<OrderedLock> locks) {
+        OrderedLock[] sorted = locks.toArray(new OrderedLock[0]);
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || sorted[size - 1] != sorted[i]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
+}
@@ -0,0 +1,297 @@
+package com.shy;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 注册表运行指标：操作次数、延迟直方图、路径索引命中率、快照保存字节数与耗时；
+ * 树规模需要遍历整棵树，只作为操作（measureFootprint）按需统计
+ * 由 registry.metrics=true 开启；关闭时各记录点只读一个 final 字段，不取时间、不计数
+ *
+ * 用法：
+ * <pre>
+ * long start = metrics.start();
+ * ...
+ * metrics.record(Operation.SET_VALUE, start, success);
+ * </pre>
+ */
+public final class RegistryMetrics implements RegistryMetricsMXBean {
+
+    static final String OBJECT_NAME = "com.shy:type=Registry,name=Metrics";
+
+    /**
+     * 统计的操作
+     */
+    public enum Operation {
+        GET_KEY,
+        GET_VALUE,
+        CREATE_KEY,
+        SET_VALUE,
+        DELETE_VALUE,
+        DELETE_KEY,
+        RENAME_KEY,
+        RENAME_VALUE,
+        COMMIT,
+        SAVE,
+        LOAD
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Registry registry;
+    private final boolean enabled;
+    private final LongAdder[] counts = new LongAdder[OPERATIONS.length];
+    private final LongAdder[] failures = new LongAdder[OPERATIONS.length];
+    private final RegistryLatencyHistogram[] latencies = new RegistryLatencyHistogram[OPERATIONS.length];
+    private final LongAdder pathIndexHits = new LongAdder();
+    private final LongAdder pathIndexMisses = new LongAdder();
+    private final LongAdder lookupMisses = new LongAdder();
+    private final LongAdder totalSaveBytes = new LongAdder();
+    private volatile long lastSaveBytes;
+    private volatile long lastSaveNanos;
+    private final CopyOnWriteArrayList<RegistryMetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+    RegistryMetrics(Registry registry, boolean enabled) {
+        this.registry = registry;
+        this.enabled = enabled;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            counts[i] = new LongAdder();
+            failures[i] = new LongAdder();
+            latencies[i] = new RegistryLatencyHistogram();
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void addListener(RegistryMetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(RegistryMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    // 开始计时，关闭时返回 0
+    long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    void record(Operation operation, long start, boolean success) {
+        if (!enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        int i = operation.ordinal();
+        counts[i].increment();
+        if (!success) {
+            failures[i].increment();
+        }
+        latencies[i].record(nanos);
+        for (RegistryMetricsListener listener : listeners) {
+            listener.onOperation(operation, nanos, success);
+        }
+    }
+
+    // 日志操作码对应的统计项
+    static Operation operationOf(byte op) {
+        switch (op) {
+            case RegistryJournal.CREATE_KEY:
+                return Operation.CREATE_KEY;
+            case RegistryJournal.SET_VALUE:
+                return Operation.SET_VALUE;
+            case RegistryJournal.DELETE_VALUE:
+                return Operation.DELETE_VALUE;
+            case RegistryJournal.DELETE_KEY:
+                return Operation.DELETE_KEY;
+            case RegistryJournal.RENAME_KEY:
+                return Operation.RENAME_KEY;
+            case RegistryJournal.RENAME_VALUE:
+                return Operation.RENAME_VALUE;
+            default:
+                return Operation.COMMIT;
+        }
+    }
+
+    void recordIndexLookup(boolean hit) {
+        if (enabled) {
+            (hit ? pathIndexHits : pathIndexMisses).increment();
+        }
+    }
+
+    void recordLookupMiss() {
+        if (enabled) {
+            lookupMisses.increment();
+        }
+    }
+
+    void recordSave(long start, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        record(Operation.SAVE, start, true);
+        long nanos = System.nanoTime() - start;
+        lastSaveBytes = bytes;
+        lastSaveNanos = nanos;
+        totalSaveBytes.add(bytes);
+        for (RegistryMetricsListener listener : listeners) {
+            listener.onSave(bytes, nanos);
+        }
+    }
+
+    /**
+     * 注册到平台 MBeanServer；已存在同名对象时替换
+     */
+    void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            System.err.println("注册表指标注册到 JMX 失败: " + e.getMessage());
+        }
+    }
+
+    public long getCount(Operation operation) {
+        return counts[operation.ordinal()].sum();
+    }
+
+    public long getFailures(Operation operation) {
+        return failures[operation.ordinal()].sum();
+    }
+
+    public double getMeanLatencyNanos(Operation operation) {
+        return latencies[operation.ordinal()].getMeanNanos();
+    }
+
+    public long getPercentileLatencyNanos(Operation operation, double percentile) {
+        return latencies[operation.ordinal()].getPercentileNanos(percentile);
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS) {
+            result.put(operation.name(), getCount(operation));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getFailureCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS) {
+            result.put(operation.name(), getFailures(operation));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyMicros() {
+        return latencyMicros(RegistryLatencyHistogram::getMeanNanos);
+    }
+
+    @Override
+    public Map<String, Double> getP50LatencyMicros() {
+        return latencyMicros(histogram -> histogram.getPercentileNanos(50));
+    }
+
+    @Override
+    public Map<String, Double> getP99LatencyMicros() {
+        return latencyMicros(histogram -> histogram.getPercentileNanos(99));
+    }
+
+    private Map<String, Double> latencyMicros(ToDoubleFunction<RegistryLatencyHistogram> nanos) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS) {
+            result.put(operation.name(), nanos.applyAsDouble(latencies[operation.ordinal()]) / 1000.0);
+        }
+        return result;
+    }
+
+    @Override
+    public long getPathIndexHits() {
+        return pathIndexHits.sum();
+    }
+
+    @Override
+    public long getPathIndexMisses() {
+        return pathIndexMisses.sum();
+    }
+
+    @Override
+    public long getLookupMisses() {
+        return lookupMisses.sum();
+    }
+
+    @Override
+    public long getSaveCount() {
+        return getCount(Operation.SAVE);
+    }
+
+    @Override
+    public long getLastSaveBytes() {
+        return lastSaveBytes;
+    }
+
+    @Override
+    public long getTotalSaveBytes() {
+        return totalSaveBytes.sum();
+    }
+
+    @Override
+    public double getLastSaveMillis() {
+        return lastSaveNanos / 1_000_000.0;
+    }
+
+    @Override
+    public long getPathIndexSize() {
+        return registry.pathIndexSize();
+    }
+
+    @Override
+    public long getJournalBytes() {
+        return registry.journalBytes();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            counts[i].reset();
+            failures[i].reset();
+            latencies[i].reset();
+        }
+        pathIndexHits.reset();
+        pathIndexMisses.reset();
+        lookupMisses.reset();
+        totalSaveBytes.reset();
+        lastSaveBytes = 0;
+        lastSaveNanos = 0;
+    }
+
+    @Override
+    public Map<String, Long> measureFootprint() {
+        RegistryFootprint footprint = registry.footprint();
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("keys", footprint.getKeyCount());
+        result.put("unloadedKeys", footprint.getUnloadedKeyCount());
+        result.put("values", footprint.getValueCount());
+        result.put("estimatedBytes", footprint.getEstimatedBytes());
+        return result;
+    }
+}
@@ -0,0 +1,20 @@
+package com.shy;
+
+/**
+ * 注册表指标监听器
+ * 在执行操作的线程上同步回调，实现应尽量轻量（例如转发给外部监控系统的计数器）
+ */
+public interface RegistryMetricsListener {
+
+    /**
+     * 一次操作完成
+     * @param success  操作是否成功（查找未命中、修改条件不满足均视为不成功）
+     */
+    void onOperation(RegistryMetrics.Operation operation, long nanos, boolean success);
+
+    /**
+     * 一次快照保存完成
+     */
+    default void onSave(long bytes, long nanos) {
+    }
+}
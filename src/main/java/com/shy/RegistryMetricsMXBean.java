@@ -0,0 +1,52 @@
+package com.shy;
+
+import java.util.Map;
+
+/**
+ * 注册表指标的 JMX 接口（对象名 com.shy:type=Registry,name=Metrics）
+ * 延迟单位为微秒，百分位按 2 的幂分桶估算
+ */
+public interface RegistryMetricsMXBean {
+
+    boolean isEnabled();
+
+    // 各操作的调用次数
+    Map<String, Long> getOperationCounts();
+
+    // 各操作不成功的次数
+    Map<String, Long> getFailureCounts();
+
+    Map<String, Double> getMeanLatencyMicros();
+
+    Map<String, Double> getP50LatencyMicros();
+
+    Map<String, Double> getP99LatencyMicros();
+
+    // 路径索引命中 / 未命中（未命中时逐段查找）次数
+    long getPathIndexHits();
+
+    long getPathIndexMisses();
+
+    // 查找的路径不存在的次数
+    long getLookupMisses();
+
+    long getSaveCount();
+
+    long getLastSaveBytes();
+
+    long getTotalSaveBytes();
+
+    double getLastSaveMillis();
+
+    long getPathIndexSize();
+
+    long getJournalBytes();
+
+    void reset();
+
+    /**
+     * 统计注册表项、键值个数和估算的堆内存占用（keys、unloadedKeys、values、estimatedBytes）
+     * 需要遍历整棵树，是操作而不是属性，不会被监控轮询反复触发
+     */
+    Map<String, Long> measureFootprint();
+}
@@ -0,0 +1,70 @@
+package com.shy;
+
+/**
+ * 注册表路径工具
+ * 路径以反斜杠分隔（如 HKEY_SOFTWARE\DATABASE\Redis），这里只用 indexOf 逐段扫描，不走正则
+ */
+final class RegistryPath {
+
+    static final char SEPARATOR = '\\';
+
+    private RegistryPath() {
+    }
+
+    /**
+     * 第一段结束的位置（不存在分隔符时为路径长度）
+     */
+    static int firstSegmentEnd(String path) {
+        int end = path.indexOf(SEPARATOR);
+        return end < 0 ? path.length() : end;
+    }
+
+    /**
+     * 从 start 开始的下一段结束的位置
+     */
+    static int segmentEnd(String path, int start) {
+        int end = path.indexOf(SEPARATOR, start);
+        return end < 0 ? path.length() : end;
+    }
+
+    /**
+     * 取出 [start, end) 这一段，整条路径只有一段时不复制字符串
+     */
+    static String segment(String path, int start, int end) {
+        return start == 0 && end == path.length() ? path : path.substring(start, end);
+    }
+
+    /**
+     * 父路径，顶级路径返回 null
+     */
+    static String parent(String path) {
+        int separator = path.lastIndexOf(SEPARATOR);
+        return separator < 0 ? null : path.substring(0, separator);
+    }
+
+    /**
+     * 路径的最后一段
+     */
+    static String name(String path) {
+        return path.substring(path.lastIndexOf(SEPARATOR) + 1);
+    }
+
+    /**
+     * 拼接子路径
+     */
+    static String child(String parentPath, String name) {
+        return new StringBuilder(parentPath.length() + 1 + name.length())
+                .append(parentPath).append(SEPARATOR).append(name).toString();
+    }
+
+    /**
+     * 去掉结尾多余的分隔符（与原先 split 丢弃结尾空段的行为一致）
+     */
+    static String trimTrailingSeparators(String path) {
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == SEPARATOR) {
+            end--;
+        }
+        return end == path.length() ? path : path.substring(0, end);
+    }
+}
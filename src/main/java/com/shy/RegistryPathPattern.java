@@ -0,0 +1,268 @@
+package com.shy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * 注册表路径通配符模式
+ *
+ * 以反斜杠分隔的各段依次匹配各级注册表项名称：
+ * 不含通配符的段按名称直接查找子项；段中的 * 匹配任意个字符、? 匹配一个字符（不跨越分隔符）；
+ * 单独的 ** 匹配零到多级注册表项。查询键值时最后一段匹配键值名称，其余各段匹配注册表项。
+ * 例如 HKEY_SOFTWARE\DATABASE\*\*_port、HKEY_MACHINE\Memory\Area\**
+ *
+ * 注册表本身就是按路径段组织的树，匹配时直接在树上深度优先遍历，同时记录模式中所有可能的位置（NFA 状态集合），
+ * 每个注册表项只访问一次；状态集合为空的子树整棵跳过，所有状态都停在不含通配符的段上时只按名称查找子项。
+ * 遍历是惰性的：只有下游取下一个结果时才继续
+ */
+final class RegistryPathPattern {
+
+    private static final String RECURSIVE = "**";
+
+    /**
+     * 模式中的一段
+     */
+    private static final class Segment {
+        final String text;
+        final boolean literal;
+        final boolean recursive;
+
+        Segment(String text) {
+            this.text = text;
+            this.recursive = text.equals(RECURSIVE);
+            this.literal = !recursive && text.indexOf('*') < 0 && text.indexOf('?') < 0;
+        }
+
+        boolean matches(String name) {
+            return literal ? text.equals(name) : glob(text, name);
+        }
+    }
+
+    // 匹配注册表项的各段
+    private final Segment[] keySegments;
+    // 匹配键值名称的段，只查询注册表项时为 null
+    private final Segment valueSegment;
+
+    private RegistryPathPattern(Segment[] keySegments, Segment valueSegment) {
+        this.keySegments = keySegments;
+        this.valueSegment = valueSegment;
+    }
+
+    /**
+     * @param forValues  最后一段是否匹配键值名称
+     * @throws IllegalArgumentException  模式为空、含空段，或查询键值时最后一段为 **
+     */
+    static RegistryPathPattern compile(String pattern, boolean forValues) {
+        String trimmed = RegistryPath.trimTrailingSeparators(pattern);
+        if (trimmed.isEmpty()) {
+            throw new IllegalArgumentException("查询模式不能为空");
+        }
+        List<Segment> segments = new ArrayList<>();
+        int start = 0;
+        while (start <= trimmed.length()) {
+            int end = RegistryPath.segmentEnd(trimmed, start);
+            String text = trimmed.substring(start, end);
+            if (text.isEmpty()) {
+                throw new IllegalArgumentException("查询模式中有空的路径段: " + pattern);
+            }
+            // 相邻的多个 ** 与一个等价
+            if (!(text.equals(RECURSIVE) && !segments.isEmpty() && segments.get(segments.size() - 1).recursive)) {
+                segments.add(new Segment(text));
+            }
+            start = end + 1;
+        }
+        Segment valueSegment = null;
+        if (forValues) {
+            valueSegment = segments.remove(segments.size() - 1);
+            if (valueSegment.recursive || segments.isEmpty()) {
+                throw new IllegalArgumentException("查询键值的模式须为 注册表项路径\\键值名称: " + pattern);
+            }
+        }
+        return new RegistryPathPattern(segments.toArray(new Segment[0]), valueSegment);
+    }
+
+    /**
+     * 在 topLevelKeys 下惰性求值的结果
+     */
+    Spliterator<RegistryQueryResult> spliterator(Map<String, RegistryKey> topLevelKeys) {
+        return new Matches(topLevelKeys);
+    }
+
+    // 从 states 中的各位置出发，读入名为 name 的一级注册表项后可能到达的位置
+    private BitSet step(BitSet states, String name) {
+        BitSet next = new BitSet(keySegments.length + 1);
+        for (int i = states.nextSetBit(0); i >= 0 && i < keySegments.length; i = states.nextSetBit(i + 1)) {
+            Segment segment = keySegments[i];
+            if (segment.recursive) {
+                next.set(i);  // ** 再吞下一级
+            } else if (segment.matches(name)) {
+                next.set(i + 1);
+            }
+        }
+        return closure(next);
+    }
+
+    // ** 可以匹配零级，位于 ** 上时同时位于它的下一段
+    private BitSet closure(BitSet states) {
+        for (int i = states.nextSetBit(0); i >= 0 && i < keySegments.length; i = states.nextSetBit(i + 1)) {
+            if (keySegments[i].recursive) {
+                states.set(i + 1);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * 处于 states 的注册表项需要检查的子项：所有未结束的位置都是普通名称时只按名称查找，否则遍历全部子项
+     */
+    private Iterator<RegistryKey> candidates(Map<String, RegistryKey> children, BitSet states) {
+        List<RegistryKey> named = null;
+        for (int i = states.nextSetBit(0); i >= 0 && i < keySegments.length; i = states.nextSetBit(i + 1)) {
+            Segment segment = keySegments[i];
+            if (!segment.literal) {
+                return children.values().iterator();
+            }
+            RegistryKey child = children.get(segment.text);
+            if (child != null) {
+                if (named == null) {
+                    named = new ArrayList<>(2);
+                }
+                if (!named.contains(child)) {
+                    named.add(child);
+                }
+            }
+        }
+        return named == null ? Collections.<RegistryKey>emptyIterator() : named.iterator();
+    }
+
+    // 是否还有未结束的位置（需要继续向下匹配）
+    private boolean expectsMore(BitSet states) {
+        int first = states.nextSetBit(0);
+        return first >= 0 && first < keySegments.length;
+    }
+
+    /**
+     * 深度优先的惰性遍历：栈中每一层是一个待检查子项的迭代器及父项的状态集合
+     */
+    private final class Matches extends Spliterators.AbstractSpliterator<RegistryQueryResult> {
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        // 当前匹配项中尚未检查的键值
+        private Iterator<RegistryValue> values;
+        private RegistryKey valuesKey;
+        private String valuesKeyPath;
+
+        Matches(Map<String, RegistryKey> topLevelKeys) {
+            super(Long.MAX_VALUE, Spliterator.NONNULL | Spliterator.DISTINCT);
+            BitSet start = new BitSet(keySegments.length + 1);
+            start.set(0);
+            closure(start);
+            stack.push(new Frame(candidates(topLevelKeys, start), start, null));
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super RegistryQueryResult> action) {
+            while (true) {
+                if (values != null) {
+                    RegistryValue value = nextMatchingValue();
+                    if (value != null) {
+                        action.accept(new RegistryQueryResult(valuesKeyPath, valuesKey, value));
+                        return true;
+                    }
+                    values = null;
+                }
+                Frame frame = stack.peek();
+                if (frame == null) {
+                    return false;
+                }
+                if (!frame.children.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                RegistryKey key = frame.children.next();
+                BitSet states = step(frame.states, key.getName());
+                if (states.isEmpty()) {
+                    continue;  // 整棵子树都不可能匹配
+                }
+                String path = frame.path == null ? key.getName() : RegistryPath.child(frame.path, key.getName());
+                if (expectsMore(states)) {
+                    stack.push(new Frame(candidates(key.getSubKeys(), states), states, path));
+                }
+                if (states.get(keySegments.length)) {
+                    if (valueSegment == null) {
+                        action.accept(new RegistryQueryResult(path, key, null));
+                        return true;
+                    }
+                    valuesKey = key;
+                    valuesKeyPath = path;
+                    values = valueSegment.literal
+                            ? singleValue(key, valueSegment.text)
+                            : key.getValues().values().iterator();
+                }
+            }
+        }
+
+        private RegistryValue nextMatchingValue() {
+            while (values.hasNext()) {
+                RegistryValue value = values.next();
+                if (valueSegment.matches(value.getName())) {
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static Iterator<RegistryValue> singleValue(RegistryKey key, String name) {
+        RegistryValue value = key.getValue(name);
+        return value == null ? Collections.<RegistryValue>emptyIterator() : Collections.singleton(value).iterator();
+    }
+
+    private static final class Frame {
+        final Iterator<RegistryKey> children;
+        final BitSet states;
+        final String path;
+
+        Frame(Iterator<RegistryKey> children, BitSet states, String path) {
+            this.children = children;
+            this.states = states;
+            this.path = path;
+        }
+    }
+
+    /**
+     * 通配符匹配：* 匹配任意个字符，? 匹配一个字符（失配时只回溯到最近的一个 *，不递归）
+     */
+    static boolean glob(String pattern, String text) {
+        int p = 0;
+        int t = 0;
+        int star = -1;
+        int resume = 0;
+        while (t < text.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == text.charAt(t))) {
+                p++;
+                t++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                resume = t;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++resume;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+}
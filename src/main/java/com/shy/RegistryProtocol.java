@@ -0,0 +1,147 @@
+package com.shy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 注册表服务的二进制协议（RegistryServer 与 RegistryClient 共用）
+ *
+ * 帧格式：[int 帧长度（不含本字段）][int 请求编号][byte 操作码或状态码][int 参数个数]{[int 字节数][UTF-8 字节]}...
+ * 字节数为 -1 表示 null，与日志中的字符串编码相同。
+ * 请求和响应用请求编号对应，客户端可以连续发送多个请求而不等待响应（流水线）；
+ * 同一连接上的请求按发送顺序执行，响应也按该顺序发出。
+ * 监视注册成功后，变更以 EVENT 帧推送，请求编号为 WATCH 请求的编号，每个事件占四个参数：类型、项路径、键值名称、新名称
+ */
+final class RegistryProtocol {
+
+    // 请求操作码
+    static final byte GET_VALUE = 1;      // (keyPath, valueName) -> (type, value)
+    static final byte SET_VALUE = 2;      // (keyPath, valueName, type, value)
+    static final byte CREATE_KEY = 3;     // (keyPath)
+    static final byte DELETE_VALUE = 4;   // (keyPath, valueName)
+    static final byte DELETE_KEY = 5;     // (keyPath)
+    static final byte LIST_KEYS = 6;      // (keyPath，空串表示顶级项) -> (子项名称...)
+    static final byte LIST_VALUES = 7;    // (keyPath) -> (名称, 类型, 值)...
+    static final byte WATCH = 8;          // (keyPath, "1" 递归 / "0")
+    static final byte UNWATCH = 9;        // (WATCH 请求的编号)
+
+    // 响应状态码
+    static final byte OK = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte FAILED = 2;        // 操作未生效（如路径不存在）
+    static final byte ERROR = 3;         // (错误信息)
+    static final byte EVENT = 4;
+
+    // 单帧上限，超过时视为协议错误并断开连接
+    static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private static final String[] NO_ARGS = new String[0];
+
+    /**
+     * 解码后的一帧
+     */
+    static final class Frame {
+        final int id;
+        final byte code;
+        final String[] args;
+
+        Frame(int id, byte code, String[] args) {
+            this.id = id;
+            this.code = code;
+            this.args = args;
+        }
+
+        String arg(int index) throws IOException {
+            if (index >= args.length) {
+                throw new IOException("缺少第 " + (index + 1) + " 个参数，操作码 " + code);
+            }
+            return args[index];
+        }
+    }
+
+    private RegistryProtocol() {
+    }
+
+    /**
+     * 编码一帧，返回可直接写出的缓冲区
+     */
+    static ByteBuffer encode(int id, byte code, String... args) {
+        if (args == null) {
+            args = NO_ARGS;
+        }
+        byte[][] encoded = new byte[args.length][];
+        int size = 4 + 1 + 4;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] != null) {
+                encoded[i] = args[i].getBytes(StandardCharsets.UTF_8);
+                size += encoded[i].length;
+            }
+            size += 4;
+        }
+        if (size > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("帧过大: " + size + " 字节");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + size);
+        buffer.putInt(size).putInt(id).put(code).putInt(args.length);
+        for (byte[] bytes : encoded) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(bytes.length).put(bytes);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 从 in（读模式）中解出一帧；数据不足一帧时不移动位置并返回 null
+     * @throws IOException  帧长度或内容不合法
+     */
+    static Frame decode(ByteBuffer in) throws IOException {
+        if (in.remaining() < 4) {
+            return null;
+        }
+        int start = in.position();
+        int size = in.getInt(start);
+        if (size < 9 || size > MAX_FRAME_SIZE) {
+            throw new IOException("非法的帧长度: " + size);
+        }
+        if (in.remaining() < 4 + size) {
+            return null;
+        }
+        int end = start + 4 + size;
+        in.position(start + 4);
+        int id = in.getInt();
+        byte code = in.get();
+        int count = in.getInt();
+        if (count < 0 || count > (size - 9) / 4) {
+            throw new IOException("非法的参数个数: " + count);
+        }
+        String[] args = count == 0 ? NO_ARGS : new String[count];
+        for (int i = 0; i < count; i++) {
+            if (end - in.position() < 4) {
+                throw new IOException("帧内容不完整");
+            }
+            int length = in.getInt();
+            if (length < 0) {
+                continue;
+            }
+            if (length > end - in.position()) {
+                throw new IOException("帧内容不完整");
+            }
+            args[i] = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+        in.position(end);
+        return new Frame(id, code, args);
+    }
+
+    /**
+     * 帧完整时需要的缓冲区容量（in 为读模式，至少含 4 字节长度）
+     */
+    static int frameCapacity(ByteBuffer in) {
+        return in.remaining() < 4 ? 4 : 4 + in.getInt(in.position());
+    }
+}
@@ -0,0 +1,41 @@
+package com.shy;
+
+/**
+ * 通配符查询的一条结果：匹配的注册表项，或匹配的键值及其所在的项
+ */
+public final class RegistryQueryResult {
+
+    private final String keyPath;
+    private final RegistryKey key;
+    private final RegistryValue value;
+
+    RegistryQueryResult(String keyPath, RegistryKey key, RegistryValue value) {
+        this.keyPath = keyPath;
+        this.key = key;
+        this.value = value;
+    }
+
+    // 注册表项路径（匹配键值时为键值所在的项）
+    public String getKeyPath() {
+        return keyPath;
+    }
+
+    public RegistryKey getKey() {
+        return key;
+    }
+
+    // 匹配的键值，查询注册表项时为 null
+    public RegistryValue getValue() {
+        return value;
+    }
+
+    // 匹配的键值名称，查询注册表项时为 null
+    public String getValueName() {
+        return value == null ? null : value.getName();
+    }
+
+    @Override
+    public String toString() {
+        return value == null ? keyPath : keyPath + " [" + value.getName() + "] = " + value.getValue();
+    }
+}
@@ -0,0 +1,99 @@
+package com.shy;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编辑器的后台保存
+ * 每次修改后调用 requestSave，保存在延迟 registry.editor.saveDelayMillis 之后于后台线程执行，
+ * 这段时间内的多次修改合并为一次保存；保存进行中又有修改时，在它之后再安排一次。
+ * 保存只在一个线程上依次执行，不会重叠
+ */
+final class RegistrySaveScheduler {
+
+    /**
+     * 保存状态回调（在保存线程上调用）
+     */
+    interface Listener {
+        void saving();
+
+        void saved();
+
+        void failed(IOException e);
+    }
+
+    private final Registry registry;
+    private final long delayMillis;
+    private final Listener listener;
+    private final ScheduledThreadPoolExecutor executor;
+    // 已安排但尚未开始的保存
+    private ScheduledFuture<?> pending;
+
+    RegistrySaveScheduler(Registry registry, long delayMillis, Listener listener) {
+        this.registry = registry;
+        this.delayMillis = delayMillis;
+        this.listener = listener;
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "registry-editor-save");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 安排一次延迟保存；已有尚未开始的保存时，本次修改会由它一并保存
+     */
+    synchronized void requestSave() {
+        if (pending == null && !executor.isShutdown()) {
+            pending = executor.schedule(this::save, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 立即保存（取代尚未开始的延迟保存）
+     */
+    synchronized Future<?> saveNow() {
+        cancelPending();
+        return executor.submit(this::save);
+    }
+
+    /**
+     * 保存尚未保存的修改并停止保存线程，最多等待 timeoutMillis
+     * @return  保存在时限内完成返回 true
+     */
+    boolean close(long timeoutMillis) throws InterruptedException {
+        synchronized (this) {
+            if (pending != null) {
+                cancelPending();
+                executor.submit(this::save);
+            }
+            executor.shutdown();
+        }
+        return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    private void save() {
+        synchronized (this) {
+            // 从这里开始的修改需要下一次保存
+            pending = null;
+        }
+        listener.saving();
+        try {
+            registry.flush();
+            listener.saved();
+        } catch (IOException e) {
+            listener.failed(e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.shy;
+
+/**
+ * 全文检索的一条结果
+ */
+public final class RegistrySearchHit {
+
+    /**
+     * 匹配的位置
+     */
+    public enum Field {
+        KEY_NAME,
+        VALUE_NAME,
+        VALUE_DATA
+    }
+
+    private final String keyPath;
+    private final String valueName;
+    private final Field field;
+
+    RegistrySearchHit(String keyPath, String valueName, Field field) {
+        this.keyPath = keyPath;
+        this.valueName = valueName;
+        this.field = field;
+    }
+
+    // 匹配的注册表项路径（匹配键值时为键值所在的项）
+    public String getKeyPath() {
+        return keyPath;
+    }
+
+    // 匹配的键值名称，匹配注册表项名称时为 null
+    public String getValueName() {
+        return valueName;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    @Override
+    public String toString() {
+        return valueName == null ? keyPath : keyPath + " [" + valueName + "]";
+    }
+}
@@ -0,0 +1,308 @@
+package com.shy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 注册表全文检索的倒排索引：词 -> 包含该词的注册表项名称或键值（名称与数据）
+ *
+ * 条目直接引用 RegistryKey，路径在查询时经 getFullPath 求出，因此重命名上级项不需要更新子树的条目。
+ * 首次查询时在所有读锁下一次性建立（会把内存映射中尚未加载的子树全部读入），
+ * 之后由 Registry 的各个修改方法在写锁内增量维护；不同分段的写操作可以并行更新索引。
+ *
+ * 分词：连续的字母数字为一个词（转为小写，过长时截断），汉字等表意文字每个字单独成词，其他字符是分隔符。
+ * 查询同样分词，取各词条目的交集（最后一个词按前缀匹配），再逐条核对原文是否包含整个查询串
+ */
+final class RegistrySearchIndex {
+
+    // 超过该长度的词只索引前缀（长的十六进制数据等），核对原文时仍按完整查询比较
+    private static final int MAX_TERM_LENGTH = 64;
+
+    /**
+     * 索引条目：valueName 为 null 表示注册表项名称本身，否则为该项下的一个键值
+     */
+    private static final class Posting {
+        final RegistryKey key;
+        final String valueName;
+
+        Posting(RegistryKey key, String valueName) {
+            this.key = key;
+            this.valueName = valueName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Posting)) {
+                return false;
+            }
+            Posting other = (Posting) o;
+            return key == other.key && (valueName == null ? other.valueName == null : valueName.equals(other.valueName));
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key) * 31 + (valueName == null ? 0 : valueName.hashCode());
+        }
+    }
+
+    // 词 -> 条目集合；条目全部移除后空集合留在词典中，不影响查询结果
+    private final NavigableMap<String, Set<Posting>> terms = new ConcurrentSkipListMap<>();
+    private volatile boolean built;
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * 索引 topLevelKeys 下的全部内容；调用方需持有所有读锁，保证期间没有修改
+     */
+    synchronized void build(Map<String, RegistryKey> topLevelKeys) {
+        if (built) {
+            return;
+        }
+        for (RegistryKey topKey : topLevelKeys.values()) {
+            addSubtree(topKey);
+        }
+        built = true;
+    }
+
+    //---------------------------- 以下由 Registry 在写锁内调用，索引未建立时什么也不做 ----------------------------
+
+    // 新建了一个（尚无子项和键值的）注册表项
+    void keyAdded(RegistryKey key) {
+        if (built) {
+            add(key.getName(), new Posting(key, null));
+        }
+    }
+
+    // 整棵子树挂入注册表（撤销删除时）
+    void subtreeAdded(RegistryKey key) {
+        if (built) {
+            addSubtree(key);
+        }
+    }
+
+    // 整棵子树从注册表中摘除
+    void subtreeRemoved(RegistryKey key) {
+        if (!built) {
+            return;
+        }
+        remove(key.getName(), new Posting(key, null));
+        for (RegistryValue value : key.getValues().values()) {
+            removeValue(key, value);
+        }
+        for (RegistryKey subKey : key.getSubKeys().values()) {
+            subtreeRemoved(subKey);
+        }
+    }
+
+    void keyRenamed(RegistryKey key, String oldName) {
+        if (built) {
+            remove(oldName, new Posting(key, null));
+            add(key.getName(), new Posting(key, null));
+        }
+    }
+
+    // 键值被替换（previous 为 null 表示新增，current 为 null 表示删除）
+    void valueReplaced(RegistryKey key, RegistryValue previous, RegistryValue current) {
+        if (!built) {
+            return;
+        }
+        if (previous != null) {
+            removeValue(key, previous);
+        }
+        if (current != null) {
+            addValue(key, current);
+        }
+    }
+
+    //---------------------------- 查询 ----------------------------
+
+    /**
+     * 查找名称或数据包含 query（不区分大小写）的注册表项和键值，最多返回 limit 条，顺序不固定
+     */
+    List<RegistrySearchHit> search(String query, int limit) {
+        String needle = query.trim().toLowerCase(Locale.ROOT);
+        List<String> queryTerms = new ArrayList<>(tokenize(needle));
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // 先取条目最少的词作为候选，其余各词逐个过滤
+        List<Set<Posting>> sets = new ArrayList<>();
+        for (int i = 0; i < queryTerms.size(); i++) {
+            String term = queryTerms.get(i);
+            boolean last = i == queryTerms.size() - 1;
+            // 查询串以字母数字结尾时，最后一个词可能只是某个词的前缀
+            Set<Posting> set = last && endsInWord(needle) ? prefixPostings(term) : terms.get(term);
+            if (set == null || set.isEmpty()) {
+                return Collections.emptyList();
+            }
+            sets.add(set);
+        }
+        Set<Posting> smallest = sets.get(0);
+        for (Set<Posting> set : sets) {
+            if (set.size() < smallest.size()) {
+                smallest = set;
+            }
+        }
+
+        List<RegistrySearchHit> hits = new ArrayList<>();
+        for (Posting posting : smallest) {
+            if (hits.size() >= limit) {
+                break;
+            }
+            boolean inAll = true;
+            for (Set<Posting> set : sets) {
+                if (set != smallest && !set.contains(posting)) {
+                    inAll = false;
+                    break;
+                }
+            }
+            if (inAll) {
+                RegistrySearchHit hit = verify(posting, needle);
+                if (hit != null) {
+                    hits.add(hit);
+                }
+            }
+        }
+        return hits;
+    }
+
+    // 核对原文；条目可能是查询期间刚被修改的，以当前内容为准
+    private static RegistrySearchHit verify(Posting posting, String needle) {
+        RegistryKey key = posting.key;
+        if (posting.valueName == null) {
+            return contains(key.getName(), needle)
+                    ? new RegistrySearchHit(key.getFullPath(), null, RegistrySearchHit.Field.KEY_NAME) : null;
+        }
+        RegistryValue value = key.getValue(posting.valueName);
+        if (value == null) {
+            return null;
+        }
+        if (contains(value.getName(), needle)) {
+            return new RegistrySearchHit(key.getFullPath(), value.getName(), RegistrySearchHit.Field.VALUE_NAME);
+        }
+        if (contains(value.getValue(), needle)) {
+            return new RegistrySearchHit(key.getFullPath(), value.getName(), RegistrySearchHit.Field.VALUE_DATA);
+        }
+        return null;
+    }
+
+    private static boolean contains(String text, String needle) {
+        return text != null && text.toLowerCase(Locale.ROOT).contains(needle);
+    }
+
+    // 以 prefix 开头的所有词的条目并集
+    private Set<Posting> prefixPostings(String prefix) {
+        NavigableMap<String, Set<Posting>> range = terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        Set<Posting> first = null;
+        Set<Posting> union = null;
+        for (Set<Posting> set : range.values()) {
+            if (set.isEmpty()) {
+                continue;
+            }
+            if (first == null) {
+                first = set;
+                continue;
+            }
+            if (union == null) {
+                union = new HashSet<>(first);
+            }
+            union.addAll(set);
+        }
+        return union != null ? union : first;
+    }
+
+    private static boolean endsInWord(String text) {
+        int last = text.codePointBefore(text.length());
+        return Character.isLetterOrDigit(last) && !Character.isIdeographic(last);
+    }
+
+    //---------------------------- 维护 ----------------------------
+
+    private void addSubtree(RegistryKey key) {
+        add(key.getName(), new Posting(key, null));
+        for (RegistryValue value : key.getValues().values()) {
+            addValue(key, value);
+        }
+        for (RegistryKey subKey : key.getSubKeys().values()) {
+            addSubtree(subKey);
+        }
+    }
+
+    private void addValue(RegistryKey key, RegistryValue value) {
+        Posting posting = new Posting(key, value.getName());
+        add(value.getName(), posting);
+        add(value.getValue(), posting);
+    }
+
+    private void removeValue(RegistryKey key, RegistryValue value) {
+        Posting posting = new Posting(key, value.getName());
+        remove(value.getName(), posting);
+        remove(value.getValue(), posting);
+    }
+
+    private void add(String text, Posting posting) {
+        if (text == null) {
+            return;
+        }
+        for (String term : tokenize(text.toLowerCase(Locale.ROOT))) {
+            terms.computeIfAbsent(term, t -> ConcurrentHashMap.newKeySet()).add(posting);
+        }
+    }
+
+    private void remove(String text, Posting posting) {
+        if (text == null) {
+            return;
+        }
+        for (String term : tokenize(text.toLowerCase(Locale.ROOT))) {
+            Set<Posting> set = terms.get(term);
+            if (set != null) {
+                set.remove(posting);
+            }
+        }
+    }
+
+    /**
+     * 把（已转为小写的）文本切成词，同一文本中重复的词只出现一次
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int c = text.codePointAt(i);
+            if (Character.isIdeographic(c)) {
+                result.add(new String(Character.toChars(c)));
+                i += Character.charCount(c);
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length) {
+                    int d = text.codePointAt(i);
+                    if (!Character.isLetterOrDigit(d) || Character.isIdeographic(d)) {
+                        break;
+                    }
+                    i += Character.charCount(d);
+                }
+                int end = Math.min(i, start + MAX_TERM_LENGTH);
+                if (end < i && Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end--;
+                }
+                result.add(text.substring(start, end));
+            } else {
+                i += Character.charCount(c);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,463 @@
+package com.shy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 注册表服务：一个进程持有注册表，同一节点上的其他进程经 RegistryClient 访问，不再各自加载一份
+ *
+ * 一个选择器线程负责所有连接的接受、读取和写出（非阻塞 NIO），解出的请求交给工作线程执行：
+ * 同一连接的请求按顺序串行执行（先写后读能读到自己的写入），不同连接之间并行；
+ * 写操作可能等待日志落盘，因此不在选择器线程上执行。
+ * 某个连接待写出的数据过多（客户端不读取响应）时暂停读取它的请求，直到积压写出；
+ * 暂停读取挡不住变更通知，积压超过 MAX_QUEUED_OUTPUT 时断开该连接，客户端重连后重新监视。
+ * 接受或登记单个连接失败（如文件描述符耗尽）只放弃该连接，稍后再接受新连接，不影响其他连接
+ *
+ * 启动：java -cp registry.jar com.shy.RegistryServer [端口]，默认只监听本机（registry.server.host）
+ */
+public final class RegistryServer implements AutoCloseable {
+
+    // 待写出的数据超过该值时暂停读取该连接
+    private static final int MAX_PENDING_OUTPUT = 4 * 1024 * 1024;
+    // 待写出的数据超过该值时断开连接（只可能是不读取的客户端上积压的变更通知）
+    private static final int MAX_QUEUED_OUTPUT = 64 * 1024 * 1024;
+    // 接受连接失败后暂停接受的时间（毫秒），避免连接一直就绪时空转
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Registry registry;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+    private final SelectionKey acceptKey;
+    // 接受连接失败后恢复接受的时间，0 表示正常接受（只由选择器线程访问）
+    private long acceptPausedUntil;
+    // 有数据待写出、需要选择器线程处理的连接
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    private RegistryServer(Registry registry, InetSocketAddress address) throws IOException {
+        this.registry = registry;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            this.acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        this.workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "registry-server-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.selectorThread = new Thread(this::selectLoop, "registry-server-selector");
+        this.selectorThread.setDaemon(true);
+    }
+
+    /**
+     * 在 address 上启动服务（端口为 0 时由系统分配，可通过 getAddress 取得）
+     */
+    public static RegistryServer start(Registry registry, InetSocketAddress address) throws IOException {
+        RegistryServer server = new RegistryServer(registry, address);
+        server.selectorThread.start();
+        return server;
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * 停止服务：关闭所有连接（及其监视），不影响注册表本身
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                if (acceptPausedUntil == 0) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1, acceptPausedUntil - System.currentTimeMillis()));
+                    if (System.currentTimeMillis() >= acceptPausedUntil) {
+                        acceptPausedUntil = 0;
+                        acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                    }
+                }
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    pending.flush();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (CancelledKeyException e) {
+                        // 其他线程刚关闭了这个连接
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("注册表服务选择器出错: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("关闭注册表服务失败: " + e.getMessage());
+            }
+        }
+    }
+
+    // 接受一个连接；失败时只放弃这个连接，接受本身出错（如文件描述符耗尽）时暂停接受片刻
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+        } catch (IOException e) {
+            System.err.println("接受注册表服务连接失败，" + ACCEPT_RETRY_MILLIS + " 毫秒后重试: " + e.getMessage());
+            acceptKey.interestOps(0);
+            acceptPausedUntil = System.currentTimeMillis() + ACCEPT_RETRY_MILLIS;
+            return;
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException e) {
+            System.err.println("登记注册表服务连接失败: " + e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 连接已放弃，忽略
+            }
+        }
+    }
+
+    /**
+     * 一个客户端连接：读缓冲区只由选择器线程访问；请求队列由工作线程依次取出执行；
+     * 写出队列由工作线程和通知线程追加、选择器线程写出
+     */
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final Queue<RegistryProtocol.Frame> requests = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean executing = new AtomicBoolean();
+        // 以下由 out 的锁保护
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        long pendingOutput;
+        boolean flushScheduled;
+        // 请求编号 -> 监视
+        final Map<Integer, RegistryWatch> watches = new ConcurrentHashMap<>();
+        volatile boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // 选择器线程：读入并解出完整的帧
+        void read() {
+            try {
+                int n = channel.read(in);
+                if (n < 0) {
+                    close();
+                    return;
+                }
+                in.flip();
+                RegistryProtocol.Frame frame;
+                boolean received = false;
+                while ((frame = RegistryProtocol.decode(in)) != null) {
+                    requests.add(frame);
+                    received = true;
+                }
+                int needed = RegistryProtocol.frameCapacity(in);
+                if (needed > in.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(needed);
+                    larger.put(in);
+                    in = larger;
+                } else {
+                    in.compact();
+                }
+                if (received && executing.compareAndSet(false, true)) {
+                    workers.execute(this::execute);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // 工作线程：按顺序执行队列中的请求；执行期间新到的请求由本轮继续处理
+        void execute() {
+            while (true) {
+                RegistryProtocol.Frame request;
+                while (!closed && (request = requests.poll()) != null) {
+                    send(handle(this, request));
+                }
+                executing.set(false);
+                if (closed || requests.isEmpty() || !executing.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        // 任意线程：追加一帧待写出，交给选择器线程写出；客户端长时间不读取、积压过多时断开连接
+        void send(ByteBuffer frame) {
+            if (closed) {
+                return;
+            }
+            boolean wakeup = false;
+            boolean overflowed = false;
+            synchronized (out) {
+                // 积压为空时总能放入一帧，单个较大的响应不受限制
+                if (pendingOutput > 0 && pendingOutput + frame.remaining() > MAX_QUEUED_OUTPUT) {
+                    overflowed = true;
+                } else {
+                    out.add(frame);
+                    pendingOutput += frame.remaining();
+                    if (!flushScheduled) {
+                        flushScheduled = true;
+                        wakeup = true;
+                    }
+                }
+            }
+            if (overflowed) {
+                System.err.println("注册表服务连接积压超过 " + MAX_QUEUED_OUTPUT + " 字节，断开连接: " + remoteAddress());
+                close();
+                return;
+            }
+            if (wakeup) {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+        }
+
+        // 选择器线程：尽量写出积压的数据，写不完时关注可写事件，并按积压量暂停或恢复读取
+        void flush() {
+            if (closed) {
+                return;
+            }
+            try {
+                synchronized (out) {
+                    while (!out.isEmpty()) {
+                        ByteBuffer[] buffers = out.toArray(new ByteBuffer[0]);
+                        long written = channel.write(buffers);
+                        pendingOutput -= written;
+                        while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                            out.poll();
+                        }
+                        if (written == 0) {
+                            break;
+                        }
+                    }
+                    flushScheduled = false;
+                    int ops = SelectionKey.OP_READ;
+                    if (!out.isEmpty()) {
+                        ops = SelectionKey.OP_WRITE | (pendingOutput > MAX_PENDING_OUTPUT ? 0 : SelectionKey.OP_READ);
+                        // 保持计划状态，可写时由选择器继续写出
+                        flushScheduled = true;
+                    }
+                    key.interestOps(ops);
+                }
+            } catch (IOException | CancelledKeyException e) {
+                // 写出失败，或其他线程（积压过多时的 send）刚关闭了这个连接：只关闭这一个连接
+                close();
+            }
+        }
+
+        // 任意线程：关闭连接及其监视
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (RegistryWatch watch : watches.values()) {
+                watch.close();
+            }
+            watches.clear();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // 连接已断开，忽略
+            }
+        }
+
+        String remoteAddress() {
+            try {
+                return String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                return "未知地址";
+            }
+        }
+    }
+
+    /**
+     * 执行一个请求，返回响应帧
+     */
+    private ByteBuffer handle(Connection connection, RegistryProtocol.Frame request) {
+        int id = request.id;
+        try {
+            switch (request.code) {
+                case RegistryProtocol.GET_VALUE: {
+                    RegistryValue value = registry.getValue(request.arg(0), request.arg(1));
+                    return value == null
+                            ? RegistryProtocol.encode(id, RegistryProtocol.NOT_FOUND)
+                            : RegistryProtocol.encode(id, RegistryProtocol.OK, value.getType(), value.getValue());
+                }
+                case RegistryProtocol.SET_VALUE:
+                    return status(id, registry.setValue(request.arg(0), request.arg(1), request.arg(2), request.arg(3)));
+                case RegistryProtocol.CREATE_KEY:
+                    return status(id, registry.createKey(request.arg(0)));
+                case RegistryProtocol.DELETE_VALUE:
+                    return status(id, registry.deleteValue(request.arg(0), request.arg(1)));
+                case RegistryProtocol.DELETE_KEY:
+                    return status(id, registry.deleteKey(request.arg(0)));
+                case RegistryProtocol.LIST_KEYS: {
+                    String path = request.arg(0);
+                    Map<String, RegistryKey> children;
+                    if (path.isEmpty()) {
+                        children = registry.getTopLevelKeys();
+                    } else {
+                        RegistryKey key = registry.getKeyByPath(path);
+                        if (key == null) {
+                            return RegistryProtocol.encode(id, RegistryProtocol.NOT_FOUND);
+                        }
+                        children = key.getSubKeys();
+                    }
+                    return RegistryProtocol.encode(id, RegistryProtocol.OK, children.keySet().toArray(new String[0]));
+                }
+                case RegistryProtocol.LIST_VALUES: {
+                    RegistryKey key = registry.getKeyByPath(request.arg(0));
+                    if (key == null) {
+                        return RegistryProtocol.encode(id, RegistryProtocol.NOT_FOUND);
+                    }
+                    List<String> fields = new ArrayList<>();
+                    for (RegistryValue value : key.getValues().values()) {
+                        fields.add(value.getName());
+                        fields.add(value.getType());
+                        fields.add(value.getValue());
+                    }
+                    return RegistryProtocol.encode(id, RegistryProtocol.OK, fields.toArray(new String[0]));
+                }
+                case RegistryProtocol.WATCH: {
+                    RegistryWatch watch = registry.watch(request.arg(0),
+                            events -> connection.send(encodeEvents(id, events)),
+                            "1".equals(request.arg(1)));
+                    RegistryWatch previous = connection.watches.put(id, watch);
+                    if (previous != null) {
+                        previous.close();
+                    }
+                    return RegistryProtocol.encode(id, RegistryProtocol.OK);
+                }
+                case RegistryProtocol.UNWATCH: {
+                    RegistryWatch watch = connection.watches.remove(Integer.parseInt(request.arg(0)));
+                    if (watch != null) {
+                        watch.close();
+                    }
+                    return status(id, watch != null);
+                }
+                default:
+                    return RegistryProtocol.encode(id, RegistryProtocol.ERROR, "未知的操作码: " + request.code);
+            }
+        } catch (IOException | RuntimeException e) {
+            return RegistryProtocol.encode(id, RegistryProtocol.ERROR, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static ByteBuffer status(int id, boolean success) {
+        return RegistryProtocol.encode(id, success ? RegistryProtocol.OK : RegistryProtocol.FAILED);
+    }
+
+    private static ByteBuffer encodeEvents(int watchId, List<RegistryEvent> events) {
+        String[] fields = new String[events.size() * 4];
+        int i = 0;
+        for (RegistryEvent event : events) {
+            fields[i++] = event.getType().name();
+            fields[i++] = event.getKeyPath();
+            fields[i++] = event.getValueName();
+            fields[i++] = event.getNewName();
+        }
+        return RegistryProtocol.encode(watchId, RegistryProtocol.EVENT, fields);
+    }
+
+    /**
+     * 独立运行的注册表服务
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : RegistryConfig.getServerPort();
+        RegistryServer server = start(Registry.getInstance(),
+                new InetSocketAddress(RegistryConfig.getServerHost(), port));
+        System.out.println("注册表服务已启动: " + server.getAddress());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                Registry.getInstance().flush();
+            } catch (IOException e) {
+                System.err.println("停止注册表服务失败: " + e.getMessage());
+            }
+        }, "registry-server-shutdown"));
+        server.selectorThread.join();
+    }
+}
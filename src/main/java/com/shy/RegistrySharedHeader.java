@@ -0,0 +1,161 @@
+package com.shy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 多个进程共用同一份快照文件时的协调：一个很小的共享头文件（registry.dat.header），各进程都以读写方式映射
+ *
+ * 布局：[int 魔数 "SRGH"][int 版本][long 快照代数][long 快照字节数][long 写入时间][long 写入进程号]
+ *
+ * 写快照的进程先把新快照写到名称唯一的临时文件（各写各的，不必加锁），再对头文件加排他的 FileChannel 锁
+ * （同一进程内的多个线程另用一把本地锁排队，FileLock 不能在同一 JVM 内重叠），校验临时文件后原子地改名覆盖 registry.dat，最后递增代数。
+ * 读取方不加锁：改名是原子的，打开的要么是旧文件要么是新文件；已映射旧文件的进程也不受影响（旧文件的数据在解除映射前一直有效）。
+ * 其他进程只需读一次映射内存中的代数（不涉及系统调用）即可发现新快照，再重新映射
+ */
+final class RegistrySharedHeader implements Closeable {
+
+    static final int MAGIC = 0x53524748; // "SRGH"
+    static final int VERSION = 1;
+
+    private static final int SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int GENERATION_OFFSET = 8;
+    private static final int SNAPSHOT_SIZE_OFFSET = 16;
+    private static final int UPDATED_OFFSET = 24;
+    private static final int WRITER_OFFSET = 32;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final ReentrantLock localLock = new ReentrantLock();
+
+    private RegistrySharedHeader(FileChannel channel, MappedByteBuffer header) {
+        this.channel = channel;
+        this.header = header;
+    }
+
+    /**
+     * 打开（必要时创建并初始化）头文件
+     */
+    static RegistrySharedHeader open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            RegistrySharedHeader shared = new RegistrySharedHeader(channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+            shared.initialize(file);
+            return shared;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // 新建的头文件全为 0，由第一个打开它的进程写入魔数；持排他锁检查，避免两个进程同时初始化
+    private void initialize(File file) throws IOException {
+        if (header.getInt(MAGIC_OFFSET) == MAGIC) {
+            checkVersion(file);
+            return;
+        }
+        try (Held ignored = lockExclusive()) {
+            int magic = header.getInt(MAGIC_OFFSET);
+            if (magic == 0) {
+                header.putInt(VERSION_OFFSET, VERSION);
+                header.putInt(MAGIC_OFFSET, MAGIC);
+                header.force();
+            } else if (magic != MAGIC) {
+                throw new IOException("不是有效的注册表共享头文件: " + file);
+            }
+        }
+        checkVersion(file);
+    }
+
+    private void checkVersion(File file) throws IOException {
+        int version = header.getInt(VERSION_OFFSET);
+        if (version != VERSION) {
+            throw new IOException("不支持的共享头文件版本 " + version + ": " + file);
+        }
+    }
+
+    /**
+     * 当前快照的代数，每成功写入一次快照递增；从未写入过时为 0
+     */
+    long generation() {
+        return header.getLong(GENERATION_OFFSET);
+    }
+
+    /**
+     * 加写快照的排他锁：先排队本进程内的其他线程，再与其他进程互斥；已有进程持锁时阻塞等待
+     */
+    Held lockExclusive() throws IOException {
+        localLock.lock();
+        try {
+            return new Held(channel.lock(0, SIZE, false));
+        } catch (IOException | RuntimeException e) {
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * 新快照已就位：递增代数并立即写回，须持有排他锁
+     * @return  新的代数
+     */
+    long publish(long snapshotSize) {
+        if (!localLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("发布新快照前须持有共享头文件的排他锁");
+        }
+        long generation = generation() + 1;
+        header.putLong(SNAPSHOT_SIZE_OFFSET, snapshotSize);
+        header.putLong(UPDATED_OFFSET, System.currentTimeMillis());
+        header.putLong(WRITER_OFFSET, processId());
+        // 代数最后写入，读到新代数时其余字段已经更新
+        header.putLong(GENERATION_OFFSET, generation);
+        header.force();
+        return generation;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // 形如 "pid@host" 的运行时名称中的进程号，取不到时为 0
+    private static long processId() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        try {
+            return Long.parseLong(at < 0 ? name : name.substring(0, at));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 持有中的排他锁，关闭即释放
+     */
+    final class Held implements AutoCloseable {
+        private final FileLock fileLock;
+
+        private Held(FileLock fileLock) {
+            this.fileLock = fileLock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                fileLock.release();
+            } finally {
+                localLock.unlock();
+            }
+        }
+    }
+}
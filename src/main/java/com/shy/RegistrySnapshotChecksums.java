@@ -0,0 +1,115 @@
+package com.shy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 快照文件的分块校验和：从文件开头起每 CHECKSUM_BLOCK_SIZE 字节一块（最后一块可以不满），各块单独计算 CRC32C，
+ * 见 RegistrySnapshotFormat。字节按顺序流过时逐块累加，写快照和顺序读取快照时都不需要回头再读一遍
+ */
+final class RegistrySnapshotChecksums {
+
+    private final Crc32c crc = new Crc32c();
+    // 当前块已累加的字节数
+    private int filled;
+    private int[] sums = new int[16];
+    private int count;
+
+    void update(int b) {
+        crc.update(b);
+        if (++filled == RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE) {
+            endBlock();
+        }
+    }
+
+    void update(byte[] b, int off, int len) {
+        while (len > 0) {
+            int n = Math.min(len, RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE - filled);
+            crc.update(b, off, n);
+            filled += n;
+            off += n;
+            len -= n;
+            if (filled == RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE) {
+                endBlock();
+            }
+        }
+    }
+
+    /**
+     * 结束累加（不满的最后一块也算一块），返回各块的校验和
+     */
+    int[] finish() {
+        if (filled > 0) {
+            endBlock();
+        }
+        return Arrays.copyOf(sums, count);
+    }
+
+    private void endBlock() {
+        if (count == sums.length) {
+            sums = Arrays.copyOf(sums, count * 2);
+        }
+        sums[count++] = (int) crc.getValue();
+        crc.reset();
+        filled = 0;
+    }
+
+    /**
+     * 顺序读一遍快照文件，按文件中的校验和表校验各块，有块损坏时抛出异常；版本 3 之前的快照没有校验和，直接返回
+     * 不映射文件，也不把整个文件读入内存，文件大小不受 2GB 的限制（不映射快照时用来校验刚写完的快照）
+     */
+    static void verify(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = read(channel, 0, 8);
+        if (header.getInt() != RegistrySnapshotFormat.MAGIC) {
+            throw new RegistrySnapshotCorruptException("不是有效的注册表快照文件");
+        }
+        if (RegistrySnapshotFormat.checkVersion(header.getShort()) < 3) {
+            return;
+        }
+        long footer = size - RegistrySnapshotFormat.TRAILER_SIZE - RegistrySnapshotFormat.CHECKSUM_FOOTER_SIZE;
+        int count = footer < 8 ? -1 : read(channel, footer, 4).getInt();
+        long tableStart = footer - 4L * count;
+        if (count < 0 || tableStart < 0 || blockCount(tableStart) != count) {
+            throw new RegistrySnapshotCorruptException("快照文件校验和表损坏");
+        }
+        ByteBuffer table = read(channel, tableStart, 4 * count);
+
+        RegistrySnapshotChecksums checksums = new RegistrySnapshotChecksums();
+        ByteBuffer block = ByteBuffer.allocate(RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE);
+        for (long position = 0; position < tableStart; position += block.limit()) {
+            block.clear().limit((int) Math.min(block.capacity(), tableStart - position));
+            readFully(channel, block, position);
+            checksums.update(block.array(), 0, block.limit());
+        }
+        int[] actual = checksums.finish();
+        for (int i = 0; i < count; i++) {
+            if (actual[i] != table.getInt()) {
+                throw new RegistrySnapshotCorruptException("快照文件校验失败：第 " + i + " 块（偏移量 "
+                        + (long) i * RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE + "）内容已损坏");
+            }
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new RegistrySnapshotCorruptException("快照文件意外结束");
+            }
+        }
+    }
+
+    // 长度为 dataLength 的数据分成的块数
+    static long blockCount(long dataLength) {
+        return (dataLength + RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE - 1) / RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE;
+    }
+}
@@ -0,0 +1,21 @@
+package com.shy;
+
+import java.io.IOException;
+
+/**
+ * 快照文件内容损坏：魔数、文件尾、校验和或记录结构不符合格式
+ * 载入时只有这类异常才把文件改名为 registry.dat.corrupt 并回退到上一代快照；
+ * 其他 I/O 错误（文件描述符耗尽、没有权限等）与文件内容无关，不能据此丢弃一个可能完好的快照
+ */
+final class RegistrySnapshotCorruptException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    RegistrySnapshotCorruptException(String message) {
+        super(message);
+    }
+
+    RegistrySnapshotCorruptException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,191 @@
+package com.shy;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * 注册表快照文件格式（二进制，带版本号）
+ *
+ * 文件布局：
+ *   [int 魔数 "SREG"][short 版本][short 标志][varint 注册表项总数][varint 日志段号（版本 2 起）]
+ *   [字符串表：varint 个数，{varint 字节数, UTF-8 字节}...]
+ *   [注册表项记录，按后序排列：子项记录总在父项之前]
+ *   [目录：varint 顶级项个数，{varint 名称下标, varint 与目录起点的距离}...]
+ *   [校验和表（版本 3 起）：{int CRC32C}...][int 块数][int 校验和表与块数的 CRC32C]
+ *   [long 目录起始位置][int 魔数]
+ *
+ * 注册表项记录：
+ *   varint 名称下标
+ *   varint 子树跨度（子树第一条记录到本记录起点的字节数）
+ *   varint 键值个数，{varint 名称下标, byte 类型标记, [varint 类型名下标], 值}...
+ *   varint 子项个数，{varint 名称下标, varint 与本记录起点的距离}...
+ *
+ * 子项引用使用相对距离，整棵子树的字节可以原样搬移；值以 varint(字节数 + 1) + UTF-8 存储，0 表示 null
+ * 日志段号：快照已包含该段之前所有日志段中的修改，启动时从该段开始重放（版本 1 的快照视为 0）
+ * 校验和表：文件开头到目录结束的字节每 CHECKSUM_BLOCK_SIZE 字节一块（最后一块可以不满），每块一个 CRC32C，
+ * 载入时各块可以并行校验（见 RegistrySnapshotMapping.verify），顺序读取时边读边校验（见 RegistrySnapshotReader）
+ */
+final class RegistrySnapshotFormat {
+
+    static final int MAGIC = 0x53524547; // "SREG"
+    static final short VERSION = 3;
+    // 仍可读取的最早版本
+    static final short MIN_VERSION = 1;
+
+    // Java 序列化流的起始魔数，用于识别旧版 registry.dat
+    static final int LEGACY_MAGIC = 0xACED;
+
+    // 文件尾长度：long 目录起始位置 + int 魔数
+    static final int TRAILER_SIZE = 12;
+
+    // 校验块大小，版本 3 固定为 64KB
+    static final int CHECKSUM_BLOCK_SIZE = 64 * 1024;
+
+    // 校验和表之后、文件尾之前的字段：int 块数 + int 校验和表的 CRC32C
+    static final int CHECKSUM_FOOTER_SIZE = 8;
+
+    // 值类型标记，其余类型以 TYPE_OTHER + 字符串表下标保存
+    static final byte TYPE_STRING = 0;
+    static final byte TYPE_DWORD = 1;
+    static final byte TYPE_QWORD = 2;
+    static final byte TYPE_BINARY = 3;
+    static final byte TYPE_MULTI_STRING = 4;
+    static final byte TYPE_OTHER = 0x7F;
+
+    private RegistrySnapshotFormat() {
+    }
+
+    static byte typeTag(String type) {
+        if (type == null) {
+            return TYPE_OTHER;
+        }
+        switch (type) {
+            case "String":
+                return TYPE_STRING;
+            case "DWord":
+                return TYPE_DWORD;
+            case "QWord":
+                return TYPE_QWORD;
+            case "Binary":
+                return TYPE_BINARY;
+            case "Multi-String":
+                return TYPE_MULTI_STRING;
+            default:
+                return TYPE_OTHER;
+        }
+    }
+
+    static String typeName(byte tag) throws IOException {
+        switch (tag) {
+            case TYPE_STRING:
+                return "String";
+            case TYPE_DWORD:
+                return "DWord";
+            case TYPE_QWORD:
+                return "QWord";
+            case TYPE_BINARY:
+                return "Binary";
+            case TYPE_MULTI_STRING:
+                return "Multi-String";
+            default:
+                throw new RegistrySnapshotCorruptException("未知的值类型标记: " + tag);
+        }
+    }
+
+    // 检查文件头中的版本号，不支持的版本抛出异常
+    static short checkVersion(short version) throws IOException {
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new IOException("不支持的快照版本: " + version);
+        }
+        return version;
+    }
+
+    /**
+     * 只读文件头中的日志段号，读不出时（文件不存在、损坏或不是快照格式）返回 -1
+     */
+    static long readJournalSegment(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64))) {
+            return readJournalSegment(in);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 从快照开头读取文件头中的日志段号（只读到段号为止，不关闭输入流）
+     */
+    static long readJournalSegment(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new RegistrySnapshotCorruptException("不是有效的注册表快照文件");
+        }
+        short version = checkVersion(in.readShort());
+        in.readShort();
+        readVarLong(in); // 注册表项总数
+        return version >= 2 ? readVarLong(in) : 0;
+    }
+
+    // 判断文件是否为旧版 Java 序列化格式
+    static boolean isLegacyFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readUnsignedShort() == LEGACY_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    static void writeVarInt(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new RegistrySnapshotCorruptException("快照文件意外结束");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new RegistrySnapshotCorruptException("快照文件中的 varint 过长");
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new RegistrySnapshotCorruptException("快照文件中的数值越界: " + value);
+        }
+        return (int) value;
+    }
+
+    static long readVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        try {
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new RegistrySnapshotCorruptException("快照文件意外结束");
+        }
+        throw new RegistrySnapshotCorruptException("快照文件中的 varint 过长");
+    }
+
+    static int readVarInt(ByteBuffer buffer) throws IOException {
+        long value = readVarLong(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new RegistrySnapshotCorruptException("快照文件中的数值越界: " + value);
+        }
+        return (int) value;
+    }
+}
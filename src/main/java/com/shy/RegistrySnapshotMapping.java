@@ -0,0 +1,353 @@
+package com.shy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * 内存映射的快照文件
+ * 打开时只解析文件头、字符串表和目录，注册表项记录在首次访问时按偏移量读取
+ * 也是增量写快照的基础：未修改的子树从这里原样复制到新快照（见 RegistrySnapshotWriter）
+ *
+ * 快照被映射期间，Windows 不允许改名覆盖或删除该文件（之后写快照时要替换 registry.dat、删除 registry.dat.bak），
+ * 因此 registry.snapshot.mmap 关闭时（Windows 上的默认值）改为把整个文件读入堆内存，其余行为不变；
+ * 一次性读入模式下各项已在堆中，此时不再保留文件内容作为增量基础（见 mapBase）
+ *
+ * 载入时先校验：各块的 CRC32C 互不依赖，在 ForkJoinPool 公共池中并行计算，全部通过后才解析任何内容，
+ * 之后按需读取记录时不再校验（文件只会被整体改名替换，不会原地修改）
+ */
+final class RegistrySnapshotMapping {
+
+    private final ByteBuffer buffer;
+    private final String[] strings;
+    private final long journalSegment;
+    private final long directoryStart;
+    // 校验范围（文件开头到目录结束）的终点
+    private final long dataEnd;
+    // 各块的校验和，版本 3 之前的快照没有，为 null
+    private final int[] checksums;
+
+    private RegistrySnapshotMapping(ByteBuffer buffer, boolean verify) throws IOException {
+        this.buffer = buffer;
+
+        ByteBuffer header = buffer.duplicate();
+        if (buffer.limit() < 8 || header.getInt() != RegistrySnapshotFormat.MAGIC) {
+            throw new RegistrySnapshotCorruptException("不是有效的注册表快照文件");
+        }
+        short version = RegistrySnapshotFormat.checkVersion(header.getShort());
+        header.getShort();
+
+        int trailer = buffer.limit() - RegistrySnapshotFormat.TRAILER_SIZE;
+        if (trailer < header.position() || buffer.getInt(trailer + 8) != RegistrySnapshotFormat.MAGIC) {
+            throw new RegistrySnapshotCorruptException("快照文件尾部损坏");
+        }
+        directoryStart = buffer.getLong(trailer);
+        if (version >= 3) {
+            checksums = readChecksums(trailer - RegistrySnapshotFormat.CHECKSUM_FOOTER_SIZE);
+            dataEnd = trailer - RegistrySnapshotFormat.CHECKSUM_FOOTER_SIZE - 4L * checksums.length;
+        } else {
+            checksums = null;
+            dataEnd = trailer;
+        }
+        if (verify) {
+            verify();
+        }
+
+        RegistrySnapshotFormat.readVarLong(header); // 注册表项总数
+        journalSegment = version >= 2 ? RegistrySnapshotFormat.readVarLong(header) : 0;
+
+        // 不校验时内容可能已损坏，按剩余长度检查，不能让损坏的长度变成巨大的数组
+        int stringCount = RegistrySnapshotFormat.readVarInt(header);
+        if (stringCount > header.remaining()) {
+            throw new RegistrySnapshotCorruptException("快照文件字符串表损坏");
+        }
+        strings = new String[stringCount];
+        for (int i = 0; i < strings.length; i++) {
+            int length = RegistrySnapshotFormat.readVarInt(header);
+            if (length > header.remaining()) {
+                throw new RegistrySnapshotCorruptException("快照文件字符串表损坏");
+            }
+            strings[i] = readString(header, length);
+        }
+
+        if (directoryStart < header.position() || directoryStart >= dataEnd) {
+            throw new RegistrySnapshotCorruptException("快照文件目录位置无效: " + directoryStart);
+        }
+    }
+
+    /**
+     * 映射快照文件（只读）
+     * @param verify  是否先校验各块的校验和；载入时须校验，刚写完的快照可以不校验
+     */
+    static RegistrySnapshotMapping open(File file, boolean verify) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return map(channel, verify);
+        }
+    }
+
+    /**
+     * 映射已打开的快照文件（只读），不改变通道的读取位置
+     * 映射建立后即可关闭通道，映射区域在缓冲区被回收前一直有效，文件之后被改名覆盖也不受影响
+     * @param verify  是否先校验各块的校验和
+     */
+    static RegistrySnapshotMapping map(FileChannel channel, boolean verify) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("快照文件超过 2GB，无法映射: " + size);
+        }
+        ByteBuffer contents = RegistryConfig.isSnapshotMmapEnabled()
+                ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                : readFully(channel, (int) size);
+        return new RegistrySnapshotMapping(contents, verify);
+    }
+
+    /**
+     * 一次性读入快照时，作为之后增量写快照基础的映射：只在能真正映射时（registry.snapshot.mmap 开启且不超过 2GB）映射，
+     * 不校验（读取快照时已边读边校验，见 RegistrySnapshotReader）；否则返回 null，不为此把整个文件再读入堆内存
+     */
+    static RegistrySnapshotMapping mapBase(FileChannel channel) throws IOException {
+        if (!RegistryConfig.isSnapshotMmapEnabled() || channel.size() > Integer.MAX_VALUE) {
+            return null;
+        }
+        return map(channel, false);
+    }
+
+    // 不映射时把整个文件读入堆内存
+    private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+        ByteBuffer contents = ByteBuffer.allocate(size);
+        while (contents.hasRemaining()) {
+            if (channel.read(contents, contents.position()) < 0) {
+                throw new IOException("快照文件在读取过程中被截断");
+            }
+        }
+        contents.flip();
+        return contents;
+    }
+
+    // 读取 footer 处的块数及之前的校验和表，表本身由随后的 CRC32C 保护
+    private int[] readChecksums(int footer) throws IOException {
+        int count = footer < 0 ? -1 : buffer.getInt(footer);
+        long tableStart = footer - 4L * count;
+        if (count < 0 || tableStart < 0 || RegistrySnapshotChecksums.blockCount(tableStart) != count) {
+            throw new RegistrySnapshotCorruptException("快照文件校验和表损坏");
+        }
+        ByteBuffer table = buffer.duplicate();
+        table.limit(footer + 4).position((int) tableStart);
+        Crc32c crc = new Crc32c();
+        crc.update(table);
+        if ((int) crc.getValue() != buffer.getInt(footer + 4)) {
+            throw new RegistrySnapshotCorruptException("快照文件校验和表损坏");
+        }
+        int[] sums = new int[count];
+        for (int i = 0; i < count; i++) {
+            sums[i] = buffer.getInt((int) tableStart + 4 * i);
+        }
+        return sums;
+    }
+
+    /**
+     * 并行校验各块，有块损坏时抛出异常；版本 3 之前的快照没有校验和，直接返回
+     */
+    void verify() throws IOException {
+        if (checksums == null) {
+            return;
+        }
+        int corrupt = IntStream.range(0, checksums.length).parallel()
+                .filter(block -> blockChecksum(block) != checksums[block])
+                .findFirst().orElse(-1);
+        if (corrupt >= 0) {
+            throw new RegistrySnapshotCorruptException("快照文件校验失败：第 " + corrupt + " 块（偏移量 "
+                    + (long) corrupt * RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE + "）内容已损坏");
+        }
+    }
+
+    private int blockChecksum(int block) {
+        long start = (long) block * RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE;
+        ByteBuffer in = buffer.duplicate();
+        in.limit((int) Math.min(dataEnd, start + RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE)).position((int) start);
+        Crc32c crc = new Crc32c();
+        crc.update(in);
+        return (int) crc.getValue();
+    }
+
+    // 快照已包含的日志段之后的第一个段，启动时从该段开始重放
+    long journalSegment() {
+        return journalSegment;
+    }
+
+    // 字符串表（调用方不得修改）
+    String[] strings() {
+        return strings;
+    }
+
+    /**
+     * 读取目录，返回尚未加载内容的顶级注册表项
+     */
+    Map<String, RegistryKey> readTopLevelKeys() throws IOException {
+        ByteBuffer in = buffer.duplicate();
+        in.position((int) directoryStart);
+        int count = RegistrySnapshotFormat.readVarInt(in);
+        Map<String, RegistryKey> topLevelKeys = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = string(RegistrySnapshotFormat.readVarInt(in));
+            long offset = directoryStart - RegistrySnapshotFormat.readVarLong(in);
+            topLevelKeys.put(name, new RegistryKey(name, this, offset));
+        }
+        return topLevelKeys;
+    }
+
+    /**
+     * 读取一条注册表项记录：键值直接解码，子项只创建未加载的占位项
+     */
+    void readKey(long offset, Map<String, RegistryKey> subKeys, Map<String, RegistryValue> values) {
+        try {
+            ByteBuffer in = buffer.duplicate();
+            in.position((int) offset);
+            RegistrySnapshotFormat.readVarInt(in); // 名称下标，占位项创建时已知
+            RegistrySnapshotFormat.readVarLong(in); // 子树跨度
+
+            int valueCount = RegistrySnapshotFormat.readVarInt(in);
+            for (int i = 0; i < valueCount; i++) {
+                String name = string(RegistrySnapshotFormat.readVarInt(in));
+                byte tag = in.get();
+                String type;
+                if (tag == RegistrySnapshotFormat.TYPE_OTHER) {
+                    int index = RegistrySnapshotFormat.readVarInt(in);
+                    type = index == 0 ? null : string(index - 1);
+                } else {
+                    type = RegistrySnapshotFormat.typeName(tag);
+                }
+                int length = RegistrySnapshotFormat.readVarInt(in);
+                String data = length == 0 ? null : readString(in, length - 1);
+                values.put(name, new RegistryValue(name, type, data));
+            }
+
+            int childCount = RegistrySnapshotFormat.readVarInt(in);
+            for (int i = 0; i < childCount; i++) {
+                String name = string(RegistrySnapshotFormat.readVarInt(in));
+                long childOffset = offset - RegistrySnapshotFormat.readVarLong(in);
+                subKeys.put(name, new RegistryKey(name, this, childOffset));
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new UncheckedIOException(new IOException("读取快照记录失败，偏移量 " + offset, e));
+        }
+    }
+
+    /**
+     * offset 处记录所在子树（按后序排列，连续存放）的第一个字节
+     */
+    long subtreeStart(long offset) throws IOException {
+        ByteBuffer in = recordAt(offset);
+        RegistrySnapshotFormat.readVarInt(in);
+        return offset - RegistrySnapshotFormat.readVarLong(in);
+    }
+
+    /**
+     * offset 处记录之后的第一个字节，即整棵子树的终点
+     */
+    long recordEnd(long offset) throws IOException {
+        return skipRecord(offset, null);
+    }
+
+    // 跳过 offset 处的记录，返回其后的第一个字节；counts 不为 null 时累加 {记录条数, 键值个数}
+    private long skipRecord(long offset, long[] counts) throws IOException {
+        ByteBuffer in = recordAt(offset);
+        try {
+            RegistrySnapshotFormat.readVarInt(in);
+            RegistrySnapshotFormat.readVarLong(in);
+            int valueCount = RegistrySnapshotFormat.readVarInt(in);
+            if (counts != null) {
+                counts[0]++;
+                counts[1] += valueCount;
+            }
+            for (int i = 0; i < valueCount; i++) {
+                RegistrySnapshotFormat.readVarInt(in);
+                if (in.get() == RegistrySnapshotFormat.TYPE_OTHER) {
+                    RegistrySnapshotFormat.readVarInt(in);
+                }
+                int length = RegistrySnapshotFormat.readVarInt(in);
+                if (length > 0) {
+                    in.position(in.position() + length - 1);
+                }
+            }
+            int childCount = RegistrySnapshotFormat.readVarInt(in);
+            for (int i = 0; i < childCount; i++) {
+                RegistrySnapshotFormat.readVarInt(in);
+                RegistrySnapshotFormat.readVarLong(in);
+            }
+        } catch (RuntimeException e) {
+            throw new RegistrySnapshotCorruptException("快照记录损坏，偏移量 " + offset, e);
+        }
+        if (in.position() > directoryStart) {
+            throw new RegistrySnapshotCorruptException("快照记录越过了目录，偏移量 " + offset);
+        }
+        return in.position();
+    }
+
+    /**
+     * [start, end) 之间的记录条数，逐条跳过记录内容，不解码字符串
+     */
+    long countRecords(long start, long end) throws IOException {
+        long count = 0;
+        for (long position = start; position < end; position = recordEnd(position)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * offset 处记录所在子树的 {注册表项数, 键值数}，逐条跳过记录内容，不解码字符串
+     */
+    long[] countSubtree(long offset) throws IOException {
+        long[] counts = new long[2];
+        long end = recordEnd(offset);
+        for (long position = subtreeStart(offset); position < end; ) {
+            position = skipRecord(position, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * 把 [start, end) 之间的字节原样写到 out
+     */
+    void copyTo(OutputStream out, long start, long end) throws IOException {
+        ByteBuffer in = recordAt(start);
+        byte[] chunk = new byte[(int) Math.min(64 * 1024, end - start)];
+        for (long remaining = end - start; remaining > 0; ) {
+            int n = (int) Math.min(chunk.length, remaining);
+            in.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+            remaining -= n;
+        }
+    }
+
+    private ByteBuffer recordAt(long offset) throws IOException {
+        if (offset < 0 || offset > directoryStart) {
+            throw new RegistrySnapshotCorruptException("快照记录偏移量越界: " + offset);
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position((int) offset);
+        return in;
+    }
+
+    private String string(int index) throws IOException {
+        if (index < 0 || index >= strings.length) {
+            throw new RegistrySnapshotCorruptException("快照文件中的字符串下标越界: " + index);
+        }
+        return strings[index];
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
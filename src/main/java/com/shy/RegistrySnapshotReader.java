@@ -0,0 +1,266 @@
+package com.shy;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 快照读取器
+ * 顺序读取后序排列的注册表项记录，用栈把子项挂到父项上，不需要随机访问
+ * 读取的同时逐块累加校验和，读完目录后与文件中的校验和表比较，不一致时整个快照作废
+ */
+final class RegistrySnapshotReader {
+
+    private final ByteSource source;
+    private final DataInputStream in;
+    // 读取的快照文件同时被映射时，各项记下自己在其中的记录位置（见 RegistryKey.relocate）
+    private final RegistrySnapshotMapping mapping;
+    private String[] strings;
+
+    private RegistrySnapshotReader(InputStream source, RegistrySnapshotMapping mapping) {
+        // 同时映射的文件也在这里边读边校验，映射本身不再整体校验一遍
+        this.source = new ByteSource(source);
+        this.in = new DataInputStream(this.source);
+        this.mapping = mapping;
+    }
+
+    /**
+     * 从输入流读取快照（不关闭输入流）
+     * @return  顶级注册表项
+     */
+    static Map<String, RegistryKey> read(InputStream source) throws IOException {
+        return new RegistrySnapshotReader(source, null).readSnapshot();
+    }
+
+    /**
+     * 从头读取 mapping 所映射的同一个快照文件，读出的各项记下记录位置，之后写快照时可以复制未修改的子树
+     * @param mapping  未经校验的映射（见 RegistrySnapshotMapping.mapBase），为 null 时与 read(source) 相同
+     */
+    static Map<String, RegistryKey> read(InputStream source, RegistrySnapshotMapping mapping) throws IOException {
+        try {
+            return new RegistrySnapshotReader(source, mapping).readSnapshot();
+        } catch (EOFException e) {
+            // 文件比其中记录的结构短：被截断
+            throw new RegistrySnapshotCorruptException("快照文件意外结束", e);
+        }
+    }
+
+    private Map<String, RegistryKey> readSnapshot() throws IOException {
+        if (in.readInt() != RegistrySnapshotFormat.MAGIC) {
+            throw new RegistrySnapshotCorruptException("不是有效的注册表快照文件");
+        }
+        short version = RegistrySnapshotFormat.checkVersion(in.readShort());
+        in.readShort(); // 标志位，暂未使用
+
+        long keyCount = RegistrySnapshotFormat.readVarLong(in);
+        if (version >= 2) {
+            RegistrySnapshotFormat.readVarLong(in); // 日志段号
+        }
+        strings = new String[RegistrySnapshotFormat.readVarInt(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(RegistrySnapshotFormat.readVarInt(in));
+        }
+
+        // 后序记录：读到父项时，它的子项恰好是栈顶的若干项
+        Deque<RegistryKey> stack = new ArrayDeque<>();
+        for (long k = 0; k < keyCount; k++) {
+            long offset = source.offset();
+            RegistryKey key = new RegistryKey(string(RegistrySnapshotFormat.readVarInt(in)));
+            if (mapping != null) {
+                key.relocate(mapping, offset);
+            }
+            RegistrySnapshotFormat.readVarLong(in); // 子树跨度，顺序读取时不需要
+
+            int valueCount = RegistrySnapshotFormat.readVarInt(in);
+            for (int i = 0; i < valueCount; i++) {
+                String name = string(RegistrySnapshotFormat.readVarInt(in));
+                byte tag = in.readByte();
+                String type = tag == RegistrySnapshotFormat.TYPE_OTHER
+                        ? nullableString(RegistrySnapshotFormat.readVarInt(in))
+                        : RegistrySnapshotFormat.typeName(tag);
+                key.putValue(new RegistryValue(name, type, readNullableString()));
+            }
+
+            int childCount = RegistrySnapshotFormat.readVarInt(in);
+            if (childCount > stack.size()) {
+                throw new RegistrySnapshotCorruptException("快照文件结构损坏：子项数量不匹配");
+            }
+            RegistryKey[] children = new RegistryKey[childCount];
+            for (int i = childCount - 1; i >= 0; i--) {
+                RegistrySnapshotFormat.readVarInt(in); // 子项名称下标
+                RegistrySnapshotFormat.readVarLong(in); // 子项距离
+                children[i] = stack.pop();
+            }
+            for (RegistryKey child : children) {
+                key.putSubKey(child);
+            }
+            stack.push(key);
+        }
+
+        int topCount = RegistrySnapshotFormat.readVarInt(in);
+        if (topCount != stack.size()) {
+            throw new RegistrySnapshotCorruptException("快照文件结构损坏：顶级项数量不匹配");
+        }
+        List<String> topNames = new ArrayList<>(topCount);
+        for (int i = 0; i < topCount; i++) {
+            topNames.add(string(RegistrySnapshotFormat.readVarInt(in)));
+            RegistrySnapshotFormat.readVarLong(in);
+        }
+        int[] actual = source.finishChecksums();
+        if (version >= 3) {
+            readChecksums(actual);
+        }
+        in.readLong();
+        if (in.readInt() != RegistrySnapshotFormat.MAGIC) {
+            throw new RegistrySnapshotCorruptException("快照文件尾部损坏");
+        }
+
+        // 栈底是第一个顶级项
+        Map<String, RegistryKey> topLevelKeys = new HashMap<>();
+        RegistryKey[] tops = stack.toArray(new RegistryKey[0]);
+        for (int i = 0; i < topCount; i++) {
+            topLevelKeys.put(topNames.get(i), tops[topCount - 1 - i]);
+        }
+        return topLevelKeys;
+    }
+
+    // 读取校验和表并与读取时累加的各块校验和比较
+    private void readChecksums(int[] actual) throws IOException {
+        long dataLength = source.offset();
+        int[] expected = new int[(int) RegistrySnapshotChecksums.blockCount(dataLength)];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = in.readInt();
+        }
+        if (in.readInt() != expected.length) {
+            throw new RegistrySnapshotCorruptException("快照文件校验和表损坏：块数不符");
+        }
+        in.readInt(); // 校验和表自身的校验和：逐项比较时已覆盖
+        for (int i = 0; i < expected.length; i++) {
+            if (actual[i] != expected[i]) {
+                throw new RegistrySnapshotCorruptException("快照文件校验失败：第 " + i + " 块（偏移量 "
+                        + (long) i * RegistrySnapshotFormat.CHECKSUM_BLOCK_SIZE + "）内容已损坏");
+            }
+        }
+    }
+
+    private String string(int index) throws IOException {
+        if (index < 0 || index >= strings.length) {
+            throw new RegistrySnapshotCorruptException("快照文件中的字符串下标越界: " + index);
+        }
+        return strings[index];
+    }
+
+    private String nullableString(int indexPlusOne) throws IOException {
+        return indexPlusOne == 0 ? null : string(indexPlusOne - 1);
+    }
+
+    private String readNullableString() throws IOException {
+        int length = RegistrySnapshotFormat.readVarInt(in);
+        return length == 0 ? null : readString(length - 1);
+    }
+
+    private String readString(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 不加锁的读缓冲（BufferedInputStream 的逐字节 read 带同步，解析 varint 时开销明显）
+     */
+    private static final class ByteSource extends InputStream {
+        private final InputStream source;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+        // 缓冲区之前已读过的字节数
+        private long consumed;
+        // 已读出的字节逐块累加校验和，校验范围结束后为 null
+        private RegistrySnapshotChecksums checksums;
+        // 缓冲区中已累加到校验和的位置
+        private int checked;
+
+        ByteSource(InputStream source) {
+            this.source = source;
+            this.checksums = new RegistrySnapshotChecksums();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit) {
+                // 大块读取直接绕过缓冲区
+                if (len >= buffer.length) {
+                    checkConsumed();
+                    int n = source.read(b, off, len);
+                    if (n > 0) {
+                        consumed += n;
+                        if (checksums != null) {
+                            checksums.update(b, off, n);
+                        }
+                    }
+                    return n;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        // 从流的开头算起已读出的字节数
+        long offset() {
+            return consumed + position;
+        }
+
+        /**
+         * 结束校验范围（已读出的字节为止），返回各块校验和
+         */
+        int[] finishChecksums() {
+            checkConsumed();
+            int[] sums = checksums.finish();
+            checksums = null;
+            return sums;
+        }
+
+        // 缓冲区中已读出而尚未累加的字节计入校验和
+        private void checkConsumed() {
+            if (checksums != null) {
+                checksums.update(buffer, checked, position - checked);
+            }
+            checked = position;
+        }
+
+        // 只在缓冲区读完后调用
+        private boolean fill() throws IOException {
+            checkConsumed();
+            int n = source.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return false;
+            }
+            consumed += limit;
+            position = 0;
+            limit = n;
+            checked = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.shy;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 快照写入器
+ * 先遍历一遍收集字符串表，再按后序把注册表项流式写出，格式见 RegistrySnapshotFormat
+ *
+ * 增量写出：给出上一个快照（base）时，字符串表以它的字符串表开头（下标不变），
+ * 自上一个快照以来没有修改过的子树不再逐项序列化，而是把 base 中整棵子树的字节原样复制过来
+ * （子项引用是相对距离，搬移后仍然有效）；只有修改过的项及其祖先需要重新写出
+ */
+final class RegistrySnapshotWriter {
+
+    private final CountingOutputStream out;
+    private final DataOutputStream data;
+    // 检查点开始时刻的内容；为 null 时直接读取各项的当前内容
+    private final RegistryCheckpoint checkpoint;
+    // 可以从中复制子树的上一个快照，为 null 时全部重新序列化
+    private RegistrySnapshotMapping base;
+    // base 写出时的纪元，修改纪元早于它的项与 base 中的记录一致
+    private final long baseEpoch;
+
+    // 字符串表：名称 -> 下标
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private long keyCount;
+
+    // 收集阶段确定的可复制子树：项 -> {子树起点, 记录终点, 记录条数, 记录起点}
+    private final Map<RegistryKey, long[]> reusable = new IdentityHashMap<>();
+    private long copiedBytes;
+
+    // 各项在新快照中的记录位置，新快照就位后再交给 RegistryKey.relocate（写入失败时各项仍指向 base）
+    private RegistryKey[] placedKeys = new RegistryKey[0];
+    private long[] placedOffsets = new long[0];
+    private int placed;
+    // 重新写出的直接修改过的项 -> 写出时的直接修改标记
+    private final Map<RegistryKey, Long> directlyModified = new IdentityHashMap<>();
+
+    private RegistrySnapshotWriter(OutputStream target, RegistryCheckpoint checkpoint,
+                                   RegistrySnapshotMapping base, long baseEpoch) {
+        this.out = new CountingOutputStream(target);
+        this.data = new DataOutputStream(out);
+        this.checkpoint = checkpoint;
+        this.base = base;
+        this.baseEpoch = baseEpoch;
+    }
+
+    /**
+     * 把注册表写入输出流（不关闭输出流）
+     * @return  写出的字节数
+     */
+    static long write(Map<String, RegistryKey> topLevelKeys, OutputStream target) throws IOException {
+        RegistrySnapshotWriter writer = new RegistrySnapshotWriter(target, null, null, 0);
+        writer.writeSnapshot(topLevelKeys, 0);
+        return writer.out.getCount();
+    }
+
+    /**
+     * 写出检查点开始时刻的注册表（不关闭输出流）
+     * @param base       上一个快照，未修改的子树从中复制；为 null 时全部重新序列化
+     * @param baseEpoch  base 写出时的纪元
+     */
+    static RegistrySnapshotWriter write(RegistryCheckpoint checkpoint, RegistrySnapshotMapping base, long baseEpoch,
+                                        OutputStream target) throws IOException {
+        RegistrySnapshotWriter writer = new RegistrySnapshotWriter(target, checkpoint, base, baseEpoch);
+        writer.writeSnapshot(checkpoint.topLevelKeys(), checkpoint.journalSegment());
+        return writer;
+    }
+
+    // 写出的字节数
+    long bytes() {
+        return out.getCount();
+    }
+
+    // 其中从上一个快照原样复制的字节数
+    long copiedBytes() {
+        return copiedBytes;
+    }
+
+    // 是否以上一个快照为基础增量写出
+    boolean isIncremental() {
+        return base != null;
+    }
+
+    // 字符串表的大小
+    int stringCount() {
+        return strings.size();
+    }
+
+    /**
+     * 新快照已就位：把写出的各项指向它
+     * @param written  新快照的映射；为 null 时（不保留增量基础，见 RegistrySnapshotMapping.mapBase）已加载的项不再指向任何快照，
+     *                 尚未加载的项仍从原来的快照读取
+     */
+    void relocate(RegistrySnapshotMapping written) {
+        for (int i = 0; i < placed; i++) {
+            if (written != null) {
+                placedKeys[i].relocate(written, placedOffsets[i]);
+            } else if (placedKeys[i].isLoaded()) {
+                placedKeys[i].relocate(null, -1);
+            }
+            placedKeys[i] = null;
+        }
+        placed = 0;
+    }
+
+    /**
+     * 新快照已就位：写出时带有直接修改标记、之后没有再被修改的项，修改纪元改回 epoch
+     */
+    void clearDirectModifications(long epoch) {
+        directlyModified.forEach((key, stamp) -> key.clearDirectModification(stamp, epoch));
+        directlyModified.clear();
+    }
+
+    private void writeSnapshot(Map<String, RegistryKey> topLevelKeys, long journalSegment) throws IOException {
+        if (base != null) {
+            for (String s : base.strings()) {
+                intern(s);
+            }
+            if (strings.size() != base.strings().length) {
+                base = null;  // 字符串表有重复，下标对不上，只能全部重新序列化
+                stringIndex.clear();
+                strings.clear();
+            }
+        }
+        for (Map.Entry<String, RegistryKey> entry : topLevelKeys.entrySet()) {
+            collectStrings(entry.getValue(), entry.getKey());
+        }
+
+        // 文件头与字符串表
+        data.writeInt(RegistrySnapshotFormat.MAGIC);
+        data.writeShort(RegistrySnapshotFormat.VERSION);
+        data.writeShort(0);
+        RegistrySnapshotFormat.writeVarInt(out, keyCount);
+        RegistrySnapshotFormat.writeVarInt(out, journalSegment);
+        RegistrySnapshotFormat.writeVarInt(out, strings.size());
+        for (String s : strings) {
+            writeBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 注册表项记录（后序）
+        List<String> topNames = new ArrayList<>(topLevelKeys.size());
+        long[] topStarts = new long[topLevelKeys.size()];
+        int i = 0;
+        for (Map.Entry<String, RegistryKey> entry : topLevelKeys.entrySet()) {
+            topNames.add(entry.getKey());
+            topStarts[i++] = writeKey(entry.getValue(), entry.getKey());
+        }
+
+        // 目录与文件尾
+        long directoryStart = out.getCount();
+        RegistrySnapshotFormat.writeVarInt(out, topNames.size());
+        for (i = 0; i < topNames.size(); i++) {
+            RegistrySnapshotFormat.writeVarInt(out, stringIndex.get(topNames.get(i)));
+            RegistrySnapshotFormat.writeVarInt(out, directoryStart - topStarts[i]);
+        }
+        writeChecksums(out.finishChecksums());
+        data.writeLong(directoryStart);
+        data.writeInt(RegistrySnapshotFormat.MAGIC);
+        data.flush();
+    }
+
+    // 校验和表、块数及它们自身的校验和
+    private void writeChecksums(int[] sums) throws IOException {
+        ByteBuffer table = ByteBuffer.allocate(sums.length * 4 + 4);
+        for (int sum : sums) {
+            table.putInt(sum);
+        }
+        table.putInt(sums.length);
+        Crc32c crc = new Crc32c();
+        crc.update(table.array(), 0, table.position());
+        out.write(table.array(), 0, table.position());
+        data.writeInt((int) crc.getValue());
+    }
+
+    // name 取自父项的子项集合（检查点之后被改名的项在这里仍是原名）
+    private void collectStrings(RegistryKey key, String name) throws IOException {
+        intern(name);
+        RegistryCheckpoint.State state = state(key);
+        long[] range = reusableRange(key, state);
+        if (range != null) {
+            reusable.put(key, range);
+            keyCount += range[2];
+            return;
+        }
+        keyCount++;
+        for (RegistryValue value : state.values.values()) {
+            intern(value.getName());
+            if (RegistrySnapshotFormat.typeTag(value.getType()) == RegistrySnapshotFormat.TYPE_OTHER) {
+                intern(value.getType());
+            }
+        }
+        for (Map.Entry<String, RegistryKey> entry : state.subKeys.entrySet()) {
+            collectStrings(entry.getValue(), entry.getKey());
+        }
+    }
+
+    private RegistryCheckpoint.State state(RegistryKey key) {
+        return checkpoint == null ? RegistryCheckpoint.State.of(key) : checkpoint.state(key);
+    }
+
+    // 自 base 写出以来没有修改过、记录就在 base 中的子树，返回它在 base 中的范围，否则返回 null
+    private long[] reusableRange(RegistryKey key, RegistryCheckpoint.State state) throws IOException {
+        if (base == null || state.modifiedEpoch >= baseEpoch || key.snapshot() != base) {
+            return null;
+        }
+        long offset = key.snapshotOffset();
+        long start = base.subtreeStart(offset);
+        long end = base.recordEnd(offset);
+        return new long[]{start, end, base.countRecords(start, end), offset};
+    }
+
+    private void intern(String s) {
+        if (s != null && !stringIndex.containsKey(s)) {
+            stringIndex.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+
+    // 先写完所有子树，再写本项记录，返回本项记录的起始位置
+    private long writeKey(RegistryKey key, String name) throws IOException {
+        long subtreeStart = out.getCount();
+        long[] range = reusable.get(key);
+        if (range != null) {
+            base.copyTo(out, range[0], range[1]);
+            copiedBytes += range[1] - range[0];
+            placeCopied(key, subtreeStart - range[0]);
+            return subtreeStart + (range[3] - range[0]);
+        }
+
+        RegistryCheckpoint.State state = state(key);
+        Map<String, RegistryKey> subKeys = state.subKeys;
+        int[] childNames = new int[subKeys.size()];
+        long[] childStarts = new long[subKeys.size()];
+        int i = 0;
+        for (Map.Entry<String, RegistryKey> entry : subKeys.entrySet()) {
+            childNames[i] = stringIndex.get(entry.getKey());
+            childStarts[i] = writeKey(entry.getValue(), entry.getKey());
+            i++;
+        }
+
+        long recordStart = out.getCount();
+        place(key, recordStart);
+        if (checkpoint != null && state.modifiedEpoch >= RegistryKey.DIRECTLY_MODIFIED) {
+            directlyModified.put(key, state.modifiedEpoch);
+        }
+        RegistrySnapshotFormat.writeVarInt(out, stringIndex.get(name));
+        RegistrySnapshotFormat.writeVarInt(out, recordStart - subtreeStart);
+
+        Map<String, RegistryValue> values = state.values;
+        RegistrySnapshotFormat.writeVarInt(out, values.size());
+        for (RegistryValue value : values.values()) {
+            RegistrySnapshotFormat.writeVarInt(out, stringIndex.get(value.getName()));
+            byte tag = RegistrySnapshotFormat.typeTag(value.getType());
+            out.write(tag);
+            if (tag == RegistrySnapshotFormat.TYPE_OTHER) {
+                writeNullableIndex(value.getType());
+            }
+            writeNullableString(value.getValue());
+        }
+
+        RegistrySnapshotFormat.writeVarInt(out, childNames.length);
+        for (i = 0; i < childNames.length; i++) {
+            RegistrySnapshotFormat.writeVarInt(out, childNames[i]);
+            RegistrySnapshotFormat.writeVarInt(out, recordStart - childStarts[i]);
+        }
+        return recordStart;
+    }
+
+    // 整棵子树平移了 delta 字节：已读入内存的各项（未加载的项没有读出子项）记录位置随之平移
+    // 与 base 之前的快照并发加载出的项仍指向旧快照，不在此列，下次写快照时重新序列化
+    private void placeCopied(RegistryKey key, long delta) {
+        if (key.snapshot() != base) {
+            return;
+        }
+        place(key, key.snapshotOffset() + delta);
+        if (key.isLoaded()) {
+            for (RegistryKey subKey : state(key).subKeys.values()) {
+                placeCopied(subKey, delta);
+            }
+        }
+    }
+
+    private void place(RegistryKey key, long offset) {
+        if (checkpoint == null) {
+            return;
+        }
+        if (placed == placedKeys.length) {
+            int capacity = Math.max(256, placed * 2);
+            placedKeys = Arrays.copyOf(placedKeys, capacity);
+            placedOffsets = Arrays.copyOf(placedOffsets, capacity);
+        }
+        placedKeys[placed] = key;
+        placedOffsets[placed] = offset;
+        placed++;
+    }
+
+    // 可能为 null 的字符串表引用：0 表示 null，其余为下标 + 1
+    private void writeNullableIndex(String s) throws IOException {
+        RegistrySnapshotFormat.writeVarInt(out, s == null ? 0 : stringIndex.get(s) + 1);
+    }
+
+    private void writeNullableString(String s) throws IOException {
+        if (s == null) {
+            RegistrySnapshotFormat.writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        RegistrySnapshotFormat.writeVarInt(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        RegistrySnapshotFormat.writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 统计已写出字节数的输出流（记录位置用于计算子项距离），同时逐块累加校验和
+     */
+    static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        // 写完目录后置为 null，之后写出的校验和表与文件尾不在校验范围内
+        private RegistrySnapshotChecksums checksums = new RegistrySnapshotChecksums();
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+            if (checksums != null) {
+                checksums.update(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+            if (checksums != null) {
+                checksums.update(b, off, len);
+            }
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        // 结束校验范围，返回已写出字节的各块校验和
+        int[] finishChecksums() {
+            int[] sums = checksums.finish();
+            checksums = null;
+            return sums;
+        }
+    }
+}
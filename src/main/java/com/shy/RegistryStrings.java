@@ -0,0 +1,70 @@
+package com.shy;
+
+/**
+ * 注册表字符串去重
+ * 名称（项名、键值名）、类型名和较短的值在大量注册表项之间高度重复（"String"、"false"、"3306"、"" ...），
+ * 构造注册表项和键值时经由这里换成共享的实例
+ *
+ * 去重表是按哈希定位的固定大小槽位数组：命中则复用，未命中直接覆盖该槽位。
+ * 内存占用有上限、不会因大量唯一字符串而膨胀，也不需要加锁（String 不可变，并发读写槽位是安全的）；
+ * 代价是冲突时可能留下少量未去重的副本
+ */
+final class RegistryStrings {
+
+    // 槽位数（2 的幂）
+    private static final int SLOTS = 1 << 16;
+    // 超过该长度的名称不去重
+    private static final int MAX_NAME_LENGTH = 256;
+
+    private static final boolean ENABLED = RegistryConfig.isInternEnabled();
+    private static final int MAX_VALUE_LENGTH = RegistryConfig.getInternMaxValueLength();
+    private static final String[] slots = new String[SLOTS];
+
+    private RegistryStrings() {
+    }
+
+    // 项名、键值名
+    static String name(String name) {
+        return name == null || name.length() > MAX_NAME_LENGTH ? name : intern(name);
+    }
+
+    // 类型名：内置类型直接换成常量
+    static String type(String type) {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case "String":
+                return "String";
+            case "DWord":
+                return "DWord";
+            case "QWord":
+                return "QWord";
+            case "Binary":
+                return "Binary";
+            case "Multi-String":
+                return "Multi-String";
+            default:
+                return intern(type);
+        }
+    }
+
+    // 字符串形式的值：只对较短的值去重，长文本（URL、表达式等）通常不重复
+    static String value(String value) {
+        return value == null || value.length() > MAX_VALUE_LENGTH ? value : intern(value);
+    }
+
+    private static String intern(String s) {
+        if (!ENABLED) {
+            return s;
+        }
+        int h = s.hashCode();
+        int index = (h ^ (h >>> 16)) & (SLOTS - 1);
+        String cached = slots[index];
+        if (cached != null && cached.equals(s)) {
+            return cached;
+        }
+        slots[index] = s;
+        return s;
+    }
+}
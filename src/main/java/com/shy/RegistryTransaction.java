@@ -0,0 +1,107 @@
+package com.shy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 注册表事务
+ * 批量修改先缓存在事务中，commit 时在一组写锁内全部执行并作为一条日志记录落盘；
+ * 任一操作失败则整批撤销。事务对象不是线程安全的，应由一个线程使用
+ *
+ * 用法：
+ * <pre>
+ * RegistryTransaction tx = registry.beginTransaction();
+ * tx.createKey("HKEY_SOFTWARE\\DATABASE\\Kafka")
+ *   .setValue("HKEY_SOFTWARE\\DATABASE\\Kafka", "kafka_host", "String", "192.168.110.109");
+ * tx.commit();
+ * </pre>
+ */
+public final class RegistryTransaction {
+
+    private final Registry registry;
+    private final List<RegistryJournal.Operation> operations = new ArrayList<>();
+    private boolean finished;
+
+    RegistryTransaction(Registry registry) {
+        this.registry = registry;
+    }
+
+    // 创建注册表项（可以创建多级子健）
+    public RegistryTransaction createKey(String path) {
+        return add(RegistryJournal.CREATE_KEY, path);
+    }
+
+    // 创建顶级注册表项（导入时遇到未知的顶级节点使用），撤销事务时一并删除
+    public RegistryTransaction createTopLevelKey(String name) {
+        ensureActive();
+        if (name == null || name.isEmpty() || name.indexOf('\\') >= 0) {
+            throw new IllegalArgumentException("顶级注册表项名称无效: " + name);
+        }
+        operations.add(RegistryJournal.Operation.createTopLevelKey(name));
+        return this;
+    }
+
+    // 设置键值对
+    public RegistryTransaction setValue(String keyPath, String valueName, String type, String value) {
+        return add(RegistryJournal.SET_VALUE, keyPath, valueName, type, value);
+    }
+
+    // 删除键值
+    public RegistryTransaction deleteValue(String keyPath, String valueName) {
+        return add(RegistryJournal.DELETE_VALUE, keyPath, valueName);
+    }
+
+    // 删除注册表项
+    public RegistryTransaction deleteKey(String keyPath) {
+        return add(RegistryJournal.DELETE_KEY, keyPath);
+    }
+
+    // 重命名注册表项
+    public RegistryTransaction renameKey(String keyPath, String newName) {
+        return add(RegistryJournal.RENAME_KEY, keyPath, newName);
+    }
+
+    // 重命名键值
+    public RegistryTransaction renameValue(String keyPath, String oldName, String newName) {
+        return add(RegistryJournal.RENAME_VALUE, keyPath, oldName, newName);
+    }
+
+    // 已缓存的操作数
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * 提交事务
+     * @return  全部操作成功返回 true；任一操作失败时已执行的操作全部撤销，返回 false
+     */
+    public boolean commit() {
+        ensureActive();
+        finished = true;
+        return registry.commit(operations);
+    }
+
+    /**
+     * 放弃事务中缓存的所有操作
+     */
+    public void rollback() {
+        ensureActive();
+        finished = true;
+        operations.clear();
+    }
+
+    private RegistryTransaction add(byte op, String... args) {
+        ensureActive();
+        if (args[0] == null) {
+            throw new NullPointerException("注册表路径不能为空");
+        }
+        operations.add(new RegistryJournal.Operation(op, args));
+        return this;
+    }
+
+    private void ensureActive() {
+        if (finished) {
+            throw new IllegalStateException("事务已经提交或回滚");
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.shy;
+
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编辑器左侧树的数据模型，节点直接是 RegistryKey（根节点是一个显示用的字符串）
+ *
+ * 只有被 JTree 问到的节点（即展开过的节点）才会取出并排序子项，结果缓存为快照；
+ * 注册表修改后调用 refresh / refreshLoaded，把快照与当前子项比较，只发出增删改的那几个节点的事件，
+ * 已展开的其他节点保持原状。所有方法都应在事件分发线程上调用
+ */
+final class RegistryTreeModel implements TreeModel {
+
+    // 子项按名称排序（不区分大小写，相同时再区分）
+    private static final Comparator<RegistryKey> BY_NAME = Comparator
+            .comparing(RegistryKey::getName, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(RegistryKey::getName);
+
+    /**
+     * 某个节点的子项快照
+     */
+    private static final class Children {
+        // 生成快照时的子项集合（不可变映射，引用不变即内容未变）
+        final Map<String, RegistryKey> source;
+        final RegistryKey[] keys;
+        // 生成快照时各子项的名称，用于发现原位重命名
+        final String[] names;
+
+        Children(Map<String, RegistryKey> source, RegistryKey[] keys) {
+            this.source = source;
+            this.keys = keys;
+            this.names = new String[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                names[i] = keys[i].getName();
+            }
+        }
+    }
+
+    private final Registry registry;
+    private final Object root;
+    private final EventListenerList listeners = new EventListenerList();
+    private final Map<Object, Children> loaded = new IdentityHashMap<>();
+
+    RegistryTreeModel(Registry registry, Object root) {
+        this.registry = registry;
+        this.root = root;
+    }
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return children(parent).keys[index];
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return children(parent).keys.length;
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        if (node == root) {
+            return false;
+        }
+        Children cached = loaded.get(node);
+        // 没有展开过的节点只看子项集合是否为空，不取出子项
+        return cached != null ? cached.keys.length == 0 : ((RegistryKey) node).getSubKeys().isEmpty();
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (parent == null || child == null) {
+            return -1;
+        }
+        RegistryKey[] keys = children(parent).keys;
+        if (child instanceof RegistryKey) {
+            // 名称可能已改变（尚未 refresh），二分查找不到时逐个比较
+            int index = Arrays.binarySearch(keys, (RegistryKey) child, BY_NAME);
+            if (index >= 0 && keys[index] == child) {
+                return index;
+            }
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == child) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // 树不可直接编辑
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener listener) {
+        listeners.add(TreeModelListener.class, listener);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener listener) {
+        listeners.remove(TreeModelListener.class, listener);
+    }
+
+    /**
+     * 从根到 key 的树路径
+     */
+    TreePath pathTo(RegistryKey key) {
+        List<Object> nodes = new ArrayList<>();
+        for (RegistryKey current = key; current != null; current = current.getParent()) {
+            nodes.add(current);
+        }
+        nodes.add(root);
+        Collections.reverse(nodes);
+        return new TreePath(nodes.toArray());
+    }
+
+    /**
+     * 重新比较 node 的子项（node 为根节点或 RegistryKey，null 表示根节点），发出相应的增删改事件
+     * node 尚未展开时只通知它自身（叶子状态可能变化）
+     */
+    void refresh(Object node) {
+        if (node == null) {
+            node = root;
+        }
+        Children cached = loaded.get(node);
+        if (cached == null) {
+            if (node != root) {
+                fireChanged(node);
+            }
+            return;
+        }
+        Map<String, RegistryKey> current = sourceOf(node);
+        if (current == cached.source) {
+            fireRenamedInPlace(node, cached);
+            return;
+        }
+        applyDiff(node, cached, snapshot(current));
+    }
+
+    /**
+     * 依次刷新所有展开过的节点（导入等批量修改之后使用），代价与展开过的节点数成正比
+     */
+    void refreshLoaded() {
+        List<Object> pending = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            Object node = pending.remove(pending.size() - 1);
+            if (!loaded.containsKey(node)) {
+                continue;
+            }
+            refresh(node);
+            Children children = loaded.get(node);
+            if (children != null) {
+                pending.addAll(Arrays.asList(children.keys));
+            }
+        }
+    }
+
+    private Children children(Object node) {
+        Children cached = loaded.get(node);
+        if (cached == null) {
+            cached = snapshot(sourceOf(node));
+            loaded.put(node, cached);
+        }
+        return cached;
+    }
+
+    private Map<String, RegistryKey> sourceOf(Object node) {
+        return node == root ? registry.getTopLevelKeys() : ((RegistryKey) node).getSubKeys();
+    }
+
+    private static Children snapshot(Map<String, RegistryKey> source) {
+        RegistryKey[] keys = source.values().toArray(new RegistryKey[0]);
+        Arrays.sort(keys, BY_NAME);
+        return new Children(source, keys);
+    }
+
+    /**
+     * 先移除消失的和位置变化的子项，再按新快照中的位置插入新增的和移动过的子项；
+     * 两步之间模型处于中间状态，保证每个事件发出时模型与事件描述一致
+     */
+    private void applyDiff(Object node, Children before, Children after) {
+        Set<RegistryKey> remaining = Collections.newSetFromMap(new IdentityHashMap<>());
+        remaining.addAll(Arrays.asList(after.keys));
+
+        // 新旧快照中都有的子项里，相对顺序不变的最大一组原地保留，其余视为移动（先移除再插入）
+        Map<RegistryKey, Integer> positionBefore = new IdentityHashMap<>();
+        for (int i = 0; i < before.keys.length; i++) {
+            if (remaining.contains(before.keys[i])) {
+                positionBefore.put(before.keys[i], i);
+            }
+        }
+        List<RegistryKey> survivors = new ArrayList<>();
+        for (RegistryKey key : after.keys) {
+            if (positionBefore.containsKey(key)) {
+                survivors.add(key);
+            }
+        }
+        Set<RegistryKey> kept = longestIncreasingRun(survivors, positionBefore);
+
+        List<Integer> removedIndices = new ArrayList<>();
+        List<RegistryKey> removed = new ArrayList<>();
+        List<RegistryKey> intermediate = new ArrayList<>();
+        for (int i = 0; i < before.keys.length; i++) {
+            RegistryKey key = before.keys[i];
+            if (kept.contains(key)) {
+                intermediate.add(key);
+            } else {
+                removedIndices.add(i);
+                removed.add(key);
+                if (!remaining.contains(key)) {
+                    unload(key);
+                }
+            }
+        }
+        if (intermediate.isEmpty() && !removed.isEmpty() && after.keys.length > 0) {
+            // 子项被整体替换：先插入再移除，避免子项数短暂为 0 使 JTree 收起该节点
+            replaceAll(node, before, after);
+            return;
+        }
+        if (!removed.isEmpty()) {
+            loaded.put(node, new Children(before.source, intermediate.toArray(new RegistryKey[0])));
+            fireRemoved(node, removedIndices, removed);
+        }
+
+        List<Integer> insertedIndices = new ArrayList<>();
+        List<RegistryKey> inserted = new ArrayList<>();
+        for (int i = 0; i < after.keys.length; i++) {
+            if (!kept.contains(after.keys[i])) {
+                insertedIndices.add(i);
+                inserted.add(after.keys[i]);
+            }
+        }
+        loaded.put(node, after);
+        if (!inserted.isEmpty()) {
+            fireInserted(node, insertedIndices, inserted);
+        }
+        fireRenamedInPlace(node, after);
+        if (node != root && (before.keys.length == 0) != (after.keys.length == 0)) {
+            fireChanged(node);
+        }
+    }
+
+    // 新旧快照没有共同子项：中间状态为新子项在前、旧子项在后
+    private void replaceAll(Object node, Children before, Children after) {
+        int added = after.keys.length;
+        RegistryKey[] combined = Arrays.copyOf(after.keys, added + before.keys.length);
+        System.arraycopy(before.keys, 0, combined, added, before.keys.length);
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < added; i++) {
+            indices.add(i);
+        }
+        loaded.put(node, new Children(after.source, combined));
+        fireInserted(node, indices, Arrays.asList(after.keys));
+
+        indices.clear();
+        for (int i = 0; i < before.keys.length; i++) {
+            indices.add(added + i);
+        }
+        loaded.put(node, after);
+        fireRemoved(node, indices, Arrays.asList(before.keys));
+    }
+
+    /**
+     * 按新顺序排列的 keys 中，旧位置严格递增的最长子序列（耐心排序法，O(n log n)）
+     */
+    private static Set<RegistryKey> longestIncreasingRun(List<RegistryKey> keys, Map<RegistryKey, Integer> positions) {
+        int n = keys.size();
+        int[] tails = new int[n];        // 长度为 i+1 的递增子序列中末尾最小的那个的下标
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int position = positions.get(keys.get(i));
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (positions.get(keys.get(tails[mid])) < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        Set<RegistryKey> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result.add(keys.get(i));
+        }
+        return result;
+    }
+
+    // 位置未变但名称变了的子项（排序后仍在原位的重命名）
+    private void fireRenamedInPlace(Object node, Children children) {
+        List<Integer> indices = new ArrayList<>();
+        List<RegistryKey> changed = new ArrayList<>();
+        for (int i = 0; i < children.keys.length; i++) {
+            if (!children.keys[i].getName().equals(children.names[i])) {
+                indices.add(i);
+                changed.add(children.keys[i]);
+            }
+        }
+        if (!changed.isEmpty()) {
+            loaded.put(node, new Children(children.source, children.keys));
+            fire(node, indices, changed, EventKind.CHANGED);
+        }
+    }
+
+    // 丢弃已删除子树中所有节点的快照
+    private void unload(RegistryKey key) {
+        Children children = loaded.remove(key);
+        if (children != null) {
+            for (RegistryKey child : children.keys) {
+                unload(child);
+            }
+        }
+    }
+
+    private enum EventKind {
+        INSERTED, REMOVED, CHANGED
+    }
+
+    private void fireInserted(Object parent, List<Integer> indices, List<RegistryKey> children) {
+        fire(parent, indices, children, EventKind.INSERTED);
+    }
+
+    private void fireRemoved(Object parent, List<Integer> indices, List<RegistryKey> children) {
+        fire(parent, indices, children, EventKind.REMOVED);
+    }
+
+    // 通知 node 自身发生变化（名称或叶子状态）
+    private void fireChanged(Object node) {
+        RegistryKey key = (RegistryKey) node;
+        RegistryKey parentKey = key.getParent();
+        Object parent = parentKey != null ? parentKey : root;
+        if (parentKey == null && !registry.getTopLevelKeys().containsValue(key)) {
+            return; // 已从树中删除
+        }
+        if (!loaded.containsKey(parent)) {
+            return; // 父节点没有展开过，node 不可见
+        }
+        int index = getIndexOfChild(parent, key);
+        if (index >= 0) {
+            fire(parent, Collections.singletonList(index), Collections.singletonList(key), EventKind.CHANGED);
+        }
+    }
+
+    private void fire(Object parent, List<Integer> indices, List<RegistryKey> children, EventKind kind) {
+        Object[] listenerArray = listeners.getListenerList();
+        if (listenerArray.length == 0) {
+            return;
+        }
+        int[] indexArray = new int[indices.size()];
+        for (int i = 0; i < indexArray.length; i++) {
+            indexArray[i] = indices.get(i);
+        }
+        TreePath parentPath = parent == root ? new TreePath(root) : pathTo((RegistryKey) parent);
+        TreeModelEvent event = new TreeModelEvent(this, parentPath, indexArray, children.toArray());
+        for (int i = listenerArray.length - 2; i >= 0; i -= 2) {
+            if (listenerArray[i] == TreeModelListener.class) {
+                TreeModelListener listener = (TreeModelListener) listenerArray[i + 1];
+                switch (kind) {
+                    case INSERTED:
+                        listener.treeNodesInserted(event);
+                        break;
+                    case REMOVED:
+                        listener.treeNodesRemoved(event);
+                        break;
+                    default:
+                        listener.treeNodesChanged(event);
+                }
+            }
+        }
+    }
+}
@@ -1,37 +1,240 @@
 package com.shy;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
  * 注册表键值对类
  * 包含名称、类型和值
+ *
+ * 值按类型以原生形式保存：DWord 为 int、QWord 为 long、Binary 为 byte[]、Multi-String 为 String[]；
+ * 只有文本能由原生形式原样还原时才转换（DWord/QWord 为定长小写十六进制，Binary 为小写十六进制字节串），
+ * 否则仍按字符串保存，保证 getValue() 返回的文本与写入时一致
+ * 创建后不可修改，修改键值时由 Registry 换成新对象（写入新值使用 Registry.setValue）：
+ * 同一对象同时被检查点保存的旧内容、搜索索引和 RegistryCache 引用，原地修改会让它们与注册表不一致
  */
 public class RegistryValue implements Serializable {
     private static final long serialVersionUID = 1L;
-    
+
+    // 仍按旧版结构（三个字符串字段）序列化，保持与旧文件兼容
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("type", String.class),
+            new ObjectStreamField("value", String.class)
+    };
+
+    // data 为该标记时，值保存在 number 中
+    private static final Object NUMBER = new Object();
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     private String name;
     private String type;
-    private String value;
-    
+    // String / byte[] / String[] / NUMBER；先写 number 再写 data，读取时先读 data 即可看到对应的 number
+    private transient volatile Object data;
+    private transient long number;
+
     public RegistryValue(String name, String type, String value) {
-        this.name = name;
-        this.type = type;
-        this.value = value;
+        this.name = RegistryStrings.name(name);
+        this.type = RegistryStrings.type(type);
+        encode(value);
     }
-    
+
     public String getName() {
         return name;
     }
-    
+
     public String getType() {
         return type;
     }
-    
+
+    // 文本形式的值（原生形式的值每次调用都会重新生成文本）
     public String getValue() {
-        return value;
+        Object current = data;
+        if (current == NUMBER) {
+            return "QWord".equals(type) ? hex(number, 16) : hex(number, 8);
+        }
+        if (current instanceof byte[]) {
+            return hex((byte[]) current);
+        }
+        if (current instanceof String[]) {
+            return String.join("\0", (String[]) current);
+        }
+        return (String) current;
+    }
+
+    // 是否以原生形式（而非字符串）保存
+    boolean isNative() {
+        Object current = data;
+        return current != null && !(current instanceof String);
+    }
+
+    /**
+     * DWord 的数值；字符串形式的值按十六进制（DWord 类型）或十进制（其他类型）解析
+     * @throws NumberFormatException  值不是数字
+     */
+    public int getDWord() {
+        Object current = data;
+        if (current == NUMBER) {
+            return (int) number;
+        }
+        String text = getValue();
+        if (text == null) {
+            throw new NumberFormatException("键值为空: " + name);
+        }
+        return "DWord".equals(type) ? Integer.parseUnsignedInt(text.trim(), 16) : Integer.parseInt(text.trim());
+    }
+
+    /**
+     * QWord 的数值；字符串形式的值按十六进制（DWord/QWord 类型）或十进制（其他类型）解析
+     * @throws NumberFormatException  值不是数字
+     */
+    public long getQWord() {
+        Object current = data;
+        if (current == NUMBER) {
+            return "DWord".equals(type) ? number & 0xFFFFFFFFL : number;
+        }
+        String text = getValue();
+        if (text == null) {
+            throw new NumberFormatException("键值为空: " + name);
+        }
+        return "DWord".equals(type) || "QWord".equals(type)
+                ? Long.parseUnsignedLong(text.trim(), 16) : Long.parseLong(text.trim());
+    }
+
+    /**
+     * Binary 的字节内容（副本）；字符串形式的值按十六进制解析
+     * @throws NumberFormatException  值不是十六进制字节串
+     */
+    public byte[] getBytes() {
+        Object current = data;
+        if (current instanceof byte[]) {
+            return ((byte[]) current).clone();
+        }
+        byte[] bytes = current instanceof String ? parseBytes(((String) current).trim(), false) : null;
+        if (bytes == null) {
+            throw new NumberFormatException("键值不是十六进制字节串: " + name);
+        }
+        return bytes;
     }
-    
-    public void setValue(String value) {
-        this.value = value;
+
+    /**
+     * Multi-String 的各个字符串（副本），以 \0 分隔
+     */
+    public String[] getMultiString() {
+        Object current = data;
+        if (current instanceof String[]) {
+            return ((String[]) current).clone();
+        }
+        String text = getValue();
+        return text == null ? new String[0] : text.split("\0", -1);
+    }
+
+    // 按类型把文本转换为原生形式，不能原样还原时保留文本
+    private void encode(String value) {
+        if (value != null && type != null) {
+            switch (type) {
+                case "DWord":
+                    if (isCanonicalHex(value, 8)) {
+                        number = Long.parseUnsignedLong(value, 16);
+                        data = NUMBER;
+                        return;
+                    }
+                    break;
+                case "QWord":
+                    if (isCanonicalHex(value, 16)) {
+                        number = Long.parseUnsignedLong(value, 16);
+                        data = NUMBER;
+                        return;
+                    }
+                    break;
+                case "Binary":
+                    byte[] bytes = parseBytes(value, true);
+                    if (bytes != null) {
+                        data = bytes;
+                        return;
+                    }
+                    break;
+                case "Multi-String":
+                    if (value.indexOf('\0') >= 0) {
+                        data = value.split("\0", -1);
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        data = RegistryStrings.value(value);
+    }
+
+    // 固定位数的小写十六进制
+    private static boolean isCanonicalHex(String text, int digits) {
+        if (text.length() != digits) {
+            return false;
+        }
+        for (int i = 0; i < digits; i++) {
+            if (Character.digit(text.charAt(i), 16) < 0 || Character.isUpperCase(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 十六进制字节串转为字节数组，格式不符时返回 null
+     * @param lowerCaseOnly  只接受小写（可由 hex(byte[]) 原样还原）
+     */
+    private static byte[] parseBytes(String text, boolean lowerCaseOnly) {
+        if ((text.length() & 1) != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[text.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            char high = text.charAt(2 * i);
+            char low = text.charAt(2 * i + 1);
+            int h = Character.digit(high, 16);
+            int l = Character.digit(low, 16);
+            if (h < 0 || l < 0 || lowerCaseOnly && (Character.isUpperCase(high) || Character.isUpperCase(low))) {
+                return null;
+            }
+            bytes[i] = (byte) (h << 4 | l);
+        }
+        return bytes;
+    }
+
+    private static String hex(long value, int digits) {
+        char[] chars = new char[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("type", type);
+        fields.put("value", getValue());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = RegistryStrings.name((String) fields.get("name", null));
+        type = RegistryStrings.type((String) fields.get("type", null));
+        encode((String) fields.get("value", null));
     }
 }
@@ -0,0 +1,166 @@
+package com.shy;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * 编辑器右侧键值表格的数据模型
+ *
+ * 直接引用注册表项的值集合（不可变映射），只保存一个按当前排序列排好的 RegistryValue 引用数组，
+ * 不再把每个值复制成一行 Object[]；单元格内容在 JTable 绘制可见行时才取出。
+ * 值集合引用不变时 setValues 什么也不做，排序列不变时不重新排序。所有方法都应在事件分发线程上调用
+ */
+final class RegistryValuesTableModel extends AbstractTableModel {
+
+    static final int NAME_COLUMN = 0;
+    static final int TYPE_COLUMN = 1;
+    static final int DATA_COLUMN = 2;
+
+    private static final String[] COLUMN_NAMES = {"名称", "类型", "数据"};
+    private static final RegistryValue[] NO_ROWS = new RegistryValue[0];
+
+    // 先不区分大小写比较，相同时再区分；null（未设置的值）排在最前
+    private static final Comparator<String> TEXT_ORDER = Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER
+            .thenComparing(Comparator.naturalOrder()));
+    private static final Comparator<RegistryValue> BY_NAME =
+            Comparator.comparing(RegistryValue::getName, TEXT_ORDER);
+    private static final Comparator<RegistryValue> BY_TYPE =
+            Comparator.comparing(RegistryValue::getType, TEXT_ORDER).thenComparing(BY_NAME);
+
+    private Map<String, RegistryValue> source;
+    private RegistryValue[] rows = NO_ROWS;
+    private int sortColumn = NAME_COLUMN;
+    private boolean ascending = true;
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        if (column != sortColumn) {
+            return COLUMN_NAMES[column];
+        }
+        return COLUMN_NAMES[column] + (ascending ? " ▲" : " ▼");
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        RegistryValue value = rows[row];
+        switch (column) {
+            case NAME_COLUMN:
+                return value.getName();
+            case TYPE_COLUMN:
+                return value.getType();
+            default:
+                return value.getValue();
+        }
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false; // 单元格不可直接编辑，通过双击触发编辑对话框
+    }
+
+    /**
+     * 第 row 行对应的键值
+     */
+    RegistryValue getRow(int row) {
+        return rows[row];
+    }
+
+    /**
+     * 名为 name 的键值所在的行，不存在时返回 -1
+     */
+    int indexOf(String name) {
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i].getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 显示 values 中的键值；与当前显示的是同一个（不可变）集合时直接返回
+     */
+    void setValues(Map<String, RegistryValue> values) {
+        if (values == null || values.isEmpty()) {
+            clear();
+            return;
+        }
+        if (values == source) {
+            return;
+        }
+        source = values;
+        rows = values.values().toArray(NO_ROWS);
+        sortRows();
+        fireTableDataChanged();
+    }
+
+    /**
+     * 清空表格数据
+     */
+    void clear() {
+        source = null;
+        if (rows.length > 0) {
+            rows = NO_ROWS;
+            fireTableDataChanged();
+        }
+    }
+
+    /**
+     * 按 column 排序；已按该列排序时切换升序/降序
+     */
+    void sortBy(int column) {
+        if (column == sortColumn) {
+            ascending = !ascending;
+        } else {
+            sortColumn = column;
+            ascending = true;
+        }
+        sortRows();
+        fireTableDataChanged();
+    }
+
+    private void sortRows() {
+        if (rows.length < 2) {
+            return;
+        }
+        if (sortColumn == DATA_COLUMN) {
+            sortByData();
+        } else {
+            Comparator<RegistryValue> order = sortColumn == TYPE_COLUMN ? BY_TYPE : BY_NAME;
+            Arrays.sort(rows, ascending ? order : order.reversed());
+        }
+    }
+
+    // 原生形式的值每次 getValue() 都会生成文本，排序前每个值只取一次
+    private void sortByData() {
+        int n = rows.length;
+        String[] texts = new String[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            texts[i] = rows[i].getValue();
+            order[i] = i;
+        }
+        Comparator<Integer> byText = (a, b) -> {
+            int result = TEXT_ORDER.compare(texts[a], texts[b]);
+            return result != 0 ? result : BY_NAME.compare(rows[a], rows[b]);
+        };
+        Arrays.sort(order, ascending ? byText : byText.reversed());
+        RegistryValue[] sorted = new RegistryValue[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = rows[order[i]];
+        }
+        rows = sorted;
+    }
+}
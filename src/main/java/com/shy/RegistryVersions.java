@@ -0,0 +1,75 @@
+package com.shy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 注册表项的版本戳，供 RegistryCache 判断缓存的键值是否过期
+ *
+ * 每个项路径按哈希落到固定大小的槽位数组中，两组槽位分别记录：
+ * 该项键值的修改（设置、删除、重命名键值）和以该项为根的子树的结构变化（删除、重命名该项）。
+ * 修改在写锁内完成后才递增版本戳，读到同一版本戳之前和之后的键值一定相同；
+ * 不同路径落到同一槽位时只会多一次未命中，不会读到过期的值。
+ * 另有一个全局修改计数，任何修改都会递增；它没有变化时无需逐个比较槽位
+ */
+final class RegistryVersions {
+
+    // 槽位数（2 的幂）
+    private static final int SLOTS = 1 << 14;
+
+    private final AtomicLongArray valueStamps = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray subtreeStamps = new AtomicLongArray(SLOTS);
+    private final AtomicLong modifications = new AtomicLong();
+
+    // keyPath 的键值发生了变化
+    void valuesChanged(String keyPath) {
+        valueStamps.incrementAndGet(slot(RegistryPath.trimTrailingSeparators(keyPath).hashCode()));
+        modifications.incrementAndGet();
+    }
+
+    // 以 keyPath 为根的子树被删除、重命名或重新挂回
+    void subtreeChanged(String keyPath) {
+        subtreeStamps.incrementAndGet(slot(RegistryPath.trimTrailingSeparators(keyPath).hashCode()));
+        modifications.incrementAndGet();
+    }
+
+    // 全局修改计数，在各槽位的版本戳之后递增
+    long modifications() {
+        return modifications.get();
+    }
+
+    long valueStamp(int slot) {
+        return valueStamps.get(slot);
+    }
+
+    long subtreeStamp(int slot) {
+        return subtreeStamps.get(slot);
+    }
+
+    static int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (SLOTS - 1);
+    }
+
+    /**
+     * 路径自身及其各级祖先（从顶级项开始）的槽位
+     * 逐字符累加的哈希在每个分隔符处恰好等于该前缀的 String.hashCode，一次扫描即可得到全部前缀
+     */
+    static int[] prefixSlots(String keyPath) {
+        int depth = 1;
+        for (int i = keyPath.indexOf(RegistryPath.SEPARATOR); i >= 0; i = keyPath.indexOf(RegistryPath.SEPARATOR, i + 1)) {
+            depth++;
+        }
+        int[] slots = new int[depth];
+        int hash = 0;
+        int level = 0;
+        for (int i = 0; i < keyPath.length(); i++) {
+            char c = keyPath.charAt(i);
+            if (c == RegistryPath.SEPARATOR) {
+                slots[level++] = slot(hash);
+            }
+            hash = 31 * hash + c;
+        }
+        slots[level] = slot(hash);
+        return slots;
+    }
+}
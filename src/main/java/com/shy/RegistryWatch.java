@@ -0,0 +1,56 @@
+package com.shy;
+
+/**
+ * 一次 watch 注册，close 后不再收到通知
+ */
+public final class RegistryWatch implements AutoCloseable {
+
+    private final RegistryEventDispatcher dispatcher;
+    private final String path;
+    private final String prefix;
+    private final boolean recursive;
+    private final RegistryListener listener;
+
+    RegistryWatch(RegistryEventDispatcher dispatcher, String path, boolean recursive, RegistryListener listener) {
+        this.dispatcher = dispatcher;
+        this.path = path;
+        this.prefix = path + RegistryPath.SEPARATOR;
+        this.recursive = recursive;
+        this.listener = listener;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    RegistryListener getListener() {
+        return listener;
+    }
+
+    /**
+     * 事件是否与监视的注册表项相关：
+     * 该项自身及其键值的变化、直接子项的创建/删除/重命名、祖先被删除或重命名，
+     * recursive 时还包括整个子树内的变化
+     */
+    boolean matches(RegistryEvent event) {
+        String keyPath = event.getKeyPath();
+        if (keyPath.equals(path)) {
+            return true;
+        }
+        if (keyPath.startsWith(prefix)) {
+            return recursive || (event.isKeyEvent() && keyPath.indexOf(RegistryPath.SEPARATOR, prefix.length()) < 0);
+        }
+        // 祖先被删除或重命名时，监视的注册表项也随之消失
+        return event.isKeyEvent() && event.getType() != RegistryEvent.Type.KEY_CREATED
+                && path.startsWith(keyPath) && path.charAt(keyPath.length()) == RegistryPath.SEPARATOR;
+    }
+
+    @Override
+    public void close() {
+        dispatcher.remove(this);
+    }
+}